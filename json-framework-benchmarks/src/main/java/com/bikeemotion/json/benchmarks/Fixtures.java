@@ -0,0 +1,87 @@
+/**
+ * Copyright (C) Bikeemotion
+ * 2014
+ *
+ * The reproduction, transmission or use of this document or its contents is not
+ * permitted without express written authorization. All rights, including rights
+ * created by patent grant or registration of a utility model or design, are
+ * reserved. Modifications made to this document are restricted to authorized
+ * personnel only. Technical specifications and features are binding only when
+ * specifically and expressly agreed upon in a written contract.
+ */
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.bikeemotion.json.benchmarks;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Schemas and documents shaped like the ones of the test suite: an id, the
+ * state properties read by the <code>enforce</code> methods and strong-typed
+ * nodes of every data type.
+ */
+final class Fixtures {
+
+  static final String SCHEMA = "{\n"
+      + "   \"id\":\"\",\n"
+      + "   \"state\":0,\n"
+      + "   \"active\":{\"type\":\"number\", \"value\":1, \"min\":0, \"max\":1},\n"
+      + "   \"visible\":{\"type\":\"number\", \"value\":1, \"min\":0, \"max\":1},\n"
+      + "   \"code\":{\"type\":\"sstring\", \"value\":\"\", \"min\":1, \"max\":32},\n"
+      + "   \"name\":{\"type\":\"string\", \"value\":{\"en\":\"\", \"pt\":\"\"}, \"mandatory\":false},\n"
+      + "   \"price\":{\"type\":\"number\", \"value\":0, \"min\":0, \"max\":99.99}\n"
+      + "}";
+
+  /**
+   * {@link #SCHEMA} with a <code>code</code> unique in the collection.
+   */
+  static final String UNIQUE_SCHEMA = new JSONObject(SCHEMA)
+      .put("code", new JSONObject(SCHEMA).getJSONObject("code")
+          .put("unique", new JSONObject().put("value", true)))
+      .toString();
+
+  private Fixtures() {
+
+  }
+
+  /**
+   * @return the <code>i</code>th item, every 5th invisible, 7th inactive and
+   *         10th deleted
+   */
+  static JSONObject item(int i) {
+
+    return new JSONObject()
+        .put("id", String.format("00000000-0000-0000-0000-%012d", i))
+        .put("state", i % 10 == 9 ? -1 : 0)
+        .put("active", new JSONObject().put("value", i % 7 == 6 ? 0 : 1))
+        .put("visible", new JSONObject().put("value", i % 5 == 4 ? 0 : 1))
+        .put("code", new JSONObject().put("value", "C" + i))
+        .put("name", new JSONObject().put("value",
+            new JSONObject().put("en", "Bike " + i).put("pt", "Bicicleta " + i)))
+        .put("price", new JSONObject().put("value", i % 100 + 0.5));
+  }
+
+  /**
+   * @return items <code>from</code> (inclusive) to <code>to</code>
+   *         (exclusive)
+   */
+  static JSONArray items(int from, int to) {
+
+    final JSONArray result = new JSONArray();
+    for (int i = from; i < to; i++) {
+      result.put(item(i));
+    }
+    return result;
+  }
+}
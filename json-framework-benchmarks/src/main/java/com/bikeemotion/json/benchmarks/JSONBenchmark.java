@@ -0,0 +1,107 @@
+/**
+ * Copyright (C) Bikeemotion
+ * 2014
+ *
+ * The reproduction, transmission or use of this document or its contents is not
+ * permitted without express written authorization. All rights, including rights
+ * created by patent grant or registration of a utility model or design, are
+ * reserved. Modifications made to this document are restricted to authorized
+ * personnel only. Technical specifications and features are binding only when
+ * specifically and expressly agreed upon in a written contract.
+ */
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.bikeemotion.json.benchmarks;
+
+import com.bikeemotion.json.JSON;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * One document: checked against its schema, written and read by the Jackson
+ * (de)serializers and by java serialization.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class JSONBenchmark {
+
+  private final ObjectMapper mapper = new ObjectMapper();
+
+  private String value;
+  private JSON json;
+  private String jackson;
+  private byte[] serialized;
+
+  @Setup
+  public void setUp() throws Exception {
+
+    this.value = Fixtures.item(42).toString();
+    this.json = new JSON(Fixtures.SCHEMA, this.value);
+    this.jackson = this.mapper.writeValueAsString(this.json);
+    this.serialized = writeObject();
+  }
+
+  @Benchmark
+  public JSON newJSON() throws Exception {
+
+    return new JSON(Fixtures.SCHEMA, this.value);
+  }
+
+  @Benchmark
+  public String jacksonSerialize() throws Exception {
+
+    return this.mapper.writeValueAsString(this.json);
+  }
+
+  @Benchmark
+  public JSON jacksonDeserialize() throws Exception {
+
+    return this.mapper.readValue(this.jackson, JSON.class);
+  }
+
+  @Benchmark
+  public byte[] writeObject() throws Exception {
+
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+      out.writeObject(this.json);
+    }
+    return bytes.toByteArray();
+  }
+
+  @Benchmark
+  public Object readObject() throws Exception {
+
+    try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(this.serialized))) {
+      return in.readObject();
+    }
+  }
+}
@@ -0,0 +1,142 @@
+/**
+ * Copyright (C) Bikeemotion
+ * 2014
+ *
+ * The reproduction, transmission or use of this document or its contents is not
+ * permitted without express written authorization. All rights, including rights
+ * created by patent grant or registration of a utility model or design, are
+ * reserved. Modifications made to this document are restricted to authorized
+ * personnel only. Technical specifications and features are binding only when
+ * specifically and expressly agreed upon in a written contract.
+ */
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.bikeemotion.json.benchmarks;
+
+import com.bikeemotion.json.JSONCollection;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * A collection: checked against its schema by <code>setValue</code> (type
+ * constraints, and uniqueness when the schema has <code>unique</code> tags),
+ * written and read by the Jackson (de)serializers and by java serialization.
+ * Only <code>setValue</code> depends on the schema.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class JSONCollectionBenchmark {
+
+  @State(Scope.Benchmark)
+  public static class Values {
+
+    @Param({ "100", "10000", "100000" })
+    private int size;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    private String value;
+    private JSONCollection collection;
+    private String jackson;
+    private byte[] serialized;
+
+    @Setup
+    public void setUp() throws Exception {
+
+      this.value = Fixtures.items(0, this.size).toString();
+      this.collection = new JSONCollection();
+      this.collection.setValue(Fixtures.SCHEMA, this.value);
+      this.jackson = this.mapper.writeValueAsString(this.collection);
+      this.serialized = serialize(this.collection);
+    }
+  }
+
+  @State(Scope.Benchmark)
+  public static class Schemas {
+
+    @Param({ "false", "true" })
+    private boolean unique;
+
+    private String schema;
+
+    @Setup
+    public void setUp() {
+
+      this.schema = this.unique ? Fixtures.UNIQUE_SCHEMA : Fixtures.SCHEMA;
+    }
+  }
+
+  /**
+   * Parses the value too, the schema is taken from the default schema cache.
+   */
+  @Benchmark
+  public JSONCollection setValue(Values values, Schemas schemas) throws Exception {
+
+    final JSONCollection result = new JSONCollection();
+    result.setValue(schemas.schema, values.value);
+    return result;
+  }
+
+  @Benchmark
+  public String jacksonSerialize(Values values) throws Exception {
+
+    return values.mapper.writeValueAsString(values.collection);
+  }
+
+  @Benchmark
+  public JSONCollection jacksonDeserialize(Values values) throws Exception {
+
+    return values.mapper.readValue(values.jackson, JSONCollection.class);
+  }
+
+  @Benchmark
+  public byte[] writeObject(Values values) throws Exception {
+
+    return serialize(values.collection);
+  }
+
+  @Benchmark
+  public Object readObject(Values values) throws Exception {
+
+    try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(values.serialized))) {
+      return in.readObject();
+    }
+  }
+
+  private static byte[] serialize(JSONCollection collection) throws Exception {
+
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+      out.writeObject(collection);
+    }
+    return bytes.toByteArray();
+  }
+}
@@ -0,0 +1,186 @@
+/**
+ * Copyright (C) Bikeemotion
+ * 2014
+ *
+ * The reproduction, transmission or use of this document or its contents is not
+ * permitted without express written authorization. All rights, including rights
+ * created by patent grant or registration of a utility model or design, are
+ * reserved. Modifications made to this document are restricted to authorized
+ * personnel only. Technical specifications and features are binding only when
+ * specifically and expressly agreed upon in a written contract.
+ */
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.bikeemotion.json.benchmarks;
+
+import com.bikeemotion.json.JSONCollection;
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+import org.json.JSONArray;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.IterationParams;
+
+/**
+ * The methods changing a collection in place, each call on a fresh
+ * collection:
+ * <ul>
+ * <li><code>items</code>, the items 0 to <code>size</code>;</li>
+ * <li><code>newItems</code>, the same with every 10th item left out and
+ * <code>size / 10</code> new items appended;</li>
+ * <li><code>oldItems</code>, <code>items</code> as they were, shared since
+ * it's only read (<code>appendRemovedItems</code> marks the items it moves
+ * as deleted again).</li>
+ * </ul>
+ * The fresh collections are parsed before each iteration, one per call of
+ * the batch, so each score is the time of {@link #BATCH} calls. A 100000
+ * items collection takes about 250MB.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 10, batchSize = JSONCollectionStateBenchmark.BATCH)
+@Measurement(iterations = 20, batchSize = JSONCollectionStateBenchmark.BATCH)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class JSONCollectionStateBenchmark {
+
+  static final int BATCH = 5;
+
+  @State(Scope.Benchmark)
+  public static class Values {
+
+    @Param({ "100", "10000", "100000" })
+    private int size;
+
+    private String itemsValue;
+    private String newItemsValue;
+    private JSONCollection oldItems;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+
+      this.itemsValue = Fixtures.items(0, this.size).toString();
+
+      final JSONArray newItems = new JSONArray();
+      for (int i = 0; i < this.size; i++) {
+        if (i % 10 != 0) {
+          newItems.put(Fixtures.item(i));
+        }
+      }
+      for (int i = this.size; i < this.size + this.size / 10; i++) {
+        newItems.put(Fixtures.item(i));
+      }
+      this.newItemsValue = newItems.toString();
+
+      this.oldItems = collection(this.itemsValue);
+    }
+  }
+
+  /**
+   * Fresh <code>items</code> for the calls of one iteration.
+   */
+  @State(Scope.Thread)
+  public static class Items {
+
+    private final ArrayDeque<JSONCollection> pool = new ArrayDeque<>();
+
+    @Setup(Level.Iteration)
+    public void setUp(Values values, IterationParams iteration) throws Exception {
+
+      fill(this.pool, values.itemsValue, iteration.getBatchSize());
+    }
+
+    JSONCollection next() {
+
+      return this.pool.pop();
+    }
+  }
+
+  /**
+   * Fresh <code>newItems</code> for the calls of one iteration.
+   */
+  @State(Scope.Thread)
+  public static class NewItems {
+
+    private final ArrayDeque<JSONCollection> pool = new ArrayDeque<>();
+
+    @Setup(Level.Iteration)
+    public void setUp(Values values, IterationParams iteration) throws Exception {
+
+      fill(this.pool, values.newItemsValue, iteration.getBatchSize());
+    }
+
+    JSONCollection next() {
+
+      return this.pool.pop();
+    }
+  }
+
+  @Benchmark
+  public JSONCollection enforceActive(Items items) throws Exception {
+
+    return items.next().enforceActive();
+  }
+
+  @Benchmark
+  public JSONCollection enforceVisible(Items items) throws Exception {
+
+    return items.next().enforceVisible();
+  }
+
+  @Benchmark
+  public JSONCollection enforceNotDeleted(Items items) throws Exception {
+
+    return items.next().enforceNotDeleted();
+  }
+
+  @Benchmark
+  public JSONCollection appendRemovedItems(NewItems newItems, Values values) throws Exception {
+
+    return newItems.next().appendRemovedItems(values.oldItems);
+  }
+
+  @Benchmark
+  public JSONCollection purgeInvalidItems(NewItems newItems, Values values) throws Exception {
+
+    return newItems.next().purgeInvalidItems(values.oldItems);
+  }
+
+  private static void fill(ArrayDeque<JSONCollection> pool, String value, int count) throws Exception {
+
+    // the previous iteration's collections are released first
+    pool.clear();
+    for (int i = 0; i < count; i++) {
+      pool.push(collection(value));
+    }
+  }
+
+  /**
+   * @return a collection of the parsed items, unchecked
+   */
+  private static JSONCollection collection(String value) throws Exception {
+
+    final JSONCollection result = new JSONCollection();
+    result.setValue(new JSONArray(value));
+    return result;
+  }
+}
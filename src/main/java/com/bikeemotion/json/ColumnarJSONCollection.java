@@ -0,0 +1,595 @@
+/**
+ * Copyright (C) Bikeemotion
+ * 2014
+ *
+ * The reproduction, transmission or use of this document or its contents is not
+ * permitted without express written authorization. All rights, including rights
+ * created by patent grant or registration of a utility model or design, are
+ * reserved. Modifications made to this document are restricted to authorized
+ * personnel only. Technical specifications and features are binding only when
+ * specifically and expressly agreed upon in a written contract.
+ */
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.bikeemotion.json;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Read-only, column oriented copy of a collection.<br/>
+ * Items validated against one schema share the same layout, so instead of one
+ * <code>JSONObject</code> per item each leaf field (by path) is kept in a
+ * column: a primitive array for <code>Integer</code>, <code>Long</code>,
+ * <code>Double</code> and <code>Boolean</code> values, dictionary encoded for
+ * strings, and a plain array of values for anything else. Each item only
+ * keeps its layout (key order and nesting), shared between the items having
+ * the same one.<br/>
+ * Items are rebuilt as new objects on {@link #get(int)}, changing them doesn't
+ * change the collection. {@link #writeTo(OutputStream)} writes straight from
+ * the columns.
+ */
+public final class ColumnarJSONCollection {
+
+  private static final int INITIAL_CAPACITY = 16;
+
+  private final Map<List<String>, Integer> columnsByPath = new HashMap<>();
+  private final List<Column> columns = new ArrayList<>();
+  private final Map<Shape, Shape> shapes = new HashMap<>();
+  private Shape[] rows = new Shape[INITIAL_CAPACITY];
+  private int size;
+
+  public ColumnarJSONCollection() {
+  }
+
+  /**
+   * @param collection
+   *          Items to copy, usually validated against one schema
+   */
+  public ColumnarJSONCollection(JSONCollection collection) {
+
+    // read only, the source keeps its indexes
+    final JSONArray items = collection.items();
+    for (int i = 0; i < items.length(); i++) {
+      add(items.getJSONObject(i));
+    }
+  }
+
+  /**
+   * Appends a copy of <code>item</code>.
+   * 
+   * @param item
+   */
+  public void add(JSONObject item) {
+
+    final int row = this.size;
+    final Shape shape = shape(item, new ArrayList<String>(), row);
+
+    if (row == this.rows.length) {
+      this.rows = Arrays.copyOf(this.rows, row * 2);
+    }
+    this.rows[row] = shape;
+    this.size++;
+  }
+
+  public int size() {
+    return this.size;
+  }
+
+  /**
+   * @return a new object with the item at <code>index</code>
+   */
+  public JSONObject get(int index) {
+
+    return rebuild(row(index), index);
+  }
+
+  /**
+   * @return a new collection with every item rebuilt
+   */
+  public JSONCollection toJSONCollection() {
+
+    final JSONCollection result = new JSONCollection();
+    final JSONArray items = result.getValue();
+    for (int i = 0; i < this.size; i++) {
+      items.put(rebuild(this.rows[i], i));
+    }
+    return result;
+  }
+
+  /**
+   * Writes the items as a json array to <code>out</code> in UTF-8, the same
+   * text {@link JSONCollection#writeTo(OutputStream)} writes for the items
+   * this collection was built from.<br/>
+   * The stream is flushed, not closed.
+   * 
+   * @param out
+   */
+  public void writeTo(OutputStream out)//
+      throws IOException {
+
+    try (JsonGenerator generator = JSONTokenReader.FACTORY.createGenerator(out,
+        JsonEncoding.UTF8)) {
+      write(generator);
+    }
+  }
+
+  /**
+   * Same as {@link #writeTo(OutputStream)} for a character stream.
+   * 
+   * @param writer
+   */
+  public void writeTo(Writer writer)//
+      throws IOException {
+
+    try (JsonGenerator generator = JSONTokenReader.FACTORY.createGenerator(writer)) {
+      write(generator);
+    }
+  }
+
+  @Override
+  public String toString() {
+
+    final StringWriter writer = new StringWriter();
+    try {
+      writeTo(writer);
+    } catch (IOException e) {
+      // a StringWriter doesn't fail
+      throw new IllegalStateException(e);
+    }
+    return writer.toString();
+  }
+
+  // internal API
+  private Shape row(int index) {
+
+    if (index < 0 || index >= this.size) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + this.size);
+    }
+    return this.rows[index];
+  }
+
+  /**
+   * Stores the leaves of <code>object</code> at <code>row</code>.
+   * 
+   * @return the shared layout of <code>object</code>
+   */
+  private Shape shape(JSONObject object, List<String> path, int row) {
+
+    final String[] keys = new String[object.length()];
+    final Shape[] children = new Shape[keys.length];
+    final int[] leaves = new int[keys.length];
+
+    int i = 0;
+    for (Object key : object.keySet()) {
+      keys[i] = (String) key;
+      path.add(keys[i]);
+
+      final Object value = object.opt(keys[i]);
+      if (value instanceof JSONObject && ((JSONObject) value).length() > 0) {
+        children[i] = shape((JSONObject) value, path, row);
+        leaves[i] = -1;
+      } else {
+        leaves[i] = column(path);
+        final Column column = this.columns.get(leaves[i]);
+        if (!column.set(row, value)) {
+          // the value doesn't fit the column type anymore
+          final Column generic = new ValueColumn(column, this.size);
+          generic.set(row, value);
+          this.columns.set(leaves[i], generic);
+        }
+      }
+
+      path.remove(path.size() - 1);
+      i++;
+    }
+
+    final Shape shape = new Shape(keys, children, leaves);
+    final Shape shared = this.shapes.get(shape);
+    if (shared != null) {
+      return shared;
+    }
+    this.shapes.put(shape, shape);
+    return shape;
+  }
+
+  private int column(List<String> path) {
+
+    Integer result = this.columnsByPath.get(path);
+    if (result == null) {
+      result = this.columns.size();
+      this.columns.add(new EmptyColumn());
+      this.columnsByPath.put(new ArrayList<>(path), result);
+    }
+    return result;
+  }
+
+  private JSONObject rebuild(Shape shape, int row) {
+
+    final JSONObject result = new JSONObject();
+    for (int i = 0; i < shape.keys.length; i++) {
+      if (shape.children[i] != null) {
+        result.put(shape.keys[i], rebuild(shape.children[i], row));
+      } else {
+        result.put(shape.keys[i], this.columns.get(shape.leaves[i]).get(row));
+      }
+    }
+    return result;
+  }
+
+  private void write(JsonGenerator generator)
+    throws IOException {
+
+    generator.writeStartArray();
+    for (int i = 0; i < this.size; i++) {
+      write(generator, this.rows[i], i);
+    }
+    generator.writeEndArray();
+  }
+
+  private void write(JsonGenerator generator, Shape shape, int row)
+    throws IOException {
+
+    generator.writeStartObject();
+    for (int i = 0; i < shape.keys.length; i++) {
+      generator.writeFieldName(shape.keys[i]);
+      if (shape.children[i] != null) {
+        write(generator, shape.children[i], row);
+      } else {
+        this.columns.get(shape.leaves[i]).write(generator, row);
+      }
+    }
+    generator.writeEndObject();
+  }
+
+  /**
+   * Key order and nesting of an object, with the column of each leaf.
+   */
+  private static final class Shape {
+
+    private final String[] keys;
+    // null for leaves
+    private final Shape[] children;
+    // -1 for nested objects
+    private final int[] leaves;
+    private final int hash;
+
+    Shape(String[] keys, Shape[] children, int[] leaves) {
+
+      this.keys = keys;
+      this.children = children;
+      this.leaves = leaves;
+      this.hash = 31 * (31 * Arrays.hashCode(keys) + Arrays.hashCode(children))
+          + Arrays.hashCode(leaves);
+    }
+
+    @Override
+    public int hashCode() {
+      return this.hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+
+      if (this == obj) {
+        return true;
+      } else if (!(obj instanceof Shape)) {
+        return false;
+      }
+
+      final Shape other = (Shape) obj;
+      // children are shared, so they compare by identity
+      return this.hash == other.hash && Arrays.equals(this.keys, other.keys)
+          && Arrays.equals(this.leaves, other.leaves)
+          && Arrays.equals(this.children, other.children);
+    }
+  }
+
+  /**
+   * Values of one leaf path, by row. Rows not having the path hold garbage.
+   */
+  private abstract static class Column {
+
+    /**
+     * @return false if <code>value</code> can't be kept in this column
+     */
+    abstract boolean set(int row, Object value);
+
+    abstract Object get(int row);
+
+    /**
+     * @return the number of rows held, {@link #get(int)} may fail past it
+     */
+    abstract int length();
+
+    void write(JsonGenerator generator, int row)
+      throws IOException {
+
+      JSONTokenWriter.ORG_JSON.writeValue(generator, get(row));
+    }
+
+    static int capacity(int length, int row) {
+      return Math.max(Math.max(INITIAL_CAPACITY, length * 2), row + 1);
+    }
+  }
+
+  /**
+   * Column without values yet, replaced by a typed one on the first value.
+   */
+  private final class EmptyColumn extends Column {
+
+    @Override
+    boolean set(int row, Object value) {
+
+      final Column typed;
+      if (value instanceof Integer) {
+        typed = new IntColumn();
+      } else if (value instanceof Long) {
+        typed = new LongColumn();
+      } else if (value instanceof Double) {
+        typed = new DoubleColumn();
+      } else if (value instanceof Boolean) {
+        typed = new BooleanColumn();
+      } else if (value instanceof String) {
+        typed = new StringColumn();
+      } else {
+        typed = new ValueColumn(null, 0);
+      }
+      ColumnarJSONCollection.this.columns.set(
+          ColumnarJSONCollection.this.columns.indexOf(this), typed);
+      return typed.set(row, value);
+    }
+
+    @Override
+    Object get(int row) {
+      return JSONObject.NULL;
+    }
+
+    @Override
+    int length() {
+      return 0;
+    }
+  }
+
+  private static final class IntColumn extends Column {
+
+    private int[] values = new int[0];
+
+    @Override
+    boolean set(int row, Object value) {
+
+      if (!(value instanceof Integer)) {
+        return false;
+      }
+      if (row >= this.values.length) {
+        this.values = Arrays.copyOf(this.values, capacity(this.values.length, row));
+      }
+      this.values[row] = (Integer) value;
+      return true;
+    }
+
+    @Override
+    Object get(int row) {
+      return this.values[row];
+    }
+
+    @Override
+    int length() {
+      return this.values.length;
+    }
+
+    @Override
+    void write(JsonGenerator generator, int row)
+      throws IOException {
+      generator.writeNumber(this.values[row]);
+    }
+  }
+
+  private static final class LongColumn extends Column {
+
+    private long[] values = new long[0];
+
+    @Override
+    boolean set(int row, Object value) {
+
+      if (!(value instanceof Long)) {
+        return false;
+      }
+      if (row >= this.values.length) {
+        this.values = Arrays.copyOf(this.values, capacity(this.values.length, row));
+      }
+      this.values[row] = (Long) value;
+      return true;
+    }
+
+    @Override
+    Object get(int row) {
+      return this.values[row];
+    }
+
+    @Override
+    int length() {
+      return this.values.length;
+    }
+
+    @Override
+    void write(JsonGenerator generator, int row)
+      throws IOException {
+      generator.writeNumber(this.values[row]);
+    }
+  }
+
+  private static final class DoubleColumn extends Column {
+
+    private double[] values = new double[0];
+
+    @Override
+    boolean set(int row, Object value) {
+
+      if (!(value instanceof Double)) {
+        return false;
+      }
+      if (row >= this.values.length) {
+        this.values = Arrays.copyOf(this.values, capacity(this.values.length, row));
+      }
+      this.values[row] = (Double) value;
+      return true;
+    }
+
+    @Override
+    Object get(int row) {
+      return this.values[row];
+    }
+
+    @Override
+    int length() {
+      return this.values.length;
+    }
+
+    @Override
+    void write(JsonGenerator generator, int row)
+      throws IOException {
+      // as org.json writes it
+      generator.writeNumber(JSONObject.numberToString(this.values[row]));
+    }
+  }
+
+  private static final class BooleanColumn extends Column {
+
+    private final BitSet values = new BitSet();
+    // the bit set only knows its last true bit
+    private int length;
+
+    @Override
+    boolean set(int row, Object value) {
+
+      if (!(value instanceof Boolean)) {
+        return false;
+      }
+      this.values.set(row, (Boolean) value);
+      this.length = Math.max(this.length, row + 1);
+      return true;
+    }
+
+    @Override
+    Object get(int row) {
+      return this.values.get(row);
+    }
+
+    @Override
+    int length() {
+      return this.length;
+    }
+  }
+
+  /**
+   * Dictionary encoded strings.
+   */
+  private static final class StringColumn extends Column {
+
+    private final List<String> dictionary = new ArrayList<>();
+    private final Map<String, Integer> codes = new HashMap<>();
+    private int[] values = new int[0];
+
+    @Override
+    boolean set(int row, Object value) {
+
+      if (!(value instanceof String)) {
+        return false;
+      }
+
+      Integer code = this.codes.get(value);
+      if (code == null) {
+        code = this.dictionary.size();
+        this.dictionary.add((String) value);
+        this.codes.put((String) value, code);
+      }
+      if (row >= this.values.length) {
+        this.values = Arrays.copyOf(this.values, capacity(this.values.length, row));
+      }
+      this.values[row] = code;
+      return true;
+    }
+
+    @Override
+    Object get(int row) {
+      return this.dictionary.get(this.values[row]);
+    }
+
+    @Override
+    int length() {
+      return this.values.length;
+    }
+  }
+
+  /**
+   * Any value, copied on the way in and out when mutable.
+   */
+  private static final class ValueColumn extends Column {
+
+    private Object[] values;
+
+    /**
+     * @param column
+     *          Column whose first <code>rows</code> values are taken over, may
+     *          be null
+     */
+    ValueColumn(Column column, int rows) {
+
+      this.values = new Object[Math.max(INITIAL_CAPACITY, rows)];
+      if (column != null) {
+        // rows past the column's length never had the path
+        final int length = Math.min(rows, column.length());
+        for (int i = 0; i < length; i++) {
+          this.values[i] = column.get(i);
+        }
+      }
+    }
+
+    @Override
+    boolean set(int row, Object value) {
+
+      if (row >= this.values.length) {
+        this.values = Arrays.copyOf(this.values, capacity(this.values.length, row));
+      }
+      this.values[row] = value instanceof JSONObject || value instanceof JSONArray
+          ? CompiledSchema.copy(value) : value;
+      return true;
+    }
+
+    @Override
+    Object get(int row) {
+
+      final Object value = this.values[row];
+      return value instanceof JSONObject || value instanceof JSONArray
+          ? CompiledSchema.copy(value) : value;
+    }
+
+    @Override
+    int length() {
+      return this.values.length;
+    }
+  }
+}
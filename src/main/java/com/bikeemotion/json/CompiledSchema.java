@@ -0,0 +1,720 @@
+/**
+ * Copyright (C) Bikeemotion
+ * 2014
+ *
+ * The reproduction, transmission or use of this document or its contents is not
+ * permitted without express written authorization. All rights, including rights
+ * created by patent grant or registration of a utility model or design, are
+ * reserved. Modifications made to this document are restricted to authorized
+ * personnel only. Technical specifications and features are binding only when
+ * specifically and expressly agreed upon in a written contract.
+ */
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.bikeemotion.json;
+
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import java.util.HashMap;
+import java.util.Map;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * A schema prepared once to be enforced on many values.<br/>
+ * Mirrors the schema as a tree of default templates and pre-parsed
+ * strong-typed node constraints, so that {@link JSON} and
+ * {@link JSONCollection} don't re-read its tags for every document.<br/>
+ * The schema is copied on creation, later changes to the source object are
+ * not seen by the compiled schema.
+ */
+public class CompiledSchema {
+
+  private final String name;
+  private final JSONObject schema;
+  private final Node root;
+
+  /**
+   * @param schema
+   *          The validation and default schema
+   */
+  public CompiledSchema(JSONObject schema) {
+
+    this(null, schema);
+  }
+
+  /**
+   * @param schema
+   *          String with a valid json object. The validation and default
+   *          schema
+   */
+  public CompiledSchema(String schema) {
+
+    this(null, schema);
+  }
+
+  /**
+   * @param name
+   *          Caller-supplied name, reported to {@link JsonFrameworkMetrics},
+   *          may be null
+   * @param schema
+   *          The validation and default schema
+   */
+  public CompiledSchema(String name, JSONObject schema) {
+
+    KeyDictionary.register(schema);
+    this.name = name;
+    this.schema = copy(schema);
+    this.root = new Node(this.schema);
+  }
+
+  /**
+   * @param name
+   *          Caller-supplied name, reported to {@link JsonFrameworkMetrics},
+   *          may be null
+   * @param schema
+   *          String with a valid json object. The validation and default
+   *          schema
+   */
+  public CompiledSchema(String name, String schema) {
+
+    this(name, KeyDictionary.parseObject(schema));
+  }
+
+  /**
+   * @return the name given on creation, null if none
+   */
+  public String getName() {
+
+    return this.name;
+  }
+
+  /**
+   * @return a copy of the schema this instance was compiled from
+   */
+  public JSONObject getSchema() {
+
+    return copy(this.schema);
+  }
+
+  /**
+   * Creates a new instance enforcing this schema, as
+   * {@link JSON#JSON(JSONObject, JSONObject)} does with a schema object.
+   * 
+   * @param value
+   *          The value intended for the instance
+   * @return JSON
+   */
+  public JSON newJSON(JSONObject value)
+    throws Exceptions.UnknownDataTypeException,
+    Exceptions.MandatoryValueExpectationFailedException,
+    Exceptions.InvalidDataTypeException,
+    Exceptions.MalformedStrongTypedNodeException,
+    Exceptions.NumberPrecisionExpectationFailedException,
+    Exceptions.MinValueExpectationFailedException,
+    Exceptions.MaxValueExpectationFailedException,
+    Exceptions.InvalidEmptyObjectException {
+
+    final JSON result = new JSON();
+    result.setValueCompiled(this, value);
+    return result;
+  }
+
+  /**
+   * Same as {@link #newJSON(JSONObject)} for a json object text.
+   * 
+   * @param value
+   *          String with a valid json object. The value intended for the
+   *          instance
+   * @return JSON
+   */
+  public JSON newJSON(String value)
+    throws Exceptions.UnknownDataTypeException,
+    Exceptions.MandatoryValueExpectationFailedException,
+    Exceptions.InvalidDataTypeException,
+    Exceptions.MalformedStrongTypedNodeException,
+    Exceptions.NumberPrecisionExpectationFailedException,
+    Exceptions.MinValueExpectationFailedException,
+    Exceptions.MaxValueExpectationFailedException,
+    Exceptions.InvalidEmptyObjectException {
+
+    final JSON result = new JSON();
+    result.setValueCompiled(this, value);
+    return result;
+  }
+
+  /**
+   * Same as {@link #newJSON(JSONObject)} for a Jackson tree, converted node by
+   * node.
+   * 
+   * @param value
+   *          The value intended for the instance
+   * @return JSON
+   */
+  public JSON newJSON(ObjectNode value)
+    throws Exceptions.UnknownDataTypeException,
+    Exceptions.MandatoryValueExpectationFailedException,
+    Exceptions.InvalidDataTypeException,
+    Exceptions.MalformedStrongTypedNodeException,
+    Exceptions.NumberPrecisionExpectationFailedException,
+    Exceptions.MinValueExpectationFailedException,
+    Exceptions.MaxValueExpectationFailedException,
+    Exceptions.InvalidEmptyObjectException {
+
+    return newJSON(value != null ? JSONTrees.toJSONObject(value) : (JSONObject) null);
+  }
+
+  /**
+   * Creates a new collection enforcing this schema on every item, as
+   * {@link JSONCollection#JSONCollection(JSONObject, JSONArray)} does with a
+   * schema object.
+   * 
+   * @param items
+   *          A new collection of json objects
+   * @param indexFields
+   *          Fields to index in the same pass, see
+   *          {@link JSONCollection#indexBy(String...)}
+   * @return JSONCollection
+   */
+  public JSONCollection newCollection(JSONArray items, String... indexFields)
+    throws Exceptions.UniqueValueUnknownScopeTypeException,
+    Exceptions.MalformedSearchableNodeException,
+    Exceptions.UniqueValueExpectationFailedException,
+    Exceptions.UnknownDataTypeException,
+    Exceptions.MandatoryValueExpectationFailedException,
+    Exceptions.InvalidDataTypeException,
+    Exceptions.MalformedStrongTypedNodeException,
+    Exceptions.NumberPrecisionExpectationFailedException,
+    Exceptions.MinValueExpectationFailedException,
+    Exceptions.MaxValueExpectationFailedException,
+    Exceptions.InvalidEmptyObjectException {
+
+    final JSONCollection result = new JSONCollection();
+    result.setValueCompiled(this, items, indexFields);
+    return result;
+  }
+
+  /**
+   * Same as {@link #newCollection(JSONArray, String...)} for a Jackson tree,
+   * converted node by node.
+   * 
+   * @param items
+   *          A new collection of json objects
+   * @param indexFields
+   *          Fields to index in the same pass
+   * @return JSONCollection
+   */
+  public JSONCollection newCollection(ArrayNode items, String... indexFields)
+    throws Exceptions.UniqueValueUnknownScopeTypeException,
+    Exceptions.MalformedSearchableNodeException,
+    Exceptions.UniqueValueExpectationFailedException,
+    Exceptions.UnknownDataTypeException,
+    Exceptions.MandatoryValueExpectationFailedException,
+    Exceptions.InvalidDataTypeException,
+    Exceptions.MalformedStrongTypedNodeException,
+    Exceptions.NumberPrecisionExpectationFailedException,
+    Exceptions.MinValueExpectationFailedException,
+    Exceptions.MaxValueExpectationFailedException,
+    Exceptions.InvalidEmptyObjectException {
+
+    return newCollection(items != null ? JSONTrees.toJSONArray(items) : (JSONArray) null, indexFields);
+  }
+
+  @Override
+  public String toString() {
+
+    return this.schema.toString();
+  }
+
+  // internal API
+  Node root() {
+
+    return this.root;
+  }
+
+  static JSONObject copy(JSONObject object) {
+
+    final JSONObject result = new JSONObject();
+    final String[] names = JSONObject.getNames(object);
+    if (names != null) {
+      for (String key : names) {
+        result.put(KeyDictionary.canonical(key), copy(object.get(key)));
+      }
+    }
+    return result;
+  }
+
+  static JSONArray copy(JSONArray array) {
+
+    final JSONArray result = new JSONArray();
+    for (int i = 0; i < array.length(); i++) {
+      result.put(copy(array.get(i)));
+    }
+    return result;
+  }
+
+  static Object copy(Object value) {
+
+    if (value instanceof JSONObject) {
+      return copy((JSONObject) value);
+    } else if (value instanceof JSONArray) {
+      return copy((JSONArray) value);
+    }
+    return value;
+  }
+
+  /**
+   * One object level of the schema.<br/>
+   * Applies the same rules as <code>JSON.deepRemove</code> and
+   * <code>JSON.deepAdd</code>, with missing keys filled from a copy of the
+   * schema default so values never share nodes with the schema.
+   */
+  static final class Node {
+
+    private final JSONObject source;
+    private final String[] names;
+    private final Object[] defaults;
+    private final Object type;
+    private final Map<String, Node> children = new HashMap<>();
+    private final Map<String, Node> arrayElements = new HashMap<>();
+    private final Constraints constraints;
+
+    Node(JSONObject source) {
+
+      this.source = source;
+      this.names = JSONObject.getNames(source);
+      this.defaults = this.names != null ? new Object[this.names.length] : null;
+      this.type = source.opt(Constants.NODE_CUSTOM_PROPERTY_TYPE_TAG);
+
+      if (this.names != null) {
+        for (int i = 0; i < this.names.length; i++) {
+          final Object schemaKeyValue = source.get(this.names[i]);
+          this.defaults[i] = schemaKeyValue;
+
+          if (schemaKeyValue instanceof JSONObject) {
+            this.children.put(this.names[i], new Node((JSONObject) schemaKeyValue));
+          } else if (schemaKeyValue instanceof JSONArray) {
+            final JSONArray schemaKeyValueCollection = (JSONArray) schemaKeyValue;
+            if (schemaKeyValueCollection.length() > 0 && schemaKeyValueCollection.get(0) instanceof JSONObject) {
+              this.arrayElements.put(this.names[i], new Node(schemaKeyValueCollection.getJSONObject(0)));
+            }
+          }
+        }
+      }
+
+      this.constraints = this.type != null ? Constraints.compile(source) : null;
+    }
+
+    JSONObject enforce(JSONObject newValue) {
+
+      // operations order matter here
+      remove(newValue);
+      add(newValue);
+
+      return newValue;
+    }
+
+    /**
+     * Same as {@link #enforce(JSONObject)} without adding the keys missing in
+     * <code>newValue</code>, they're read from the schema through the returned
+     * view. The objects in arrays are still filled in place.
+     */
+    SchemaOverlay overlay(JSONObject newValue) {
+
+      remove(newValue);
+      addToPresent(newValue);
+
+      return new SchemaOverlay(this, newValue);
+    }
+
+    /**
+     * @return whether {@link #enforce(JSONObject)} would get to a nested empty
+     *         object of <code>newValueObject</code>, which it can't go
+     *         through, before failing on a value the schema doesn't describe
+     *         as an object
+     */
+    boolean reachesEmptyObject(JSONObject newValueObject) {
+
+      final String[] names = JSONObject.getNames(newValueObject);
+      if (names == null) {
+        return true;
+      }
+
+      for (String key : names) {
+        if (this.source.has(key) && newValueObject.get(key) instanceof JSONObject && descends()) {
+          final Node child = this.children.get(key);
+          if (child == null) {
+            return false;
+          } else if (child.reachesEmptyObject(newValueObject.getJSONObject(key))) {
+            return true;
+          }
+        }
+      }
+
+      return false;
+    }
+
+    /**
+     * @return the schema value of <code>key</code>, null if the schema doesn't
+     *         have it
+     */
+    Object defaultValue(String key) {
+
+      return this.source.opt(key);
+    }
+
+    /**
+     * @return the keys of this schema level, null if none
+     */
+    String[] names() {
+
+      return this.names;
+    }
+
+    /**
+     * @return the schema node for the object held by <code>key</code>, or
+     *         null if the schema doesn't describe it as an object
+     */
+    Node nested(String key) {
+
+      return this.children.get(key);
+    }
+
+    /**
+     * @return the pre-parsed constraints for this node if <code>object</code>
+     *         carries the very same type tags as the schema, null otherwise
+     */
+    Constraints constraintsFor(JSONObject object) {
+
+      return this.constraints != null && this.constraints.matches(object) ? this.constraints : null;
+    }
+
+    private void remove(JSONObject newValueObject) {
+
+      // remove newValue keys absent in schema
+      for (String key : JSONObject.getNames(newValueObject)) {
+        if (!this.source.has(key)) {
+          // remove "key":
+          newValueObject.remove(key);
+        } else if (newValueObject.get(key) instanceof JSONObject && descends()) {
+          final Node child = this.children.get(key);
+          if (child == null) {
+            throw new JSONException("JSONObject[" + JSONObject.quote(key) + "] is not a JSONObject.");
+          }
+          child.remove(newValueObject.getJSONObject(key));
+        }
+      }
+    }
+
+    private void add(JSONObject newValueObject) {
+
+      if (this.names == null) {
+        // an empty schema object has nothing to add
+        return;
+      }
+
+      // add schema keys missing in newValue
+      for (int i = 0; i < this.names.length; i++) {
+        final String key = this.names[i];
+        final Object schemaKeyValue = this.defaults[i];
+
+        if (!newValueObject.has(key)) {
+          // new value for "key":
+          newValueObject.put(key, copy(schemaKeyValue));
+        } else if (schemaKeyValue instanceof JSONObject) {
+          // existing value for "key" - recursively deep merge:
+          if (descends()) {
+            this.children.get(key).add(newValueObject.getJSONObject(key));
+          }
+        } else if (schemaKeyValue instanceof JSONArray) {
+          // only deep add complex objects in arrays
+          final Node element = this.arrayElements.get(key);
+          if (element != null && descends()) {
+            element.add((JSONObject) newValueObject.getJSONArray(key).get(0));
+          }
+        }
+      }
+    }
+
+    /**
+     * Same walk as {@link #add(JSONObject)}, failing the same way, through the
+     * keys <code>newValueObject</code> already has only.
+     */
+    private void addToPresent(JSONObject newValueObject) {
+
+      if (this.names == null) {
+        // an empty schema object has nothing to add
+        return;
+      }
+
+      for (int i = 0; i < this.names.length; i++) {
+        final String key = this.names[i];
+        final Object schemaKeyValue = this.defaults[i];
+
+        if (!newValueObject.has(key)) {
+          continue;
+        } else if (schemaKeyValue instanceof JSONObject) {
+          if (descends()) {
+            this.children.get(key).addToPresent(newValueObject.getJSONObject(key));
+          }
+        } else if (schemaKeyValue instanceof JSONArray) {
+          final Node element = this.arrayElements.get(key);
+          if (element != null && descends()) {
+            element.add((JSONObject) newValueObject.getJSONArray(key).get(0));
+          }
+        }
+      }
+    }
+
+    boolean descends() {
+
+      return this.type == null
+          || !((String) this.type).equals(Constants.NODE_CUSTOM_PROPERTY_TYPE_TAG_INSTANCE_STRING);
+    }
+  }
+
+  /**
+   * The constraints of a strong-typed schema node, parsed once.<br/>
+   * Only built when every tag parses; otherwise the node is left to
+   * {@link JSON#checkTypeConstraints(JSONObject)} so that malformed nodes
+   * keep failing exactly as before.
+   */
+  static final class Constraints {
+
+    private final Object typeTag;
+    private final Object mandatoryTag;
+    private final Object minTag;
+    private final Object maxTag;
+
+    private final String dataType;
+    private final boolean mandatory;
+    private final Integer precision;
+    private final double minNumber;
+    private final double maxNumber;
+    private final Integer minLength;
+    private final Integer maxLength;
+
+    static Constraints compile(JSONObject node) {
+
+      try {
+        final String dataType = node.getString(Constants.NODE_CUSTOM_PROPERTY_TYPE_TAG);
+        switch (dataType) {
+        case Constants.NODE_CUSTOM_PROPERTY_TYPE_TAG_INSTANCE_NUMBER:
+        case Constants.NODE_CUSTOM_PROPERTY_TYPE_TAG_INSTANCE_SIMPLE_STRING:
+        case Constants.NODE_CUSTOM_PROPERTY_TYPE_TAG_INSTANCE_STRING:
+          return new Constraints(node, dataType);
+        default:
+          return null;
+        }
+      } catch (JSONException | NumberFormatException e) {
+        return null;
+      }
+    }
+
+    private Constraints(JSONObject node, String dataType) {
+
+      this.typeTag = node.get(Constants.NODE_CUSTOM_PROPERTY_TYPE_TAG);
+      this.mandatoryTag = node.opt(Constants.NODE_CUSTOM_PROPERTY_MANDATORY_TAG);
+      this.minTag = node.opt(Constants.NODE_CUSTOM_PROPERTY_MIN_TAG);
+      this.maxTag = node.opt(Constants.NODE_CUSTOM_PROPERTY_MAX_TAG);
+
+      this.dataType = dataType;
+      this.mandatory = node.has(Constants.NODE_CUSTOM_PROPERTY_MANDATORY_TAG) ? node
+          .getBoolean(Constants.NODE_CUSTOM_PROPERTY_MANDATORY_TAG) : false;
+      this.precision = JSON.getPrecision(node);
+
+      if (dataType.equals(Constants.NODE_CUSTOM_PROPERTY_TYPE_TAG_INSTANCE_NUMBER)) {
+        this.minNumber = node.has(Constants.NODE_CUSTOM_PROPERTY_MIN_TAG) ?
+            Decimals.bound(node.getDouble(Constants.NODE_CUSTOM_PROPERTY_MIN_TAG)) : Double.NaN;
+        this.maxNumber = node.has(Constants.NODE_CUSTOM_PROPERTY_MAX_TAG) ?
+            Decimals.bound(node.getDouble(Constants.NODE_CUSTOM_PROPERTY_MAX_TAG)) : Double.NaN;
+        this.minLength = null;
+        this.maxLength = null;
+      } else {
+        this.minNumber = Double.NaN;
+        this.maxNumber = Double.NaN;
+        this.minLength = node.has(Constants.NODE_CUSTOM_PROPERTY_MIN_TAG) ?
+            node.getInt(Constants.NODE_CUSTOM_PROPERTY_MIN_TAG) : null;
+        this.maxLength = node.has(Constants.NODE_CUSTOM_PROPERTY_MAX_TAG) ?
+            node.getInt(Constants.NODE_CUSTOM_PROPERTY_MAX_TAG) : null;
+      }
+    }
+
+    boolean matches(JSONObject object) {
+
+      return sameTag(object, Constants.NODE_CUSTOM_PROPERTY_TYPE_TAG, this.typeTag)
+          && sameTag(object, Constants.NODE_CUSTOM_PROPERTY_MANDATORY_TAG, this.mandatoryTag)
+          && sameTag(object, Constants.NODE_CUSTOM_PROPERTY_MIN_TAG, this.minTag)
+          && sameTag(object, Constants.NODE_CUSTOM_PROPERTY_MAX_TAG, this.maxTag);
+    }
+
+    /**
+     * Same checks, in the same order, as
+     * {@link JSON#checkTypeConstraints(JSONObject)} does for a strong-typed
+     * node.
+     */
+    void check(JSONObject object, JSONPointer path, ViolationHandler handler)
+      throws Exceptions.UnknownDataTypeException,
+      Exceptions.MandatoryValueExpectationFailedException,
+      Exceptions.InvalidDataTypeException,
+      Exceptions.MalformedStrongTypedNodeException,
+      Exceptions.NumberPrecisionExpectationFailedException,
+      Exceptions.MinValueExpectationFailedException,
+      Exceptions.MaxValueExpectationFailedException,
+      Exceptions.InvalidEmptyObjectException {
+
+      final Object value = object.opt(Constants.NODE_CUSTOM_PROPERTY_VALUE_TAG);
+      if (value == null) {
+        handler.report(Violation.Code.MALFORMED_STRONG_TYPED_NODE, path, object, object);
+        return;
+      }
+
+      switch (this.dataType) {
+      case Constants.NODE_CUSTOM_PROPERTY_TYPE_TAG_INSTANCE_NUMBER:
+        checkNumber(object, value, this.precision, this.minNumber, this.maxNumber, path, handler);
+        break;
+
+      case Constants.NODE_CUSTOM_PROPERTY_TYPE_TAG_INSTANCE_SIMPLE_STRING:
+        if (!(value instanceof String)) {
+          handler.report(Violation.Code.INVALID_DATA_TYPE, path, object, value);
+          return;
+        }
+        checkLength(object, (String) value, this.mandatory, this.minLength, this.maxLength, path, handler);
+        break;
+
+      default:
+        checkTranslations(object, value, this.mandatory, this.minLength, this.maxLength, path, handler);
+        break;
+      }
+    }
+
+    /**
+     * Checks the value of a strong-typed number node.<br/>
+     * Decimal scale and bounds are compared with {@link Decimals}, so that
+     * valid numbers don't allocate.
+     * 
+     * @param min
+     *          The finite min value, NaN if there's none
+     * @param max
+     *          The finite max value, NaN if there's none
+     */
+    static void checkNumber(JSONObject object, Object value, Integer precision, double min, double max,
+        JSONPointer path, ViolationHandler handler)
+      throws Exceptions.UnknownDataTypeException,
+      Exceptions.MandatoryValueExpectationFailedException,
+      Exceptions.InvalidDataTypeException,
+      Exceptions.MalformedStrongTypedNodeException,
+      Exceptions.NumberPrecisionExpectationFailedException,
+      Exceptions.MinValueExpectationFailedException,
+      Exceptions.MaxValueExpectationFailedException,
+      Exceptions.InvalidEmptyObjectException {
+
+      if (!(value instanceof Integer || value instanceof Long || value instanceof Double)) {
+        handler.report(Violation.Code.INVALID_DATA_TYPE, path, object, value);
+        return;
+      }
+
+      if (precision != null && Decimals.scale(value) > precision) {
+        handler.report(Violation.Code.NUMBER_PRECISION, path, object, value);
+        return;
+      }
+
+      // min value
+      if (!Double.isNaN(min) && Decimals.compare(value, min) < 0) {
+        handler.report(Violation.Code.MIN_VALUE, path, object, value);
+        return;
+      }
+
+      // max value
+      if (!Double.isNaN(max) && Decimals.compare(value, max) > 0) {
+        handler.report(Violation.Code.MAX_VALUE, path, object, value);
+      }
+    }
+
+    /**
+     * Checks every translation of a strong-typed string node, one violation
+     * at most per translation.
+     */
+    static void checkTranslations(JSONObject object, Object value, boolean mandatory, Integer min, Integer max,
+        JSONPointer path, ViolationHandler handler)
+      throws Exceptions.UnknownDataTypeException,
+      Exceptions.MandatoryValueExpectationFailedException,
+      Exceptions.InvalidDataTypeException,
+      Exceptions.MalformedStrongTypedNodeException,
+      Exceptions.NumberPrecisionExpectationFailedException,
+      Exceptions.MinValueExpectationFailedException,
+      Exceptions.MaxValueExpectationFailedException,
+      Exceptions.InvalidEmptyObjectException {
+
+      if (!(value instanceof JSONObject)) {
+        handler.report(Violation.Code.INVALID_DATA_TYPE, path, object, value);
+        return;
+      }
+      final JSONObject valueAsObj = (JSONObject) value;
+      final String[] namesStringObj = JSONObject.getNames(valueAsObj);
+      if (namesStringObj != null) {
+        path.push(Constants.NODE_CUSTOM_PROPERTY_VALUE_TAG);
+        for (String keyVal : namesStringObj) {
+          path.push(keyVal);
+          final Object translation = valueAsObj.get(keyVal);
+          if (translation instanceof String) {
+            checkLength(object, (String) translation, mandatory, min, max, path, handler);
+          } else {
+            handler.report(Violation.Code.INVALID_DATA_TYPE, path, object, translation);
+          }
+          path.pop();
+        }
+        path.pop();
+      }
+    }
+
+    /**
+     * Checks the length of a strong-typed simple string or translation.
+     */
+    static void checkLength(JSONObject object, String valueAsString, boolean mandatory, Integer min,
+        Integer max, JSONPointer path, ViolationHandler handler)
+      throws Exceptions.UnknownDataTypeException,
+      Exceptions.MandatoryValueExpectationFailedException,
+      Exceptions.InvalidDataTypeException,
+      Exceptions.MalformedStrongTypedNodeException,
+      Exceptions.NumberPrecisionExpectationFailedException,
+      Exceptions.MinValueExpectationFailedException,
+      Exceptions.MaxValueExpectationFailedException,
+      Exceptions.InvalidEmptyObjectException {
+
+      // mandatory
+      if (mandatory && valueAsString.isEmpty()) {
+        handler.report(Violation.Code.MANDATORY_VALUE, path, object, valueAsString);
+        return;
+      }
+
+      // min value
+      if (min != null && valueAsString.length() < min) {
+        handler.report(Violation.Code.MIN_VALUE, path, object, valueAsString);
+        return;
+      }
+
+      // max value
+      if (max != null && valueAsString.length() > max) {
+        handler.report(Violation.Code.MAX_VALUE, path, object, valueAsString);
+      }
+    }
+
+    private static boolean sameTag(JSONObject object, String tag, Object expected) {
+
+      final Object actual = object.opt(tag);
+      return expected == null ? actual == null : expected.equals(actual);
+    }
+  }
+}
@@ -0,0 +1,597 @@
+/**
+ * Copyright (C) Bikeemotion
+ * 2014
+ *
+ * The reproduction, transmission or use of this document or its contents is not
+ * permitted without express written authorization. All rights, including rights
+ * created by patent grant or registration of a utility model or design, are
+ * reserved. Modifications made to this document are restricted to authorized
+ * personnel only. Technical specifications and features are binding only when
+ * specifically and expressly agreed upon in a written contract.
+ */
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.bikeemotion.json;
+
+import com.bikeemotion.core.exception.BusinessException;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Collection of items keyed by their {@link Constants#NODE_ID_PROPERTY}, to be
+ * changed by many threads at once.<br/>
+ * Items are checked as {@link JSONCollection} checks them and stored frozen
+ * (see {@link JSONSnapshot}), so readers never see an item half changed.
+ * Writes of different items only contend on the lock stripe of their id,
+ * except writes of items with unique properties, which are checked one at a
+ * time against a {@link UniquenessIndex} kept up to date with the other
+ * writes.<br/>
+ * Iteration ({@link #toString()}, {@link #writeTo(OutputStream)},
+ * {@link #snapshot()}, the <code>enforce</code> methods) is weakly consistent:
+ * items are visited in insertion order, each one as it was when visited,
+ * changes made meanwhile may or may not be seen.
+ */
+public class ConcurrentJSONCollection {
+
+  /**
+   * Number of locks the items are striped over, by default.
+   */
+  public static final int DEFAULT_STRIPES = 64;
+
+  /**
+   * Changes one item, see {@link ConcurrentJSONCollection#update(String, Update)}.
+   */
+  public interface Update {
+
+    /**
+     * @param item
+     *          Mutable copy of the current item, null if there's none
+     * @return the item to store, with the same id, or null to remove it
+     */
+    JSONObject apply(JSONObject item)
+      throws BusinessException;
+  }
+
+  private final CompiledSchema atomicSchema;
+  private final ReentrantLock[] stripes;
+  private final ConcurrentHashMap<String, Entry> items = new ConcurrentHashMap<>();
+  private final ConcurrentSkipListMap<Long, Entry> order = new ConcurrentSkipListMap<>();
+  private final AtomicLong sequence = new AtomicLong();
+
+  // writes hold the read lock, checks of unique properties the write lock
+  private final ReentrantReadWriteLock uniqueness = new ReentrantReadWriteLock();
+  // ids written since the last check, once slots is built
+  private final Set<String> changed = ConcurrentHashMap.newKeySet();
+  // built by the first check, guarded by the write lock (seen by writes
+  // through the read lock)
+  private Slots slots;
+
+  public ConcurrentJSONCollection() {
+
+    this((CompiledSchema) null, DEFAULT_STRIPES);
+  }
+
+  /**
+   * @param atomicSchema
+   *          The schema enforced on every item written, may be null
+   */
+  public ConcurrentJSONCollection(CompiledSchema atomicSchema) {
+
+    this(atomicSchema, DEFAULT_STRIPES);
+  }
+
+  /**
+   * @param atomicSchema
+   *          The schema enforced on every item written, may be null
+   * @param stripes
+   *          Number of locks the items are striped over
+   */
+  public ConcurrentJSONCollection(CompiledSchema atomicSchema, int stripes) {
+
+    if (stripes < 1) {
+      throw new IllegalArgumentException("At least one lock stripe is needed");
+    }
+
+    this.atomicSchema = atomicSchema;
+    this.stripes = new ReentrantLock[stripes];
+    for (int i = 0; i < stripes; i++) {
+      this.stripes[i] = new ReentrantLock();
+    }
+  }
+
+  /**
+   * Puts every item of <code>jsonCollection</code>, in order, a later item
+   * replacing an earlier one with the same id.
+   * 
+   * @param atomicSchema
+   * @param jsonCollection
+   */
+  public ConcurrentJSONCollection(CompiledSchema atomicSchema, JSONArray jsonCollection)//
+      throws Exceptions.UniqueValueUnknownScopeTypeException,//
+      Exceptions.MalformedSearchableNodeException, //
+      Exceptions.UniqueValueExpectationFailedException,//
+      Exceptions.UnknownDataTypeException, //
+      Exceptions.MandatoryValueExpectationFailedException,//
+      Exceptions.InvalidDataTypeException, //
+      Exceptions.MalformedStrongTypedNodeException,//
+      Exceptions.NumberPrecisionExpectationFailedException,//
+      Exceptions.MinValueExpectationFailedException, //
+      Exceptions.MaxValueExpectationFailedException,
+      Exceptions.InvalidEmptyObjectException {
+
+    this(atomicSchema);
+    if (jsonCollection != null) {
+      for (int i = 0; i < jsonCollection.length(); i++) {
+        put(jsonCollection.getJSONObject(i));
+      }
+    }
+  }
+
+  // public API
+  public int size() {
+
+    return this.items.size();
+  }
+
+  /**
+   * @return the frozen item with <code>id</code>, null if none
+   */
+  public JSONObject get(String id) {
+
+    final Entry entry = id != null ? this.items.get(id) : null;
+    return entry != null ? entry.item : null;
+  }
+
+  /**
+   * Every item has a valid id, so unlike
+   * {@link JSONCollection#exists(String)} this never fails.
+   * 
+   * @param objectId
+   * @return boolean
+   */
+  public boolean exists(String objectId) {
+
+    return objectId != null && this.items.containsKey(objectId);
+  }
+
+  /**
+   * Checks <code>item</code> as {@link JSONCollection} would (the schema is
+   * enforced on <code>item</code> itself) and stores a frozen copy of it in
+   * place of the item with the same id, appended if there's none.
+   * 
+   * @param item
+   * @return the frozen item replaced, null if none
+   */
+  public JSONObject put(JSONObject item)//
+      throws Exceptions.UniqueValueUnknownScopeTypeException,//
+      Exceptions.MalformedSearchableNodeException, //
+      Exceptions.UniqueValueExpectationFailedException,//
+      Exceptions.UnknownDataTypeException, //
+      Exceptions.MandatoryValueExpectationFailedException,//
+      Exceptions.InvalidDataTypeException, //
+      Exceptions.MalformedStrongTypedNodeException,//
+      Exceptions.NumberPrecisionExpectationFailedException,//
+      Exceptions.MinValueExpectationFailedException, //
+      Exceptions.MaxValueExpectationFailedException,
+      Exceptions.InvalidEmptyObjectException {
+
+    final JSONObject frozen = checked(item);
+    final String id = id(frozen);
+
+    final ReentrantLock stripe = stripe(id);
+    stripe.lock();
+    try {
+      return store(id, frozen);
+    } finally {
+      stripe.unlock();
+    }
+  }
+
+  /**
+   * Applies <code>update</code> to the item with <code>id</code> and stores
+   * the result as {@link #put(JSONObject)} would, while no other write of that
+   * item runs.
+   * 
+   * @param id
+   * @param update
+   * @return the frozen item stored, null if it was removed
+   */
+  public JSONObject update(String id, Update update)//
+      throws BusinessException {
+
+    final ReentrantLock stripe = stripe(id);
+    stripe.lock();
+    try {
+      final Entry entry = this.items.get(id);
+      final JSONObject result = update.apply(entry != null ? CompiledSchema.copy(entry.item) : null);
+      if (result == null) {
+        delete(id);
+        return null;
+      }
+
+      final JSONObject frozen = checked(result);
+      if (!id.equals(id(frozen))) {
+        throw new IllegalArgumentException("An update can't change the <"
+            + Constants.NODE_ID_PROPERTY + "> of item <" + id + ">");
+      }
+      store(id, frozen);
+      return frozen;
+    } finally {
+      stripe.unlock();
+    }
+  }
+
+  /**
+   * @return the frozen item removed, null if none
+   */
+  public JSONObject remove(String id) {
+
+    final ReentrantLock stripe = stripe(id);
+    stripe.lock();
+    try {
+      return delete(id);
+    } finally {
+      stripe.unlock();
+    }
+  }
+
+  public ConcurrentJSONCollection enforceActive()//
+      throws Exceptions.InvalidDataTypeException,//
+      Exceptions.MalformedStrongTypedNodeException {
+    return enforceActive((String[]) null);
+  }
+
+  /**
+   * Same as {@link JSONCollection#enforceActive(String...)}.
+   */
+  public ConcurrentJSONCollection enforceActive(String... ignores)//
+      throws Exceptions.InvalidDataTypeException,//
+      Exceptions.MalformedStrongTypedNodeException {
+
+    return enforce(new StateFilter().active().ignoring(ignores));
+  }
+
+  /**
+   * Same as {@link JSONCollection#enforceNotDeleted(String...)}.
+   */
+  public ConcurrentJSONCollection enforceNotDeleted(String... ignores)//
+      throws Exceptions.InvalidDataTypeException,//
+      Exceptions.MalformedStrongTypedNodeException {
+
+    return enforce(new StateFilter().notDeleted().ignoring(ignores));
+  }
+
+  /**
+   * Same as {@link JSONCollection#enforceVisible(String...)}.
+   */
+  public ConcurrentJSONCollection enforceVisible(String... ignores)//
+      throws Exceptions.InvalidDataTypeException,//
+      Exceptions.MalformedStrongTypedNodeException {
+
+    return enforce(new StateFilter().visible().ignoring(ignores));
+  }
+
+  /**
+   * Removes the items <code>filter</code> drops, as
+   * {@link JSONCollection#enforce(StateFilter)} does.<br/>
+   * Each item is removed only if its current version is still dropped. If the
+   * state of an item can't be read, the items already removed stay removed.
+   * 
+   * @param filter
+   * @return ConcurrentJSONCollection
+   * @throws Exceptions.InvalidDataTypeException
+   * @throws Exceptions.MalformedStrongTypedNodeException
+   */
+  public ConcurrentJSONCollection enforce(StateFilter filter)//
+      throws Exceptions.InvalidDataTypeException,//
+      Exceptions.MalformedStrongTypedNodeException {
+
+    for (Entry entry : this.order.values()) {
+      if (!filter.keeps(entry.item)) {
+        final ReentrantLock stripe = stripe(entry.id);
+        stripe.lock();
+        try {
+          if (this.items.get(entry.id) == entry && !filter.keeps(entry.item)) {
+            delete(entry.id);
+          }
+        } finally {
+          stripe.unlock();
+        }
+      }
+    }
+
+    return this;
+  }
+
+  /**
+   * @return the current items, without copying them
+   */
+  public JSONSnapshot snapshot() {
+
+    return JSONSnapshot.of(value());
+  }
+
+  @Override
+  public String toString() {
+
+    return value().toString();
+  }
+
+  /**
+   * Same as {@link JSONCollection#writeTo(OutputStream)}, writing the items as
+   * they are visited.
+   * 
+   * @param out
+   */
+  public void writeTo(OutputStream out)//
+      throws IOException {
+
+    try (JsonGenerator generator = JSONTokenReader.FACTORY.createGenerator(out,
+        JsonEncoding.UTF8)) {
+      write(generator);
+    }
+  }
+
+  /**
+   * Same as {@link JSONCollection#writeTo(Writer)}, writing the items as they
+   * are visited.
+   * 
+   * @param writer
+   */
+  public void writeTo(Writer writer)//
+      throws IOException {
+
+    try (JsonGenerator generator = JSONTokenReader.FACTORY.createGenerator(writer)) {
+      write(generator);
+    }
+  }
+
+  // internal API
+  private JSONArray value() {
+
+    final JSONArray result = new JSONArray();
+    for (Entry entry : this.order.values()) {
+      result.put(entry.item);
+    }
+    return result;
+  }
+
+  private void write(JsonGenerator generator)//
+      throws IOException {
+
+    generator.writeStartArray();
+    for (Entry entry : this.order.values()) {
+      JSONTokenWriter.ORG_JSON.writeObject(generator, entry.item);
+    }
+    generator.writeEndArray();
+  }
+
+  private JSONObject checked(JSONObject item)//
+      throws Exceptions.UnknownDataTypeException, //
+      Exceptions.MandatoryValueExpectationFailedException,//
+      Exceptions.InvalidDataTypeException, //
+      Exceptions.MalformedStrongTypedNodeException,//
+      Exceptions.NumberPrecisionExpectationFailedException,//
+      Exceptions.MinValueExpectationFailedException, //
+      Exceptions.MaxValueExpectationFailedException,
+      Exceptions.InvalidEmptyObjectException {
+
+    if (this.atomicSchema != null) {
+      JSON.enforceSchemaCompiled(this.atomicSchema, item);
+    }
+    JSON.checkTypeConstraints(item, this.atomicSchema);
+
+    return JSONSnapshot.frozen(item);
+  }
+
+  private ReentrantLock stripe(String id) {
+
+    final int hash = id.hashCode();
+    return this.stripes[Math.floorMod(hash ^ (hash >>> 16), this.stripes.length)];
+  }
+
+  /**
+   * To be called holding the stripe of <code>id</code>.
+   */
+  private JSONObject store(String id, JSONObject item)//
+      throws Exceptions.UniqueValueUnknownScopeTypeException,//
+      Exceptions.MalformedSearchableNodeException, //
+      Exceptions.UniqueValueExpectationFailedException {
+
+    final boolean unique = hasUniqueProperties(item);
+    final Lock lock = unique ? this.uniqueness.writeLock() : this.uniqueness.readLock();
+    lock.lock();
+    try {
+      if (unique) {
+        slots().enforceUniqueness(item, this.atomicSchema);
+      }
+
+      Entry entry = this.items.get(id);
+      final JSONObject result = entry != null ? entry.item : null;
+      if (entry != null) {
+        entry.item = item;
+      } else {
+        entry = new Entry(this.sequence.incrementAndGet(), id, item);
+        this.order.put(entry.sequence, entry);
+        this.items.put(id, entry);
+      }
+
+      if (unique) {
+        this.slots.update(id, item);
+      } else if (this.slots != null) {
+        this.changed.add(id);
+      }
+      return result;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * To be called holding the stripe of <code>id</code>.
+   */
+  private JSONObject delete(String id) {
+
+    final Lock lock = this.uniqueness.readLock();
+    lock.lock();
+    try {
+      final Entry entry = this.items.remove(id);
+      if (entry == null) {
+        return null;
+      }
+
+      this.order.remove(entry.sequence);
+      if (this.slots != null) {
+        this.changed.add(id);
+      }
+      return entry.item;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * To be called holding the write lock.
+   * 
+   * @return the slots, with the items written since the last call
+   */
+  private Slots slots() {
+
+    if (this.slots == null) {
+      this.slots = new Slots();
+      for (Entry entry : this.order.values()) {
+        this.slots.update(entry.id, entry.item);
+      }
+    } else {
+      for (String id : this.changed) {
+        final Entry entry = this.items.get(id);
+        this.slots.update(id, entry != null ? entry.item : null);
+      }
+    }
+    this.changed.clear();
+    return this.slots;
+  }
+
+  private static String id(JSONObject item)//
+      throws Exceptions.MalformedSearchableNodeException {
+
+    final Object id = item.opt(Constants.NODE_ID_PROPERTY);
+    if (id == null || id.toString().isEmpty()) {
+      throw new Exceptions.MalformedSearchableNodeException(
+          "Searchable Object's <" + Constants.NODE_ID_PROPERTY
+              + "> property value must be valid");
+    }
+    return id.toString();
+  }
+
+  /**
+   * @return whether {@link JSON#enforceUniqueness(JSONObject, UniquenessIndex)}
+   *         would look at the collection for <code>item</code>
+   */
+  private static boolean hasUniqueProperties(JSONObject item) {
+
+    if (item.has(Constants.NODE_CUSTOM_PROPERTY_UNIQUE_TAG)) {
+      return true;
+    }
+    for (Object key : item.keySet()) {
+      final Object value = item.opt((String) key);
+      if (value instanceof JSONObject
+          && ((JSONObject) value).has(Constants.NODE_CUSTOM_PROPERTY_UNIQUE_TAG)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * An item and its place in insertion order, replaced items keep their
+   * place.
+   */
+  private static final class Entry {
+
+    private final long sequence;
+    private final String id;
+    private volatile JSONObject item;
+
+    Entry(long sequence, String id, JSONObject item) {
+
+      this.sequence = sequence;
+      this.id = id;
+      this.item = item;
+    }
+  }
+
+  /**
+   * The items in the positions a {@link UniquenessIndex} knows them by.<br/>
+   * Removed items leave a deleted item behind, which uniqueness ignores,
+   * until their position is taken again.
+   */
+  private static final class Slots {
+
+    private static final JSONObject REMOVED = JSONSnapshot.frozen(new JSONObject().put(
+        Constants.NODE_STATE_PROPERTY, Constants.NODE_STATE_PROPERTY_INSTANCE_DELETED));
+
+    private final JSONArray items = new JSONArray();
+    private final Map<String, Integer> positions = new HashMap<>();
+    private final ArrayDeque<Integer> free = new ArrayDeque<>();
+    private final UniquenessIndex index = new UniquenessIndex(this.items);
+
+    /**
+     * @param item
+     *          The current item with <code>id</code>, null if removed
+     */
+    void update(String id, JSONObject item) {
+
+      Integer position = this.positions.get(id);
+      if (item == null) {
+        if (position != null) {
+          this.positions.remove(id);
+          this.free.push(position);
+          this.items.put(position, REMOVED);
+          this.index.update(position);
+        }
+        return;
+      }
+
+      if (position == null) {
+        position = this.free.isEmpty() ? this.items.length() : this.free.pop();
+        this.positions.put(id, position);
+      }
+      this.items.put(position, item);
+      this.index.update(position);
+    }
+
+    void enforceUniqueness(JSONObject item, CompiledSchema atomicSchema)//
+        throws Exceptions.UniqueValueUnknownScopeTypeException,//
+        Exceptions.MalformedSearchableNodeException, //
+        Exceptions.UniqueValueExpectationFailedException {
+
+      JSON.enforceUniqueness(item, this.index, atomicSchema);
+    }
+  }
+}
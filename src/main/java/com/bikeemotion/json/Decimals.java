@@ -0,0 +1,169 @@
+/**
+ * Copyright (C) Bikeemotion
+ * 2014
+ *
+ * The reproduction, transmission or use of this document or its contents is not
+ * permitted without express written authorization. All rights, including rights
+ * created by patent grant or registration of a utility model or design, are
+ * reserved. Modifications made to this document are restricted to authorized
+ * personnel only. Technical specifications and features are binding only when
+ * specifically and expressly agreed upon in a written contract.
+ */
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.bikeemotion.json;
+
+import java.math.BigDecimal;
+
+/**
+ * Decimal arithmetic of the number constraints without building
+ * <code>BigDecimal</code>s.<br/>
+ * Gives the same results as <code>new BigDecimal(number.toString())</code>
+ * compared with <code>new BigDecimal(bound)</code>, falling back to them for
+ * the few cases it can't settle with primitives: a double equal to the bound,
+ * or a number text it doesn't recognize.
+ */
+final class Decimals {
+
+  private static final double TWO_POW_63 = 0x1p63;
+
+  private Decimals() {
+  }
+
+  /**
+   * @return <code>bound</code>, a finite min or max constraint
+   * @throws NumberFormatException
+   *           as <code>new BigDecimal(bound)</code> if it isn't finite
+   */
+  static double bound(double bound) {
+
+    if (Double.isNaN(bound) || Double.isInfinite(bound)) {
+      throw new NumberFormatException("Infinite or NaN");
+    }
+    return bound;
+  }
+
+  /**
+   * @return the scale of <code>new BigDecimal(number.toString())</code>
+   */
+  static int scale(Object number) {
+
+    if (number instanceof Integer || number instanceof Long) {
+      return 0;
+    }
+    return scale(number.toString());
+  }
+
+  /**
+   * @return the scale of <code>new BigDecimal(text)</code>
+   * @throws NumberFormatException
+   *           as <code>new BigDecimal(text)</code>
+   */
+  static int scale(String text) {
+
+    final int length = text.length();
+    int i = 0;
+    if (i < length && (text.charAt(i) == '+' || text.charAt(i) == '-')) {
+      i++;
+    }
+
+    int digits = 0;
+    int fraction = 0;
+    boolean point = false;
+    for (; i < length; i++) {
+      final char c = text.charAt(i);
+      if (c >= '0' && c <= '9') {
+        digits++;
+        if (point) {
+          fraction++;
+        }
+      } else if (c == '.' && !point) {
+        point = true;
+      } else {
+        break;
+      }
+    }
+
+    int exponent = 0;
+    if (i < length && (text.charAt(i) == 'e' || text.charAt(i) == 'E')) {
+      i++;
+      final boolean negative = i < length && text.charAt(i) == '-';
+      if (i < length && (text.charAt(i) == '+' || text.charAt(i) == '-')) {
+        i++;
+      }
+      final int start = i;
+      for (; i < length && i - start < 9; i++) {
+        final char c = text.charAt(i);
+        if (c < '0' || c > '9') {
+          break;
+        }
+        exponent = exponent * 10 + (c - '0');
+      }
+      if (i == start) {
+        digits = 0;
+      }
+      exponent = negative ? -exponent : exponent;
+    }
+
+    if (digits == 0 || i < length) {
+      // malformed or unusual (e.g. non-ASCII digits, huge exponent)
+      return new BigDecimal(text).scale();
+    }
+    return fraction - exponent;
+  }
+
+  /**
+   * @param number
+   *          An <code>Integer</code>, <code>Long</code> or <code>Double</code>
+   * @param bound
+   *          A finite bound
+   * @return the sign of <code>new BigDecimal(number.toString())</code>
+   *         compared with <code>new BigDecimal(bound)</code>
+   */
+  static int compare(Object number, double bound) {
+
+    if (number instanceof Integer || number instanceof Long) {
+      return compare(((Number) number).longValue(), bound);
+    }
+
+    final double value = ((Number) number).doubleValue();
+    if (value < bound) {
+      return -1;
+    } else if (value > bound) {
+      return 1;
+    }
+    // the decimal text of a double may be slightly above or below its binary
+    // value, which is the bound itself here
+    return new BigDecimal(number.toString()).compareTo(new BigDecimal(bound));
+  }
+
+  /**
+   * Exact comparison of a long with a double, without the rounding of
+   * converting one to the other.
+   */
+  static int compare(long value, double bound) {
+
+    if (bound >= TWO_POW_63) {
+      return -1;
+    } else if (bound < -TWO_POW_63) {
+      return 1;
+    }
+
+    final double floor = Math.floor(bound);
+    final long integral = (long) floor;
+    if (value != integral) {
+      return value < integral ? -1 : 1;
+    }
+    return floor == bound ? 0 : -1;
+  }
+}
@@ -23,12 +23,19 @@
  */
 package com.bikeemotion.json;
 
+import com.bikeemotion.core.exception.BusinessException;
+import com.bikeemotion.json.JsonFrameworkMetrics.Operation;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
 import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.OutputStream;
 import java.io.Serializable;
+import java.io.Writer;
 import java.math.BigDecimal;
 import org.json.JSONArray;
 import org.json.JSONException;
@@ -80,7 +87,8 @@ public class JSON implements Serializable {
    * Updates the instance value.<br/>
    * If <code>schema</code> is not provided (null), the schema is not enforced.<br/>
    * If any problem occurs when enforcing the <code>schema</code> on <code>newValue</code>, the instance value defaults
-   * to the <code>schema</code>.
+   * to the <code>schema</code>.<br/>
+   * The parsed <code>schema</code> is taken from {@link SchemaCache#getDefault()}.
    * 
    * @param schema
    *          The validation and default schema
@@ -99,10 +107,72 @@ public class JSON implements Serializable {
 
     if (schema != null && !schema.isEmpty() && newValue != null
         && !newValue.isEmpty()) {
-      setValue(new JSONObject(schema), new JSONObject(newValue));
+      setValueCompiled(SchemaCache.getDefault().get(schema), KeyDictionary.parseObject(newValue));
     } else if ((schema == null || schema.isEmpty()) && newValue != null
         && !newValue.isEmpty()) {
-      setValue(null, new JSONObject(newValue));
+      setValue(null, KeyDictionary.parseObject(newValue));
+    }
+  }
+
+  /**
+   * Updates the instance value.<br/>
+   * Same as {@link #setValue(JSONObject, JSONObject)} with a schema compiled
+   * ahead of time. If any problem occurs when enforcing the <code>schema</code>
+   * on <code>newValue</code>, the instance value defaults to a copy of the
+   * <code>schema</code>.
+   * 
+   * @param schema
+   *          The compiled validation and default schema
+   * @param newValue
+   *          The new value intended for this instance
+   */
+  public void setValueCompiled(CompiledSchema schema, JSONObject newValue)
+    throws Exceptions.UnknownDataTypeException,
+    Exceptions.MandatoryValueExpectationFailedException,
+    Exceptions.InvalidDataTypeException,
+    Exceptions.MalformedStrongTypedNodeException,
+    Exceptions.NumberPrecisionExpectationFailedException,
+    Exceptions.MinValueExpectationFailedException,
+    Exceptions.MaxValueExpectationFailedException,
+    Exceptions.InvalidEmptyObjectException {
+
+    if (newValue != null) {
+      try {
+
+        if (schema != null) {
+          this.value = enforceSchemaCompiled(schema, newValue);
+        }
+
+        this.value = checkTypeConstraints(newValue, schema);
+
+      } catch (JSONException e) {
+        this.value = schema != null ? schema.getSchema() : null;
+      }
+    }
+  }
+
+  /**
+   * Updates the instance value.<br/>
+   * Same as {@link #setValue(String, String)} with a schema compiled ahead of
+   * time.
+   * 
+   * @param schema
+   *          The compiled validation and default schema
+   * @param newValue
+   *          The new value intended for this instance
+   */
+  public void setValueCompiled(CompiledSchema schema, String newValue)
+    throws Exceptions.UnknownDataTypeException,
+    Exceptions.MandatoryValueExpectationFailedException,
+    Exceptions.InvalidDataTypeException,
+    Exceptions.MalformedStrongTypedNodeException,
+    Exceptions.NumberPrecisionExpectationFailedException,
+    Exceptions.MinValueExpectationFailedException,
+    Exceptions.MaxValueExpectationFailedException,
+    Exceptions.InvalidEmptyObjectException {
+
+    if (newValue != null && !newValue.isEmpty()) {
+      setValueCompiled(schema, KeyDictionary.parseObject(newValue));
     }
   }
 
@@ -233,6 +303,43 @@ public class JSON implements Serializable {
     return this.value.toString();
   }
 
+  /**
+   * @return the value as a Jackson tree, converted node by node
+   */
+  public ObjectNode toTree() {
+
+    return JSONTrees.toObjectNode(this.value);
+  }
+
+  /**
+   * Writes the same json object as {@link #toString()} to <code>out</code> in
+   * UTF-8, without building it as a <code>String</code>.<br/>
+   * The stream is flushed, not closed.
+   * 
+   * @param out
+   */
+  public void writeTo(OutputStream out)//
+      throws IOException {
+
+    try (JsonGenerator generator = JSONTokenReader.FACTORY.createGenerator(out,
+        JsonEncoding.UTF8)) {
+      JSONTokenWriter.ORG_JSON.writeObject(generator, this.value);
+    }
+  }
+
+  /**
+   * Same as {@link #writeTo(OutputStream)} for a character stream.
+   * 
+   * @param writer
+   */
+  public void writeTo(Writer writer)//
+      throws IOException {
+
+    try (JsonGenerator generator = JSONTokenReader.FACTORY.createGenerator(writer)) {
+      JSONTokenWriter.ORG_JSON.writeObject(generator, this.value);
+    }
+  }
+
   @Override
   public boolean equals(Object obj) {
 
@@ -253,19 +360,159 @@ public class JSON implements Serializable {
     Exceptions.MaxValueExpectationFailedException,
     Exceptions.InvalidEmptyObjectException {
 
-    String errorMessage = ":" + object.toString();
+    final JsonFrameworkMetrics metrics = JsonFrameworkMetrics.get();
+    final long start = metrics.start();
+    boolean success = false;
+    try {
+      final JSONObject result = checkTypeConstraints(object, null, new JSONPointer(), ViolationHandler.THROWING);
+      success = true;
+      return result;
+    } finally {
+      metrics.stop(Operation.CHECK_TYPE_CONSTRAINTS, start, success);
+    }
+  }
 
-    if (JSONObject.getNames(object) == null)
-      throw new Exceptions.InvalidEmptyObjectException(errorMessage);
+  /**
+   * Same as {@link #checkTypeConstraints(JSONObject)}, reusing the constraints
+   * parsed by <code>schema</code> for the strong-typed nodes that carry the
+   * same tags as the schema.
+   * 
+   * @param object
+   * @param schema
+   *          The schema <code>object</code> was enforced with, may be null
+   */
+  public static JSONObject checkTypeConstraints(JSONObject object, CompiledSchema schema)
+    throws Exceptions.UnknownDataTypeException,
+    Exceptions.MandatoryValueExpectationFailedException,
+    Exceptions.InvalidDataTypeException,
+    Exceptions.MalformedStrongTypedNodeException,
+    Exceptions.NumberPrecisionExpectationFailedException,
+    Exceptions.MinValueExpectationFailedException,
+    Exceptions.MaxValueExpectationFailedException,
+    Exceptions.InvalidEmptyObjectException {
 
-    for (String key : JSONObject.getNames(object)) {
-      errorMessage = key + errorMessage;
+    final JsonFrameworkMetrics metrics = JsonFrameworkMetrics.get();
+    final long start = metrics.start();
+    boolean success = false;
+    try {
+      final JSONObject result = checkTypeConstraints(object, schema != null ? schema.root() : null,
+          new JSONPointer(), ViolationHandler.THROWING);
+      success = true;
+      return result;
+    } finally {
+      metrics.stop(Operation.CHECK_TYPE_CONSTRAINTS, schema, start, success);
+    }
+  }
+
+  /**
+   * Checks <code>value</code> as {@link #JSON(JSONObject, JSONObject)} would,
+   * reporting every violation instead of throwing on the first one.<br/>
+   * <code>value</code> isn't changed, the schema is enforced on a copy of it.
+   * A value the schema can't be enforced on, which the constructor replaces
+   * with the schema, is reported as {@link Violation.Code#SCHEMA_MISMATCH}.
+   * 
+   * @param schema
+   *          The validation and default schema, may be null
+   * @param value
+   */
+  public static ValidationResult validate(JSONObject schema, JSONObject value) {
+
+    final ViolationHandler.Collector collector = new ViolationHandler.Collector();
+    validate(schema, null, value, collector);
+    return collector.result();
+  }
+
+  /**
+   * Same as {@link #validate(JSONObject, JSONObject)} with a schema compiled
+   * ahead of time.
+   * 
+   * @param schema
+   *          The compiled validation and default schema, may be null
+   * @param value
+   */
+  public static ValidationResult validateCompiled(CompiledSchema schema, JSONObject value) {
+
+    final ViolationHandler.Collector collector = new ViolationHandler.Collector();
+    validate(null, schema, value, collector);
+    return collector.result();
+  }
+
+  /**
+   * Reports the violations of <code>value</code> to <code>collector</code>,
+   * enforcing <code>compiled</code> if given, <code>schema</code> otherwise.
+   */
+  static void validate(JSONObject schema, CompiledSchema compiled, JSONObject value,
+      ViolationHandler.Collector collector) {
+
+    final JsonFrameworkMetrics metrics = JsonFrameworkMetrics.get();
+    final long start = metrics.start();
+    try {
+      JSONObject object = value;
+      if (value.length() == 0) {
+        // can't be enforced, nor turned into a non-empty object
+        collector.report(Violation.Code.INVALID_EMPTY_OBJECT, new JSONPointer(), value, value);
+        return;
+      } else if (compiled != null ? compiled.root().reachesEmptyObject(value)
+          : schema != null && reachesEmptyObject(schema, value)) {
+        // enforcing can't go through nested empty objects, the checks of the
+        // value as is report them
+        object = value;
+      } else if (compiled != null || schema != null) {
+        try {
+          object = compiled != null
+              ? enforceSchemaCompiled(compiled, CompiledSchema.copy(value))
+              : enforceSchema(schema, CompiledSchema.copy(value));
+        } catch (JSONException e) {
+          collector.report(Violation.Code.SCHEMA_MISMATCH, new JSONPointer(), value, value);
+          return;
+        }
+      }
+
+      checkTypeConstraints(object, compiled != null ? compiled.root() : null, new JSONPointer(), collector);
+
+    } catch (BusinessException e) {
+      // a collector never throws
+      throw new IllegalStateException(e);
+    } finally {
+      metrics.stop(Operation.VALIDATE, compiled, start, true);
+    }
+  }
+
+  private static JSONObject checkTypeConstraints(JSONObject object, CompiledSchema.Node plan,
+      JSONPointer path, ViolationHandler handler)
+    throws Exceptions.UnknownDataTypeException,
+    Exceptions.MandatoryValueExpectationFailedException,
+    Exceptions.InvalidDataTypeException,
+    Exceptions.MalformedStrongTypedNodeException,
+    Exceptions.NumberPrecisionExpectationFailedException,
+    Exceptions.MinValueExpectationFailedException,
+    Exceptions.MaxValueExpectationFailedException,
+    Exceptions.InvalidEmptyObjectException {
+
+    // error messages are only built from the path when a violation is reported
+    final String[] names = JSONObject.getNames(object);
+
+    if (names == null) {
+      handler.report(Violation.Code.INVALID_EMPTY_OBJECT, path, object, object);
+      return object;
+    }
+
+    for (String key : names) {
       Object schemaKeyValue = object.get(key);
 
       if (schemaKeyValue instanceof JSONObject) {
-        checkTypeConstraints((JSONObject) schemaKeyValue);
+        path.push(key);
+        checkTypeConstraints((JSONObject) schemaKeyValue, plan != null ? plan.nested(key) : null, path, handler);
+        path.pop();
       } else if (key.equals(Constants.NODE_CUSTOM_PROPERTY_TYPE_TAG)) {
 
+        // constraints already parsed by the compiled schema
+        final CompiledSchema.Constraints constraints = plan != null ? plan.constraintsFor(object) : null;
+        if (constraints != null) {
+          constraints.check(object, path, handler);
+          continue;
+        }
+
         // if <NODE_CUSTOM_PROPERTY_TYPE_TAG> is present, node is considered
         // strong-typed
         // and its value should conform to the announced data-type
@@ -287,7 +534,11 @@ public class JSON implements Serializable {
           precision = getPrecision(object);
 
         } catch (JSONException e) {
-          throw new Exceptions.MalformedStrongTypedNodeException(errorMessage);
+          handler.report(Violation.Code.MALFORMED_STRONG_TYPED_NODE, path, object, object);
+          continue;
+        } catch (NumberFormatException e) {
+          handler.reportUnparsable(e, path, object);
+          continue;
         }
 
         // check for data-type consistency and constraints validation:
@@ -296,111 +547,51 @@ public class JSON implements Serializable {
         switch (dataType) {
         case Constants.NODE_CUSTOM_PROPERTY_TYPE_TAG_INSTANCE_NUMBER:
           if (value instanceof Integer || value instanceof Long || value instanceof Double) {
-
-            final BigDecimal number = new BigDecimal(value.toString());
-
-            if (precision != null && number.scale() > precision) {
-              throw new Exceptions.NumberPrecisionExpectationFailedException(errorMessage);
-            }
-
-            final BigDecimal min = object.has(Constants.NODE_CUSTOM_PROPERTY_MIN_TAG) ?
-                new BigDecimal(object.getDouble(Constants.NODE_CUSTOM_PROPERTY_MIN_TAG)) : null;
-
-            final BigDecimal max = object.has(Constants.NODE_CUSTOM_PROPERTY_MAX_TAG) ?
-                new BigDecimal(object.getDouble(Constants.NODE_CUSTOM_PROPERTY_MAX_TAG)) : null;
-
-            // min value
-            if (min != null && number.compareTo(min) < 0) {
-              throw new Exceptions.MinValueExpectationFailedException(
-                  errorMessage);
-            }
-
-            // max value
-            if (max != null && number.compareTo(max) > 0) {
-              throw new Exceptions.MaxValueExpectationFailedException(
-                  errorMessage);
+            final double min;
+            final double max;
+            try {
+              min = object.has(Constants.NODE_CUSTOM_PROPERTY_MIN_TAG) ?
+                  Decimals.bound(object.getDouble(Constants.NODE_CUSTOM_PROPERTY_MIN_TAG)) : Double.NaN;
+              max = object.has(Constants.NODE_CUSTOM_PROPERTY_MAX_TAG) ?
+                  Decimals.bound(object.getDouble(Constants.NODE_CUSTOM_PROPERTY_MAX_TAG)) : Double.NaN;
+            } catch (JSONException | NumberFormatException e) {
+              handler.reportUnparsable(e, path, object);
+              break;
             }
-
+            CompiledSchema.Constraints.checkNumber(object, value, precision, min, max, path, handler);
           } else {
-            throw new Exceptions.InvalidDataTypeException(errorMessage);
+            handler.report(Violation.Code.INVALID_DATA_TYPE, path, object, value);
           }
-
           break;
 
         case Constants.NODE_CUSTOM_PROPERTY_TYPE_TAG_INSTANCE_SIMPLE_STRING:
-          if (!(value instanceof String)) {
-            throw new Exceptions.InvalidDataTypeException(errorMessage);
-          } else {
-            String valueAsString = (String) value;
-            final Integer min = object
-                .has(Constants.NODE_CUSTOM_PROPERTY_MIN_TAG) ? object
+        case Constants.NODE_CUSTOM_PROPERTY_TYPE_TAG_INSTANCE_STRING:
+          final boolean simple = dataType.equals(Constants.NODE_CUSTOM_PROPERTY_TYPE_TAG_INSTANCE_SIMPLE_STRING);
+          if (simple ? !(value instanceof String) : !(value instanceof JSONObject)) {
+            handler.report(Violation.Code.INVALID_DATA_TYPE, path, object, value);
+            break;
+          }
+          final Integer min;
+          final Integer max;
+          try {
+            min = object.has(Constants.NODE_CUSTOM_PROPERTY_MIN_TAG) ? object
                 .getInt(Constants.NODE_CUSTOM_PROPERTY_MIN_TAG) : null;
-            final Integer max = object
-                .has(Constants.NODE_CUSTOM_PROPERTY_MAX_TAG) ? object
+            max = object.has(Constants.NODE_CUSTOM_PROPERTY_MAX_TAG) ? object
                 .getInt(Constants.NODE_CUSTOM_PROPERTY_MAX_TAG) : null;
-
-            // mandatory
-            if (mandatory && valueAsString.isEmpty()) {
-              throw new Exceptions.MandatoryValueExpectationFailedException(
-                  errorMessage);
-            }
-
-            // min value
-            if (min != null && valueAsString.length() < min) {
-              throw new Exceptions.MinValueExpectationFailedException(
-                  errorMessage);
-            }
-
-            // max value
-            if (max != null && valueAsString.length() > max) {
-              throw new Exceptions.MaxValueExpectationFailedException(
-                  errorMessage);
-            }
+          } catch (JSONException e) {
+            handler.reportUnparsable(e, path, object);
+            break;
           }
-          break;
 
-        case Constants.NODE_CUSTOM_PROPERTY_TYPE_TAG_INSTANCE_STRING:
-          if (!(value instanceof JSONObject)) {
-            throw new Exceptions.InvalidDataTypeException(errorMessage);
+          if (simple) {
+            CompiledSchema.Constraints.checkLength(object, (String) value, mandatory, min, max, path, handler);
           } else {
-            JSONObject valueAsObj = (JSONObject) value;
-            final Integer min = object
-                .has(Constants.NODE_CUSTOM_PROPERTY_MIN_TAG) ? object
-                .getInt(Constants.NODE_CUSTOM_PROPERTY_MIN_TAG) : null;
-            final Integer max = object
-                .has(Constants.NODE_CUSTOM_PROPERTY_MAX_TAG) ? object
-                .getInt(Constants.NODE_CUSTOM_PROPERTY_MAX_TAG) : null;
-
-            String[] namesStringObj = JSONObject.getNames(valueAsObj);
-            if (namesStringObj != null) {
-              for (String keyVal : namesStringObj) {
-                errorMessage = keyVal + errorMessage;
-                Object schemaKeyValueVal = valueAsObj.get(keyVal);
-                String valueAsString = (String) schemaKeyValueVal;
-                // mandatory
-                if (mandatory && valueAsString.isEmpty()) {
-                  throw new Exceptions.MandatoryValueExpectationFailedException(
-                      errorMessage);
-                }
-
-                // min value
-                if (min != null && valueAsString.length() < min) {
-                  throw new Exceptions.MinValueExpectationFailedException(
-                      errorMessage);
-                }
-
-                // max value
-                if (max != null && valueAsString.length() > max) {
-                  throw new Exceptions.MaxValueExpectationFailedException(
-                      errorMessage);
-                }
-              }
-            }
+            CompiledSchema.Constraints.checkTranslations(object, value, mandatory, min, max, path, handler);
           }
           break;
 
         default:
-          throw new Exceptions.UnknownDataTypeException(errorMessage);
+          handler.report(Violation.Code.UNKNOWN_DATA_TYPE, path, object, dataType);
         }
 
       }
@@ -418,11 +609,66 @@ public class JSON implements Serializable {
   public static JSONObject enforceSchema(JSONObject schema, JSONObject newValue)
     throws Exceptions.MalformedStrongTypedNodeException {
 
-    // operations order matter here
-    deepRemove(schema, newValue);
-    deepAdd(schema, newValue);
+    final JsonFrameworkMetrics metrics = JsonFrameworkMetrics.get();
+    final long start = metrics.start();
+    boolean success = false;
+    try {
+      // operations order matter here
+      deepRemove(schema, newValue);
+      deepAdd(schema, newValue);
+      final JSONObject result = newValue;
+      success = true;
+      return result;
+    } finally {
+      metrics.stop(Operation.ENFORCE_SCHEMA, start, success);
+    }
+  }
+
+  /**
+   * Ensure that the JSONObject is conform to the compiled schema <br/>
+   * 
+   * @param schema
+   * @param newValue
+   * @return JSONObject
+   */
+  public static JSONObject enforceSchemaCompiled(CompiledSchema schema, JSONObject newValue)
+    throws Exceptions.MalformedStrongTypedNodeException {
 
-    return newValue;
+    final JsonFrameworkMetrics metrics = JsonFrameworkMetrics.get();
+    final long start = metrics.start();
+    boolean success = false;
+    try {
+      final JSONObject result = schema.root().enforce(newValue);
+      success = true;
+      return result;
+    } finally {
+      metrics.stop(Operation.ENFORCE_SCHEMA, schema, start, success);
+    }
+  }
+
+  /**
+   * Same as {@link #enforceSchemaCompiled(CompiledSchema, JSONObject)} without copying
+   * the schema keys missing in <code>newValue</code> into it: they're read
+   * (and written) from the schema through the returned view.<br/>
+   * Keys absent in the schema are still removed from <code>newValue</code>,
+   * which is the object the view stores the values set in.
+   * 
+   * @param schema
+   * @param newValue
+   * @return SchemaOverlay
+   */
+  public static SchemaOverlay overlaySchema(CompiledSchema schema, JSONObject newValue) {
+
+    final JsonFrameworkMetrics metrics = JsonFrameworkMetrics.get();
+    final long start = metrics.start();
+    boolean success = false;
+    try {
+      final SchemaOverlay result = schema.root().overlay(newValue);
+      success = true;
+      return result;
+    } finally {
+      metrics.stop(Operation.OVERLAY_SCHEMA, schema, start, success);
+    }
   }
 
   /**
@@ -440,7 +686,7 @@ public class JSON implements Serializable {
     Exceptions.MalformedSearchableNodeException,
     Exceptions.UniqueValueExpectationFailedException {
 
-    return enforceUniqueness(object, jsonCollection, null, null);
+    return enforceUniqueness(object, jsonCollection, (JSONObject) null, null);
   }
 
   /**
@@ -465,13 +711,76 @@ public class JSON implements Serializable {
     Exceptions.MalformedSearchableNodeException,
     Exceptions.UniqueValueExpectationFailedException {
 
+    final JsonFrameworkMetrics metrics = JsonFrameworkMetrics.get();
+    final long start = metrics.start();
+    boolean success = false;
+    try {
+      final JSONObject result = enforceUniqueness(object, jsonCollection, null, refObject,
+          refObjectPropertyName);
+      success = true;
+      return result;
+    } finally {
+      metrics.stop(Operation.ENFORCE_UNIQUENESS, start, success);
+    }
+  }
+
+  /**
+   * Same as {@link #enforceUniqueness(JSONObject, JSONArray)}, searching the
+   * collection through <code>index</code> instead of scanning it.
+   * 
+   * @param object
+   *          Origin object that is going to be compared to every other object
+   *          in the collection
+   * @param index
+   *          Index over the collection in with the search will be conducted
+   */
+  public static JSONObject enforceUniqueness(JSONObject object, UniquenessIndex index)
+    throws Exceptions.UniqueValueUnknownScopeTypeException,
+    Exceptions.MalformedSearchableNodeException,
+    Exceptions.UniqueValueExpectationFailedException {
+
+    return enforceUniqueness(object, index, null);
+  }
+
+  /**
+   * Same as {@link #enforceUniqueness(JSONObject, UniquenessIndex)}, reporting
+   * the measure under <code>schema</code>.
+   * 
+   * @param object
+   * @param index
+   * @param schema
+   *          The schema <code>object</code> was enforced with, may be null
+   */
+  public static JSONObject enforceUniqueness(JSONObject object, UniquenessIndex index, CompiledSchema schema)
+    throws Exceptions.UniqueValueUnknownScopeTypeException,
+    Exceptions.MalformedSearchableNodeException,
+    Exceptions.UniqueValueExpectationFailedException {
+
+    final JsonFrameworkMetrics metrics = JsonFrameworkMetrics.get();
+    final long start = metrics.start();
+    boolean success = false;
+    try {
+      final JSONObject result = enforceUniqueness(object, index.collection(), index, null, null);
+      success = true;
+      return result;
+    } finally {
+      metrics.stop(Operation.ENFORCE_UNIQUENESS, schema, start, success);
+    }
+  }
+
+  private static JSONObject enforceUniqueness(JSONObject object, JSONArray jsonCollection, UniquenessIndex index,
+      JSONObject refObject, String refObjectPropertyName)
+    throws Exceptions.UniqueValueUnknownScopeTypeException,
+    Exceptions.MalformedSearchableNodeException,
+    Exceptions.UniqueValueExpectationFailedException {
+
     for (String key : JSONObject.getNames(object)) {
       Object currentObject = object.get(key);
 
       if (refObjectPropertyName == null && currentObject instanceof JSONObject) {
         if (((JSONObject) currentObject).has(Constants.NODE_CUSTOM_PROPERTY_UNIQUE_TAG)) {
           // only interested in going further if unique meta-tag is present
-          enforceUniqueness((JSONObject) currentObject, jsonCollection, object, key);
+          enforceUniqueness((JSONObject) currentObject, jsonCollection, index, object, key);
         }
 
       } else if (key.equals(Constants.NODE_CUSTOM_PROPERTY_UNIQUE_TAG)) {
@@ -517,7 +826,9 @@ public class JSON implements Serializable {
             }
           }
 
-          if (!bIsDeleted && !isPropertyValueUnique(refObject, refObjectPropertyName, jsonCollection)) {
+          if (!bIsDeleted && !(index != null
+              ? index.isPropertyValueUnique(refObject, refObjectPropertyName)
+              : isPropertyValueUnique(refObject, refObjectPropertyName, jsonCollection, null))) {
             throw new Exceptions.UniqueValueExpectationFailedException(
                 "Property <" + refObjectPropertyName + "> from object <"
                     + refObjectId + "> has value <" + propertyValue
@@ -545,6 +856,63 @@ public class JSON implements Serializable {
     return result;
   }
 
+  /**
+   * Structural comparison of two json values: objects by their keys, arrays
+   * element by element and numbers by numeric value (<code>1</code> and
+   * <code>1.0</code> are the same).
+   * 
+   * @return boolean
+   */
+  public static boolean similar(Object a, Object b) {
+
+    if (a == b) {
+      return true;
+    }
+    if (a == null || b == null) {
+      return JSONObject.NULL.equals(a) && JSONObject.NULL.equals(b);
+    }
+
+    if (a instanceof JSONObject && b instanceof JSONObject) {
+      final JSONObject objectA = (JSONObject) a;
+      final JSONObject objectB = (JSONObject) b;
+      if (objectA.length() != objectB.length()) {
+        return false;
+      }
+      for (Object key : objectA.keySet()) {
+        if (!objectB.has((String) key)
+            || !similar(objectA.get((String) key), objectB.get((String) key))) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    if (a instanceof JSONArray && b instanceof JSONArray) {
+      final JSONArray arrayA = (JSONArray) a;
+      final JSONArray arrayB = (JSONArray) b;
+      if (arrayA.length() != arrayB.length()) {
+        return false;
+      }
+      for (int i = 0; i < arrayA.length(); i++) {
+        if (!similar(arrayA.get(i), arrayB.get(i))) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    if (a instanceof Number && b instanceof Number) {
+      try {
+        return new BigDecimal(a.toString()).compareTo(new BigDecimal(b.toString())) == 0;
+      } catch (NumberFormatException e) {
+        // NaN or infinite doubles
+        return a.equals(b);
+      }
+    }
+
+    return a.equals(b);
+  }
+
   public static JSONObject setDeleted(JSONObject object) {
 
     object.put(Constants.NODE_STATE_PROPERTY,
@@ -570,18 +938,15 @@ public class JSON implements Serializable {
     throws Exceptions.InvalidDataTypeException {
 
     boolean result = false;
-    for (String key : JSONObject.getNames(object)) {
-      if (key.equals(Constants.NODE_STATE_PROPERTY)) {
-        int value;
-        try {
-          value = object.getInt(Constants.NODE_STATE_PROPERTY);
-        } catch (JSONException e) {
-          throw new Exceptions.InvalidDataTypeException(e);
-        }
-
-        result = value == Constants.NODE_STATE_PROPERTY_INSTANCE_DELETED;
-        break;
+    if (object.has(Constants.NODE_STATE_PROPERTY)) {
+      int value;
+      try {
+        value = object.getInt(Constants.NODE_STATE_PROPERTY);
+      } catch (JSONException e) {
+        throw new Exceptions.InvalidDataTypeException(e);
       }
+
+      result = value == Constants.NODE_STATE_PROPERTY_INSTANCE_DELETED;
     }
 
     return result;
@@ -607,19 +972,16 @@ public class JSON implements Serializable {
 
     boolean result = true;
 
-    for (String key : JSONObject.getNames(object)) {
-      if (key.equals(nodePropertyName)) {
-        int value;
-
-        try {
-          value = object.getJSONObject(key).getInt(nodePropertyValue);
-        } catch (JSONException e) {
-          throw new Exceptions.InvalidDataTypeException(e);
-        }
+    if (object.has(nodePropertyName)) {
+      int value;
 
-        result = value > 0;
-        break;
+      try {
+        value = object.getJSONObject(nodePropertyName).getInt(nodePropertyValue);
+      } catch (JSONException e) {
+        throw new Exceptions.InvalidDataTypeException(e);
       }
+
+      result = value > 0;
     }
 
     return result;
@@ -637,10 +999,13 @@ public class JSON implements Serializable {
    *          Property that wil be searched
    * @param jsonCollection
    *          Collection in with the search will be conducted
+   * @param positions
+   *          Ascending positions of the only items that need to be compared,
+   *          every item is compared if null
    * @return boolean
    */
-  private static boolean isPropertyValueUnique(JSONObject searchedObject, String searchedPropertyName,
-      JSONArray jsonCollection)
+  static boolean isPropertyValueUnique(JSONObject searchedObject, String searchedPropertyName,
+      JSONArray jsonCollection, int[] positions)
     throws Exceptions.MalformedSearchableNodeException, Exceptions.UniqueValueUnknownScopeTypeException {
 
     Boolean result = true;
@@ -665,8 +1030,9 @@ public class JSON implements Serializable {
     // need to search in all items from the collection
     JSONObject currentObject;
     String currentObjectId;
-    for (int i = 0; i < jsonCollection.length(); i++) {
-      currentObject = jsonCollection.getJSONObject(i);
+    final int length = positions != null ? positions.length : jsonCollection.length();
+    for (int k = 0; k < length; k++) {
+      currentObject = jsonCollection.getJSONObject(positions != null ? positions[k] : k);
 
       if (currentObject.has(Constants.NODE_STATE_PROPERTY)) {
         if (((Integer) currentObject.get(Constants.NODE_STATE_PROPERTY)).intValue() == Constants.NODE_STATE_PROPERTY_INSTANCE_DELETED) {
@@ -828,11 +1194,47 @@ public class JSON implements Serializable {
     return newValueObject;
   }
 
+  /**
+   * @return whether {@link #deepRemove(JSONObject, JSONObject)} would get to a
+   *         nested empty object, which it can't go through, before failing
+   *         on a value the schema doesn't describe as an object
+   */
+  private static boolean reachesEmptyObject(JSONObject schemaObject,
+      JSONObject newValueObject) {
+
+    final String[] names = JSONObject.getNames(newValueObject);
+    if (names == null) {
+      return true;
+    }
+
+    for (String key : names) {
+      if (schemaObject.has(key) && newValueObject.get(key) instanceof JSONObject
+          && (!schemaObject.has(Constants.NODE_CUSTOM_PROPERTY_TYPE_TAG)
+          || !((String) schemaObject.get(Constants.NODE_CUSTOM_PROPERTY_TYPE_TAG))
+              .equals(Constants.NODE_CUSTOM_PROPERTY_TYPE_TAG_INSTANCE_STRING))) {
+        final Object schemaKeyValue = schemaObject.get(key);
+        if (!(schemaKeyValue instanceof JSONObject)) {
+          return false;
+        } else if (reachesEmptyObject((JSONObject) schemaKeyValue, newValueObject.getJSONObject(key))) {
+          return true;
+        }
+      }
+    }
+
+    return false;
+  }
+
   private static JSONObject deepAdd(JSONObject schemaObject,
       JSONObject newValueObject) {
 
+    final String[] names = JSONObject.getNames(schemaObject);
+    if (names == null) {
+      // an empty schema object has nothing to add
+      return newValueObject;
+    }
+
     // add schema keys missing in newValue
-    for (String key : JSONObject.getNames(schemaObject)) {
+    for (String key : names) {
       Object schemaKeyValue = schemaObject.get(key);
 
       if (!newValueObject.has(key)) {
@@ -866,36 +1268,56 @@ public class JSON implements Serializable {
   private void writeObject(ObjectOutputStream oos)
     throws IOException {
 
-    oos.defaultWriteObject();
-    oos.writeObject(this.value.toString());
+    final JsonFrameworkMetrics metrics = JsonFrameworkMetrics.get();
+    final long start = metrics.start();
+    boolean success = false;
+    try {
+      oos.defaultWriteObject();
+      oos.writeObject(JSONBinary.FORMAT_VERSION);
+      JSONBinary.write(oos, this.value);
+      success = true;
+    } finally {
+      metrics.stop(Operation.JAVA_SERIALIZE, start, success);
+    }
   }
 
   private void readObject(ObjectInputStream ois)
     throws ClassNotFoundException,
     IOException, JSONException {
 
-    ois.defaultReadObject();
-    this.value = new JSONObject((String) ois.readObject());
+    final JsonFrameworkMetrics metrics = JsonFrameworkMetrics.get();
+    final long start = metrics.start();
+    boolean success = false;
+    try {
+      ois.defaultReadObject();
+      final Object header = ois.readObject();
+      if (header instanceof String) {
+        // written before the binary format
+        this.value = KeyDictionary.parseObject((String) header);
+      } else {
+        final Object value = JSONBinary.read(ois, header);
+        this.value = JSONObject.NULL.equals(value) ? null : (JSONObject) value;
+      }
+      success = true;
+    } finally {
+      metrics.stop(Operation.JAVA_DESERIALIZE, start, success);
+    }
   }
 
-  private static Integer getPrecision(JSONObject object) {
+  static Integer getPrecision(JSONObject object) {
 
     Integer precision = null;
 
     // to avoid to put precision in two places
-    final String precisionArrayMax = object
-        .has(Constants.NODE_CUSTOM_PROPERTY_MAX_TAG) ? object
-        .get(Constants.NODE_CUSTOM_PROPERTY_MAX_TAG).toString() : null;
-    final String precisionArrayMin = object
-        .has(Constants.NODE_CUSTOM_PROPERTY_MIN_TAG) ? object
-        .get(Constants.NODE_CUSTOM_PROPERTY_MIN_TAG).toString() : null;
+    final Object precisionArrayMax = object.opt(Constants.NODE_CUSTOM_PROPERTY_MAX_TAG);
+    final Object precisionArrayMin = object.opt(Constants.NODE_CUSTOM_PROPERTY_MIN_TAG);
 
     if (precisionArrayMax != null && precisionArrayMin == null) {
-      precision = new BigDecimal(precisionArrayMax).scale();
+      precision = Decimals.scale(precisionArrayMax);
     } else if (precisionArrayMax == null && precisionArrayMin != null) {
-      precision = new BigDecimal(precisionArrayMin).scale();
+      precision = Decimals.scale(precisionArrayMin);
     } else if (precisionArrayMax != null && precisionArrayMin != null) {
-      precision = Math.max(new BigDecimal(precisionArrayMin).scale(), new BigDecimal(precisionArrayMax).scale());
+      precision = Math.max(Decimals.scale(precisionArrayMin), Decimals.scale(precisionArrayMax));
     }
     return precision;
   }
@@ -23,6 +23,7 @@
  */
 package com.bikeemotion.json;
 
+import com.bikeemotion.json.JsonFrameworkMetrics.Operation;
 import java.io.IOException;
 
 import org.json.JSONArray;
@@ -30,16 +31,27 @@ import org.json.JSONArray;
 import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.databind.DeserializationContext;
 import com.fasterxml.jackson.databind.JsonDeserializer;
-import com.fasterxml.jackson.databind.JsonNode;
 
+/**
+ * Builds the array straight from the parser tokens, with the value types
+ * <code>new JSONArray(String)</code> would give the same text.
+ */
 public class JSONArrayDeserializer extends JsonDeserializer<JSONArray> {
 
   @Override
   public JSONArray deserialize(JsonParser jp, DeserializationContext ctxt)
       throws IOException {
-    final JsonNode node = jp.getCodec().readTree(jp);
 
-    return new JSONArray(node.toString());
+    final JsonFrameworkMetrics metrics = JsonFrameworkMetrics.get();
+    final long start = metrics.start();
+    boolean success = false;
+    try {
+      final JSONArray result = JSONTokenReader.LENIENT.readArray(jp);
+      success = true;
+      return result;
+    } finally {
+      metrics.stop(Operation.DESERIALIZE, start, success);
+    }
   }
 
 }
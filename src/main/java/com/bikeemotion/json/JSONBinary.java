@@ -0,0 +1,271 @@
+/**
+ * Copyright (C) Bikeemotion
+ * 2014
+ *
+ * The reproduction, transmission or use of this document or its contents is not
+ * permitted without express written authorization. All rights, including rights
+ * created by patent grant or registration of a utility model or design, are
+ * reserved. Modifications made to this document are restricted to authorized
+ * personnel only. Technical specifications and features are binding only when
+ * specifically and expressly agreed upon in a written contract.
+ */
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.bikeemotion.json;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.StreamCorruptedException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Compact binary form of <code>org.json</code> values used by the Java
+ * serialization of {@link JSON} and {@link JSONCollection}.<br/>
+ * Values are written as a tagged tree: numbers in binary, strings in UTF-8,
+ * and short strings (keys and tags mostly) only once per value, referenced by
+ * position afterwards. The format is announced by {@link #FORMAT_VERSION},
+ * written before the tree so that streams holding the former
+ * <code>String</code> form remain readable.
+ */
+final class JSONBinary {
+
+  static final Integer FORMAT_VERSION = 1;
+
+  // longer strings are not worth a reference
+  private static final int MAX_REFERENCED_LENGTH = 64;
+
+  private static final int NULL = 0;
+  private static final int TRUE = 1;
+  private static final int FALSE = 2;
+  private static final int INT = 3;
+  private static final int LONG = 4;
+  private static final int DOUBLE = 5;
+  private static final int STRING = 6;
+  private static final int STRING_REFERENCE = 7;
+  private static final int OBJECT = 8;
+  private static final int ARRAY = 9;
+  // numbers of other types, as org.json writes them
+  private static final int NUMBER_TEXT = 10;
+
+  private JSONBinary() {
+  }
+
+  static void write(DataOutput out, Object value)
+    throws IOException {
+
+    new Writer(out).write(value);
+  }
+
+  /**
+   * @param version
+   *          The format header read before the tree
+   */
+  static Object read(DataInput in, Object version)
+    throws IOException {
+
+    if (!FORMAT_VERSION.equals(version)) {
+      throw new InvalidObjectException("Unknown json format <" + version + ">");
+    }
+    return new Reader(in).read();
+  }
+
+  private static final class Writer {
+
+    private final DataOutput out;
+    private final Map<String, Integer> strings = new HashMap<>();
+
+    Writer(DataOutput out) {
+
+      this.out = out;
+    }
+
+    void write(Object raw)
+      throws IOException {
+
+      final Object value = JSONTokenWriter.normalize(raw);
+      if (value == null || JSONObject.NULL.equals(value)) {
+        this.out.writeByte(NULL);
+      } else if (value instanceof JSONObject) {
+        final JSONObject object = (JSONObject) value;
+        this.out.writeByte(OBJECT);
+        writeSize(object.length());
+        for (Object key : object.keySet()) {
+          writeString((String) key);
+          write(object.opt((String) key));
+        }
+      } else if (value instanceof JSONArray) {
+        final JSONArray array = (JSONArray) value;
+        this.out.writeByte(ARRAY);
+        writeSize(array.length());
+        for (int i = 0; i < array.length(); i++) {
+          write(array.opt(i));
+        }
+      } else if (value instanceof Boolean) {
+        this.out.writeByte((Boolean) value ? TRUE : FALSE);
+      } else if (value instanceof Integer) {
+        this.out.writeByte(INT);
+        this.out.writeInt((Integer) value);
+      } else if (value instanceof Long) {
+        this.out.writeByte(LONG);
+        this.out.writeLong((Long) value);
+      } else if (value instanceof Double) {
+        this.out.writeByte(DOUBLE);
+        this.out.writeDouble((Double) value);
+      } else if (value instanceof Number) {
+        this.out.writeByte(NUMBER_TEXT);
+        writeText(JSONObject.numberToString((Number) value));
+      } else {
+        // strings, and anything else org.json writes as one
+        writeString(value.toString());
+      }
+    }
+
+    private void writeString(String value)
+      throws IOException {
+
+      final Integer reference = this.strings.get(value);
+      if (reference != null) {
+        this.out.writeByte(STRING_REFERENCE);
+        writeSize(reference);
+        return;
+      }
+
+      if (value.length() <= MAX_REFERENCED_LENGTH) {
+        this.strings.put(value, this.strings.size());
+      }
+      this.out.writeByte(STRING);
+      writeText(value);
+    }
+
+    private void writeText(String value)
+      throws IOException {
+
+      final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+      writeSize(bytes.length);
+      this.out.write(bytes);
+    }
+
+    /**
+     * Non negative int in 7 bit groups.
+     */
+    private void writeSize(int size)
+      throws IOException {
+
+      int rest = size;
+      while ((rest & ~0x7F) != 0) {
+        this.out.writeByte((rest & 0x7F) | 0x80);
+        rest >>>= 7;
+      }
+      this.out.writeByte(rest);
+    }
+  }
+
+  private static final class Reader {
+
+    private final DataInput in;
+    private final List<String> strings = new ArrayList<>();
+
+    Reader(DataInput in) {
+
+      this.in = in;
+    }
+
+    Object read()
+      throws IOException {
+
+      final int tag = this.in.readUnsignedByte();
+      switch (tag) {
+        case NULL:
+          return JSONObject.NULL;
+        case TRUE:
+          return Boolean.TRUE;
+        case FALSE:
+          return Boolean.FALSE;
+        case INT:
+          return this.in.readInt();
+        case LONG:
+          return this.in.readLong();
+        case DOUBLE:
+          return this.in.readDouble();
+        case NUMBER_TEXT:
+          return JSONObject.stringToValue(readText());
+        case OBJECT: {
+          final int size = readSize();
+          final JSONObject object = new JSONObject();
+          for (int i = 0; i < size; i++) {
+            final Object key = read();
+            if (!(key instanceof String)) {
+              throw new StreamCorruptedException("Expected a json key, got <" + key + ">");
+            }
+            object.put((String) key, read());
+          }
+          return object;
+        }
+        case ARRAY: {
+          final int size = readSize();
+          final JSONArray array = new JSONArray();
+          for (int i = 0; i < size; i++) {
+            array.put(read());
+          }
+          return array;
+        }
+        case STRING: {
+          final String value = KeyDictionary.canonical(readText());
+          if (value.length() <= MAX_REFERENCED_LENGTH) {
+            this.strings.add(value);
+          }
+          return value;
+        }
+        case STRING_REFERENCE: {
+          final int reference = readSize();
+          if (reference >= this.strings.size()) {
+            throw new StreamCorruptedException("Unknown string reference <" + reference + ">");
+          }
+          return this.strings.get(reference);
+        }
+        default:
+          throw new StreamCorruptedException("Unknown json tag <" + tag + ">");
+      }
+    }
+
+    private String readText()
+      throws IOException {
+
+      final byte[] bytes = new byte[readSize()];
+      this.in.readFully(bytes);
+      return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private int readSize()
+      throws IOException {
+
+      int result = 0;
+      for (int shift = 0; shift < 32; shift += 7) {
+        final int b = this.in.readUnsignedByte();
+        result |= (b & 0x7F) << shift;
+        if ((b & 0x80) == 0) {
+          return result;
+        }
+      }
+      throw new StreamCorruptedException("Malformed json size");
+    }
+  }
+}
@@ -23,16 +23,32 @@
  */
 package com.bikeemotion.json;
 
+import com.bikeemotion.json.JsonFrameworkMetrics.Operation;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
 import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.node.ArrayNode;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Reader;
 import java.io.Serializable;
+import java.io.Writer;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -41,7 +57,16 @@ public class JSONCollection implements Serializable {
 
   // members
   private static final long serialVersionUID = -6627431426960774864L;
+
+  /**
+   * Smaller collections are validated sequentially, even when given an
+   * executor.
+   */
+  public static final int PARALLEL_THRESHOLD = 4096;
+
   private transient JSONArray value;
+  private transient IdIndex ids;
+  private transient FieldIndexes indexes;
 
   // getters & setters
   /**
@@ -63,7 +88,11 @@ public class JSONCollection implements Serializable {
 
     if (jsonCollection != null) {
       this.value = new JSONArray();
+      if (this.indexes != null) {
+        this.indexes.reset(this.value);
+      }
 
+      final UniquenessIndex uniquenessIndex = new UniquenessIndex(jsonCollection);
       JSONObject object;
       for (int i = 0; i < jsonCollection.length(); i++) {
         object = jsonCollection.getJSONObject(i);
@@ -74,14 +103,127 @@ public class JSONCollection implements Serializable {
 
         JSON.checkTypeConstraints(object);
 
-        JSON.enforceUniqueness(object, jsonCollection);
+        // the item may have changed since the index was built
+        uniquenessIndex.update(i);
+        JSON.enforceUniqueness(object, uniquenessIndex);
+
+        this.value.put(object);
+        if (this.indexes != null) {
+          this.indexes.add(i, object);
+        }
+      }
+    }
+  }
+
+  /**
+   * Same as {@link #setValue(JSONObject, JSONArray)} with a schema compiled
+   * ahead of time.
+   * 
+   * @param atomicSchema
+   * @param jsonCollection
+   */
+  public void setValueCompiled(CompiledSchema atomicSchema, JSONArray jsonCollection)//
+      throws Exceptions.UniqueValueUnknownScopeTypeException,//
+      Exceptions.MalformedSearchableNodeException, //
+      Exceptions.UniqueValueExpectationFailedException,//
+      Exceptions.UnknownDataTypeException, //
+      Exceptions.MandatoryValueExpectationFailedException,//
+      Exceptions.InvalidDataTypeException, //
+      Exceptions.MalformedStrongTypedNodeException,//
+      Exceptions.NumberPrecisionExpectationFailedException,//
+      Exceptions.MinValueExpectationFailedException, //
+      Exceptions.MaxValueExpectationFailedException,
+      Exceptions.InvalidEmptyObjectException {
+
+    if (jsonCollection != null) {
+      this.value = new JSONArray();
+      if (this.indexes != null) {
+        this.indexes.reset(this.value);
+      }
+
+      final UniquenessIndex uniquenessIndex = new UniquenessIndex(jsonCollection);
+      JSONObject object;
+      for (int i = 0; i < jsonCollection.length(); i++) {
+        object = jsonCollection.getJSONObject(i);
+
+        if (atomicSchema != null) {
+          JSON.enforceSchemaCompiled(atomicSchema, object);
+        }
+
+        JSON.checkTypeConstraints(object, atomicSchema);
+
+        // the item may have changed since the index was built
+        uniquenessIndex.update(i);
+        JSON.enforceUniqueness(object, uniquenessIndex, atomicSchema);
 
         this.value.put(object);
+        if (this.indexes != null) {
+          this.indexes.add(i, object);
+        }
       }
     }
   }
 
   /**
+   * Same as {@link #setValue(JSONObject, JSONArray)}, declaring hash indexes
+   * on <code>indexFields</code> that are filled in the same pass, see
+   * {@link #indexBy(String...)}.
+   * 
+   * @param atomicSchema
+   * @param jsonCollection
+   * @param indexFields
+   */
+  public void setValue(JSONObject atomicSchema, JSONArray jsonCollection, String... indexFields)//
+      throws Exceptions.UniqueValueUnknownScopeTypeException,//
+      Exceptions.MalformedSearchableNodeException, //
+      Exceptions.UniqueValueExpectationFailedException,//
+      Exceptions.UnknownDataTypeException, //
+      Exceptions.MandatoryValueExpectationFailedException,//
+      Exceptions.InvalidDataTypeException, //
+      Exceptions.MalformedStrongTypedNodeException,//
+      Exceptions.NumberPrecisionExpectationFailedException,//
+      Exceptions.MinValueExpectationFailedException, //
+      Exceptions.MaxValueExpectationFailedException,
+      Exceptions.InvalidEmptyObjectException {
+
+    if (indexFields.length > 0) {
+      declareIndexes(indexFields);
+    }
+    setValue(atomicSchema, jsonCollection);
+  }
+
+  /**
+   * Same as {@link #setValueCompiled(CompiledSchema, JSONArray)}, declaring hash
+   * indexes on <code>indexFields</code> that are filled in the same pass, see
+   * {@link #indexBy(String...)}.
+   * 
+   * @param atomicSchema
+   * @param jsonCollection
+   * @param indexFields
+   */
+  public void setValueCompiled(CompiledSchema atomicSchema, JSONArray jsonCollection, String... indexFields)//
+      throws Exceptions.UniqueValueUnknownScopeTypeException,//
+      Exceptions.MalformedSearchableNodeException, //
+      Exceptions.UniqueValueExpectationFailedException,//
+      Exceptions.UnknownDataTypeException, //
+      Exceptions.MandatoryValueExpectationFailedException,//
+      Exceptions.InvalidDataTypeException, //
+      Exceptions.MalformedStrongTypedNodeException,//
+      Exceptions.NumberPrecisionExpectationFailedException,//
+      Exceptions.MinValueExpectationFailedException, //
+      Exceptions.MaxValueExpectationFailedException,
+      Exceptions.InvalidEmptyObjectException {
+
+    if (indexFields.length > 0) {
+      declareIndexes(indexFields);
+    }
+    setValueCompiled(atomicSchema, jsonCollection);
+  }
+
+  /**
+   * The parsed <code>atomicSchema</code> is taken from
+   * {@link SchemaCache#getDefault()}.
+   * 
    * @param atomicSchema
    * @param jsonCollection
    */
@@ -100,10 +242,10 @@ public class JSONCollection implements Serializable {
 
     if (atomicSchema != null && !atomicSchema.isEmpty()
         && jsonCollection != null && !jsonCollection.isEmpty()) {
-      setValue(new JSONObject(atomicSchema), new JSONArray(jsonCollection));
+      setValueCompiled(SchemaCache.getDefault().get(atomicSchema), KeyDictionary.parseArray(jsonCollection));
     } else if ((atomicSchema == null || atomicSchema.isEmpty())
         && jsonCollection != null && !jsonCollection.isEmpty()) {
-      setValue(null, new JSONArray(jsonCollection));
+      setValue(null, KeyDictionary.parseArray(jsonCollection));
     }
 
   }
@@ -127,9 +269,17 @@ public class JSONCollection implements Serializable {
     this.value = value;
   }
 
+  /**
+   * The items may be changed through the returned array, so the id index used
+   * by {@link #exists(String)} is rebuilt on its next use.
+   */
   @JsonSerialize(using = JSONArraySerializer.class)
   public JSONArray getValue() throws JSONException {
 
+    this.ids = null;
+    if (this.indexes != null) {
+      this.indexes.invalidate();
+    }
     return this.value;
   }
 
@@ -214,11 +364,230 @@ public class JSONCollection implements Serializable {
     setValue(atomicSchema, jsonCollection);
   }
 
+  /**
+   * Creates a new instance.<br/>
+   * Same as {@link #JSONCollection(JSONObject, JSONArray)}, declaring hash
+   * indexes on <code>indexFields</code> that are filled in the same pass,
+   * see {@link #indexBy(String...)}.
+   * 
+   * @param atomicSchema
+   *          Value will be enforced as a schema to the collection
+   * @param jsonCollection
+   *          A new collection of json objects
+   * @param indexFields
+   *          Fields to index, JSON pointers or first level property names
+   */
+  public JSONCollection(JSONObject atomicSchema, JSONArray jsonCollection, String... indexFields)//
+      throws Exceptions.UniqueValueUnknownScopeTypeException,//
+      Exceptions.MalformedSearchableNodeException, //
+      Exceptions.UniqueValueExpectationFailedException,//
+      Exceptions.UnknownDataTypeException, //
+      Exceptions.MandatoryValueExpectationFailedException,//
+      Exceptions.InvalidDataTypeException, //
+      Exceptions.MalformedStrongTypedNodeException,//
+      Exceptions.NumberPrecisionExpectationFailedException,//
+      Exceptions.MinValueExpectationFailedException, //
+      Exceptions.MaxValueExpectationFailedException,
+      Exceptions.InvalidEmptyObjectException {
+    setValue(atomicSchema, jsonCollection, indexFields);
+  }
+
+  /**
+   * Reads a json array of objects from <code>in</code> (UTF-8, UTF-16 or
+   * UTF-32) one item at a time, enforcing <code>atomicSchema</code>, type
+   * constraints and uniqueness on each item as it is read, so the text and
+   * the unchecked items are never held in memory as a whole.<br/>
+   * Unlike {@link #setValueCompiled(CompiledSchema, JSONArray)}, an item's unique
+   * values are checked against the items read before it (already enforced),
+   * not against the whole unchecked input.<br/>
+   * The stream is not closed.
+   * 
+   * @param in
+   *          Stream with a json array
+   * @param atomicSchema
+   *          Schema enforced on every item, not enforced if null
+   * @return A new collection of json objects
+   */
+  public static JSONCollection read(InputStream in, CompiledSchema atomicSchema)//
+      throws IOException,//
+      Exceptions.UniqueValueUnknownScopeTypeException,//
+      Exceptions.MalformedSearchableNodeException, //
+      Exceptions.UniqueValueExpectationFailedException,//
+      Exceptions.UnknownDataTypeException, //
+      Exceptions.MandatoryValueExpectationFailedException,//
+      Exceptions.InvalidDataTypeException, //
+      Exceptions.MalformedStrongTypedNodeException,//
+      Exceptions.NumberPrecisionExpectationFailedException,//
+      Exceptions.MinValueExpectationFailedException, //
+      Exceptions.MaxValueExpectationFailedException,
+      Exceptions.InvalidEmptyObjectException {
+
+    try (JsonParser parser = JSONTokenReader.FACTORY.createParser(in)) {
+      return read(parser, atomicSchema);
+    }
+  }
+
+  /**
+   * Same as {@link #read(InputStream, CompiledSchema)} for a character stream.
+   * 
+   * @param reader
+   * @param atomicSchema
+   * @return A new collection of json objects
+   */
+  public static JSONCollection read(Reader reader, CompiledSchema atomicSchema)//
+      throws IOException,//
+      Exceptions.UniqueValueUnknownScopeTypeException,//
+      Exceptions.MalformedSearchableNodeException, //
+      Exceptions.UniqueValueExpectationFailedException,//
+      Exceptions.UnknownDataTypeException, //
+      Exceptions.MandatoryValueExpectationFailedException,//
+      Exceptions.InvalidDataTypeException, //
+      Exceptions.MalformedStrongTypedNodeException,//
+      Exceptions.NumberPrecisionExpectationFailedException,//
+      Exceptions.MinValueExpectationFailedException, //
+      Exceptions.MaxValueExpectationFailedException,
+      Exceptions.InvalidEmptyObjectException {
+
+    try (JsonParser parser = JSONTokenReader.FACTORY.createParser(reader)) {
+      return read(parser, atomicSchema);
+    }
+  }
+
+  /**
+   * Same as {@link #read(InputStream, CompiledSchema)}, compiling
+   * <code>atomicSchema</code> first.
+   * 
+   * @param in
+   * @param atomicSchema
+   * @return A new collection of json objects
+   */
+  public static JSONCollection read(InputStream in, JSONObject atomicSchema)//
+      throws IOException,//
+      Exceptions.UniqueValueUnknownScopeTypeException,//
+      Exceptions.MalformedSearchableNodeException, //
+      Exceptions.UniqueValueExpectationFailedException,//
+      Exceptions.UnknownDataTypeException, //
+      Exceptions.MandatoryValueExpectationFailedException,//
+      Exceptions.InvalidDataTypeException, //
+      Exceptions.MalformedStrongTypedNodeException,//
+      Exceptions.NumberPrecisionExpectationFailedException,//
+      Exceptions.MinValueExpectationFailedException, //
+      Exceptions.MaxValueExpectationFailedException,
+      Exceptions.InvalidEmptyObjectException {
+
+    return read(in, atomicSchema != null ? new CompiledSchema(atomicSchema) : null);
+  }
+
+  /**
+   * Same as {@link #read(Reader, CompiledSchema)}, compiling
+   * <code>atomicSchema</code> first.
+   * 
+   * @param reader
+   * @param atomicSchema
+   * @return A new collection of json objects
+   */
+  public static JSONCollection read(Reader reader, JSONObject atomicSchema)//
+      throws IOException,//
+      Exceptions.UniqueValueUnknownScopeTypeException,//
+      Exceptions.MalformedSearchableNodeException, //
+      Exceptions.UniqueValueExpectationFailedException,//
+      Exceptions.UnknownDataTypeException, //
+      Exceptions.MandatoryValueExpectationFailedException,//
+      Exceptions.InvalidDataTypeException, //
+      Exceptions.MalformedStrongTypedNodeException,//
+      Exceptions.NumberPrecisionExpectationFailedException,//
+      Exceptions.MinValueExpectationFailedException, //
+      Exceptions.MaxValueExpectationFailedException,
+      Exceptions.InvalidEmptyObjectException {
+
+    return read(reader, atomicSchema != null ? new CompiledSchema(atomicSchema) : null);
+  }
+
+  private static JSONCollection read(JsonParser parser, CompiledSchema atomicSchema)//
+      throws IOException,//
+      Exceptions.UniqueValueUnknownScopeTypeException,//
+      Exceptions.MalformedSearchableNodeException, //
+      Exceptions.UniqueValueExpectationFailedException,//
+      Exceptions.UnknownDataTypeException, //
+      Exceptions.MandatoryValueExpectationFailedException,//
+      Exceptions.InvalidDataTypeException, //
+      Exceptions.MalformedStrongTypedNodeException,//
+      Exceptions.NumberPrecisionExpectationFailedException,//
+      Exceptions.MinValueExpectationFailedException, //
+      Exceptions.MaxValueExpectationFailedException,
+      Exceptions.InvalidEmptyObjectException {
+
+    if (parser.nextToken() != JsonToken.START_ARRAY) {
+      throw new JSONException("A JSONArray text must start with '[' at "
+          + parser.getCurrentLocation());
+    }
+
+    final JSONCollection result = new JSONCollection();
+    final UniquenessIndex uniquenessIndex = new UniquenessIndex(result.value);
+    JSONObject object;
+    while (parser.nextToken() != JsonToken.END_ARRAY) {
+      if (parser.getCurrentToken() != JsonToken.START_OBJECT) {
+        throw new JSONException("JSONArray[" + result.value.length()
+            + "] is not a JSONObject.");
+      }
+      object = JSONTokenReader.STRICT.readObject(parser);
+
+      if (atomicSchema != null) {
+        JSON.enforceSchemaCompiled(atomicSchema, object);
+      }
+
+      JSON.checkTypeConstraints(object, atomicSchema);
+
+      result.value.put(object);
+      uniquenessIndex.update(result.value.length() - 1);
+      JSON.enforceUniqueness(object, uniquenessIndex, atomicSchema);
+    }
+
+    return result;
+  }
+
   @Override
   public String toString() {
     return this.value.toString();
   }
 
+  /**
+   * @return the items as a Jackson tree, converted node by node
+   */
+  public ArrayNode toTree() {
+
+    return JSONTrees.toArrayNode(this.value);
+  }
+
+  /**
+   * Writes the same json array as {@link #toString()} to <code>out</code> in
+   * UTF-8, without building it as a <code>String</code>.<br/>
+   * The stream is flushed, not closed.
+   * 
+   * @param out
+   */
+  public void writeTo(OutputStream out)//
+      throws IOException {
+
+    try (JsonGenerator generator = JSONTokenReader.FACTORY.createGenerator(out,
+        JsonEncoding.UTF8)) {
+      JSONTokenWriter.ORG_JSON.writeArray(generator, this.value);
+    }
+  }
+
+  /**
+   * Same as {@link #writeTo(OutputStream)} for a character stream.
+   * 
+   * @param writer
+   */
+  public void writeTo(Writer writer)//
+      throws IOException {
+
+    try (JsonGenerator generator = JSONTokenReader.FACTORY.createGenerator(writer)) {
+      JSONTokenWriter.ORG_JSON.writeArray(generator, this.value);
+    }
+  }
+
   @Override
   public boolean equals(Object obj) {
     return this.toString().equals(obj.toString());
@@ -228,25 +597,17 @@ public class JSONCollection implements Serializable {
       throws Exceptions.MalformedStrongTypedNodeException {
 
     JSONCollection removedItems = new JSONCollection();
-    boolean found;
+    final IdIndex index = freshIds();
 
     for (int i = 0; i < oldValues.value.length(); i++) {
-      found = false;
-      for (int j = 0; j < this.value.length(); j++) {
-        // trying to find the old item in the new items collection
-        if (JSON.getId(oldValues.value.getJSONObject(i)).equals(
-            JSON.getId(this.value.getJSONObject(j)))) {
-          found = true;
-          break;
-        }
-      }
+      // trying to find the old item in the new items collection
+      if (this.value.length() == 0
+          || index.find(JSON.getId(oldValues.value.getJSONObject(i))) < 0) {
 
-      // if its not there, it was removed and must be appended in the new
-      // collection
-      if (!found) {
+        // if its not there, it was removed and must be appended in the new
+        // collection
         removedItems.value
             .put(JSON.setDeleted(oldValues.value.getJSONObject(i)));
-
       }
     }
 
@@ -260,87 +621,174 @@ public class JSONCollection implements Serializable {
   public JSONCollection purgeInvalidItems(JSONCollection oldValues)//
       throws Exceptions.MalformedStrongTypedNodeException {
 
-    List<Integer> invalidItems = new ArrayList<>();
+    final IdIndex index = oldValues.freshIds();
     boolean found;
+    int kept = 0;
 
     for (int i = 0; i < this.value.length(); i++) {
-
-      found = false;
-      for (int j = 0; j < oldValues.value.length(); j++) {
-        // trying to find an existing item in the old collection with a matching
-        // id
-        if (!JSON.isPropertyAvailable(this.value.getJSONObject(i),
-            Constants.NODE_ID_PROPERTY)
-            || (JSON.isPropertyAvailable(this.value.getJSONObject(i),
-                Constants.NODE_ID_PROPERTY) && (JSON.getId(oldValues.value
-                .getJSONObject(j)).equals(JSON.getId(this.value
-                .getJSONObject(i)))))) {
-          found = true;
-          break;
-        }
+      final JSONObject object = this.value.getJSONObject(i);
+
+      // trying to find an existing item in the old collection with a matching
+      // id
+      if (oldValues.value.length() == 0) {
+        found = false;
+      } else if (!JSON.isPropertyAvailable(object, Constants.NODE_ID_PROPERTY)) {
+        found = true;
+      } else {
+        found = index.find(JSON.getId(object)) >= 0;
       }
 
-      // if its not there, it's invalid and i will need the current object
-      // invalid item id
-      if (!found) {
-        invalidItems.add(i);
+      // if its not there, it's invalid and is dropped
+      if (found) {
+        if (kept != i) {
+          this.value.put(kept, object);
+        }
+        kept++;
       }
     }
 
-    for (int i = 0; i < invalidItems.size(); i++) {
-      this.value.remove(invalidItems.get(i));
+    while (this.value.length() > kept) {
+      this.value.remove(this.value.length() - 1);
+    }
+    if (this.indexes != null) {
+      this.indexes.invalidate();
     }
 
     return this;
   }
 
-  public JSONCollection generateNewItemsIdentifier() {
-    JSONCollection items = this
-        .findItemsWithoutProperty(Constants.NODE_ID_PROPERTY);
-
-    for (int i = 0; i < items.value.length(); i++) {
-      items.value.getJSONObject(i).put(Constants.NODE_ID_PROPERTY,
-          UUID.randomUUID());
-    }
+  /**
+   * Declares hash indexes on <code>fields</code> and builds them in one pass.
+   * <br/>
+   * Fields are JSON pointers, or first level property names, and are
+   * indexed by their value as in {@link JSONQuery}: the
+   * <code>Constants.NODE_CUSTOM_PROPERTY_VALUE_TAG</code> of strong-typed
+   * nodes, numbers by value whatever their type. Objects and arrays aren't
+   * indexed.<br/>
+   * Indexes are filled by the pass of <code>setValue</code> and rebuilt on
+   * their next use after the collection changed, including after
+   * {@link #getValue()} as the items may be changed through it. They aren't
+   * serialized.<br/>
+   * To index the items as they're first enforced, pass the fields to the
+   * constructor or <code>setValue</code> instead.<br/>
+   * Calling it with no field rebuilds the declared indexes.
+   * 
+   * @param fields
+   * @return JSONCollection
+   */
+  public JSONCollection indexBy(String... fields) {
 
+    declareIndexes(fields);
+    indexes();
     return this;
   }
 
   /**
+   * Looks <code>value</code> up in the index of <code>field</code>.<br/>
+   * <b>The index is only rebuilt when the collection itself changes</b>
+   * (<code>setValue</code>, {@link #getValue()}, removals...). Changing an
+   * item in place through an array or an item obtained earlier, including
+   * the items returned here, isn't seen: the lookup may then miss the item
+   * or return one whose field no longer matches. Call {@link #getValue()}
+   * again, or {@link #indexBy(String...)} with no field, after such changes.
+   * <br/>
    * 
-   * @param objectId
-   * @return boolean
+   * @param field
+   *          A field declared with {@link #indexBy(String...)}
+   * @param value
+   * @return the first item whose <code>field</code> equals
+   *         <code>value</code>, null if none
    */
-  public boolean exists(String objectId)//
-      throws Exceptions.MalformedSearchableNodeException {
-    JSONObject currentObject;
-    String currentObjectId = null;
-
-    for (int i = 0; i < this.value.length(); i++) {
-      currentObject = this.value.getJSONObject(i);
+  public JSONObject findBy(String field, Object value) {
 
-      try {
-        if (currentObject.has(Constants.NODE_ID_PROPERTY)) {
-          currentObjectId = JSON.getId(currentObject);
-        }
-      } catch (Exceptions.MalformedStrongTypedNodeException e) {
-        throw new Exceptions.MalformedSearchableNodeException(
-            "Searchable Object's <" + Constants.NODE_ID_PROPERTY
-                + "> property value must be valid");
-      }
+    final Positions positions = indexes().find(field, value);
+    return positions.size > 0 ? this.value.getJSONObject(positions.items[0]) : null;
+  }
 
-      if (currentObjectId == null || currentObjectId.isEmpty()) {
-        throw new Exceptions.MalformedSearchableNodeException(
-            "Searchable Object's <" + Constants.NODE_ID_PROPERTY
-                + "> property value must be valid");
-      }
+  /**
+   * Looks <code>value</code> up in the index of <code>field</code>, see
+   * {@link #findBy(String, Object)} for when the index goes stale.
+   * 
+   * @param field
+   *          A field declared with {@link #indexBy(String...)}
+   * @param value
+   * @return the items whose <code>field</code> equals <code>value</code>, in
+   *         collection order
+   */
+  public List<JSONObject> findAllBy(String field, Object value) {
 
-      if (objectId.equals(currentObjectId)) {
-        return true;
-      }
+    final Positions positions = indexes().find(field, value);
+    final List<JSONObject> result = new ArrayList<>(positions.size);
+    for (int i = 0; i < positions.size; i++) {
+      result.add(this.value.getJSONObject(positions.items[i]));
+    }
+    return result;
+  }
+
+  /**
+   * Compares this collection with a previous version of it in a single pass,
+   * neither collection is changed.
+   * 
+   * @param oldValues
+   *          Previous version of this collection
+   * @return the added, unknown, unchanged, modified and removed items
+   * @throws Exceptions.MalformedStrongTypedNodeException
+   *           if an old item has no id
+   */
+  public JSONCollectionDiff diff(JSONCollection oldValues)//
+      throws Exceptions.MalformedStrongTypedNodeException {
+
+    return JSONCollectionDiff.of(this.value, oldValues.value);
+  }
+
+  public JSONCollection generateNewItemsIdentifier() {
+    JSONCollection items = this
+        .findItemsWithoutProperty(Constants.NODE_ID_PROPERTY);
+
+    for (int i = 0; i < items.value.length(); i++) {
+      items.value.getJSONObject(i).put(Constants.NODE_ID_PROPERTY,
+          UUID.randomUUID());
+    }
+
+    this.ids = null;
+    if (this.indexes != null) {
+      this.indexes.invalidate();
+    }
+    return this;
+  }
+
+  /**
+   * Looks <code>objectId</code> up in an index of the item ids, built on first
+   * use.<br/>
+   * <b>The index is only rebuilt when the collection itself changes</b>
+   * (<code>setValue</code>, {@link #getValue()}, removals...) or when the item
+   * it finds for <code>objectId</code> no longer carries that id. An id set
+   * in place on another item, through the input array or an item obtained
+   * earlier (<code>query</code>, <code>findBy</code>...), isn't seen: the
+   * lookup may then answer false for it. Call {@link #getValue()} again after
+   * such changes.
+   * 
+   * @param objectId
+   * @return boolean
+   */
+  public boolean exists(String objectId)//
+      throws Exceptions.MalformedSearchableNodeException {
+
+    final IdIndex index = ids(objectId);
+    final int position = index.position(objectId);
+
+    // a scan in collection order fails on the first item without a usable id:
+    // the first item without an id, or any item with an empty id
+    final int firstInvalid = Math.min(index.firstWithoutId == 0 ? 0 : Integer.MAX_VALUE,
+        index.firstWithEmptyId >= 0 ? index.firstWithEmptyId : Integer.MAX_VALUE);
+
+    if (firstInvalid <= (position >= 0 ? position : this.value.length() - 1)) {
+      throw new Exceptions.MalformedSearchableNodeException(
+          "Searchable Object's <" + Constants.NODE_ID_PROPERTY
+              + "> property value must be valid");
     }
 
-    return false;
+    return position >= 0;
   }
 
   public JSONCollection enforceActive()//
@@ -362,38 +810,14 @@ public class JSONCollection implements Serializable {
       throws Exceptions.InvalidDataTypeException,//
       Exceptions.MalformedStrongTypedNodeException {
 
-    JSONArray result = new JSONArray();
-
-    for (int i = 0; i < this.value.length(); i++) {
-      {
-        if ((ignores != null && Arrays.asList(ignores).contains(
-            JSON.getId(this.value.getJSONObject(i))))
-            || JSON.isActive(this.value.getJSONObject(i))) {
-          result.put(this.value.getJSONObject(i));
-        }
-      }
-
-    }
-
-    this.value = result;
-    return this;
+    return enforce(new StateFilter().active().ignoring(ignores));
   }
 
   public JSONCollection enforceNotDeleted(String... ignores)//
       throws Exceptions.InvalidDataTypeException,//
       Exceptions.MalformedStrongTypedNodeException {
-    JSONArray result = new JSONArray();
 
-    for (int i = 0; i < this.value.length(); i++) {
-      if ((ignores != null && Arrays.asList(ignores).contains(
-          JSON.getId(this.value.getJSONObject(i))))
-          || !JSON.isDeleted(this.value.getJSONObject(i))) {
-        result.put(this.value.getJSONObject(i));
-      }
-    }
-
-    this.value = result;
-    return this;
+    return enforce(new StateFilter().notDeleted().ignoring(ignores));
   }
 
   /**
@@ -406,13 +830,31 @@ public class JSONCollection implements Serializable {
       throws Exceptions.InvalidDataTypeException,//
       Exceptions.MalformedStrongTypedNodeException {
 
-    JSONArray result = new JSONArray();
+    return enforce(new StateFilter().visible().ignoring(ignores));
+  }
 
+  /**
+   * Updates current value (JSONArray) suppressing the objects
+   * <code>filter</code> drops, in a single pass.<br/>
+   * The exception thrown is the one of the first item whose state can't be
+   * read.
+   * 
+   * @param filter
+   * @return JSONCollection
+   * @throws Exceptions.InvalidDataTypeException
+   * @throws Exceptions.MalformedStrongTypedNodeException
+   */
+  public JSONCollection enforce(StateFilter filter)//
+      throws Exceptions.InvalidDataTypeException,//
+      Exceptions.MalformedStrongTypedNodeException {
+
+    final JSONArray result = new JSONArray();
+
+    JSONObject object;
     for (int i = 0; i < this.value.length(); i++) {
-      if ((ignores != null && Arrays.asList(ignores).contains(
-          JSON.getId(this.value.getJSONObject(i))))
-          || JSON.isVisible(this.value.getJSONObject(i))) {
-        result.put(this.value.getJSONObject(i));
+      object = this.value.getJSONObject(i);
+      if (filter.keeps(object)) {
+        result.put(object);
       }
     }
 
@@ -436,6 +878,9 @@ public class JSONCollection implements Serializable {
       Exceptions.MinValueExpectationFailedException,//
       Exceptions.MaxValueExpectationFailedException {
 
+    if (this.indexes != null) {
+      this.indexes.invalidate();
+    }
     try {
       for (int i = 0; i < this.value.length(); i++) {
         JSON.enforceSchema(atomicSchema, this.value.getJSONObject(i));
@@ -468,7 +913,261 @@ public class JSONCollection implements Serializable {
     return this;
   }
 
+  /**
+   * Same as {@link #enforceSchema(JSONObject)}, enforcing chunks of items
+   * concurrently on <code>executor</code> (e.g.
+   * <code>ForkJoinPool.commonPool()</code>), sequentially in the calling
+   * thread for collections smaller than {@link #PARALLEL_THRESHOLD} or without
+   * an executor.<br/>
+   * The calling thread runs chunks as well, so it may be a thread of
+   * <code>executor</code> itself.<br/>
+   * The exception thrown is the one of the first failing item, as
+   * sequentially, but items after it may have been enforced as well.
+   * 
+   * @param atomicSchema
+   *          The schema to be enforced in the current collection
+   * @param executor
+   *          Runs the chunks, may be null
+   * @return JSONCollection
+   */
+  public JSONCollection enforceSchema(JSONObject atomicSchema, Executor executor)//
+      throws Exceptions.UnknownDataTypeException, //
+      Exceptions.MandatoryValueExpectationFailedException,//
+      Exceptions.InvalidDataTypeException,//
+      Exceptions.MalformedStrongTypedNodeException,//
+      Exceptions.NumberPrecisionExpectationFailedException,//
+      Exceptions.MinValueExpectationFailedException,//
+      Exceptions.MaxValueExpectationFailedException {
+
+    if (this.indexes != null) {
+      this.indexes.invalidate();
+    }
+    Throwable failure;
+    try {
+      // compiled, so that items never share nodes of the schema across threads
+      final CompiledSchema schema = new CompiledSchema(atomicSchema);
+      failure = Parallel.forEach(this.value, executor, new Parallel.Task() {
+
+        @Override
+        public void run(JSONObject item)
+          throws Exception {
+          JSON.enforceSchemaCompiled(schema, item);
+        }
+      });
+    } catch (JSONException e) {
+      failure = e;
+    }
+
+    if (failure instanceof JSONException) {
+      // default to an array of one element with an empty schema
+      this.value = new JSONArray();
+      this.value.put(atomicSchema);
+    } else if (failure != null) {
+      Parallel.rethrow(failure, Exceptions.MalformedStrongTypedNodeException.class);
+      throw Parallel.unexpected(failure);
+    }
+
+    return this;
+  }
+
+  /**
+   * Same as {@link #checkConstraints()}, checking chunks of items
+   * concurrently on <code>executor</code> (e.g.
+   * <code>ForkJoinPool.commonPool()</code>), sequentially in the calling
+   * thread for collections smaller than {@link #PARALLEL_THRESHOLD} or without
+   * an executor.<br/>
+   * The calling thread runs chunks as well, so it may be a thread of
+   * <code>executor</code> itself.<br/>
+   * The exception thrown is the one of the first failing item, as
+   * sequentially.
+   * 
+   * @param executor
+   *          Runs the chunks, may be null
+   */
+  public JSONCollection checkConstraints(Executor executor)//
+      throws Exceptions.UnknownDataTypeException,//
+      Exceptions.MandatoryValueExpectationFailedException,//
+      Exceptions.InvalidDataTypeException, //
+      Exceptions.MalformedStrongTypedNodeException,//
+      Exceptions.NumberPrecisionExpectationFailedException,//
+      Exceptions.MinValueExpectationFailedException, //
+      Exceptions.MaxValueExpectationFailedException,
+      Exceptions.InvalidEmptyObjectException {
+
+    final Throwable failure = Parallel.forEach(this.value, executor, new Parallel.Task() {
+
+      @Override
+      public void run(JSONObject item)
+        throws Exception {
+        JSON.checkTypeConstraints(item);
+      }
+    });
+
+    if (failure != null) {
+      Parallel.rethrow(failure, Exceptions.UnknownDataTypeException.class);
+      Parallel.rethrow(failure, Exceptions.MandatoryValueExpectationFailedException.class);
+      Parallel.rethrow(failure, Exceptions.InvalidDataTypeException.class);
+      Parallel.rethrow(failure, Exceptions.MalformedStrongTypedNodeException.class);
+      Parallel.rethrow(failure, Exceptions.NumberPrecisionExpectationFailedException.class);
+      Parallel.rethrow(failure, Exceptions.MinValueExpectationFailedException.class);
+      Parallel.rethrow(failure, Exceptions.MaxValueExpectationFailedException.class);
+      Parallel.rethrow(failure, Exceptions.InvalidEmptyObjectException.class);
+      throw Parallel.unexpected(failure);
+    }
+
+    return this;
+  }
+
+  /**
+   * @return a deeply immutable copy of the items, to be read by many threads
+   *         without locking. Later changes to this collection aren't seen by
+   *         it
+   */
+  public JSONSnapshot snapshot() {
+
+    return JSONSnapshot.of(this.value);
+  }
+
+  /**
+   * Runs <code>query</code> over the items, in one pass.<br/>
+   * The current collection isn't changed, the result shares its items (or
+   * their values, with a projection).
+   * 
+   * @param query
+   * @return a new collection with the items found
+   */
+  public JSONCollection query(JSONQuery query) {
+
+    final JSONCollection result = new JSONCollection();
+    result.value = query.apply(this.value);
+    return result;
+  }
+
+  /**
+   * Checks every item of <code>jsonCollection</code> as
+   * {@link #JSONCollection(JSONObject, JSONArray)} would, reporting all the
+   * violations of all the items instead of throwing on the first one.<br/>
+   * Items aren't changed, the schema is enforced on copies of them.
+   * Uniqueness isn't checked, it depends on the whole collection and is
+   * enforced when the collection is built.
+   * 
+   * @param atomicSchema
+   *          The schema of each item, may be null
+   * @param jsonCollection
+   * @see JSON#validate(JSONObject, JSONObject)
+   */
+  public static ValidationResult validate(JSONObject atomicSchema, JSONArray jsonCollection) {
+
+    return validate(atomicSchema, null, jsonCollection);
+  }
+
+  /**
+   * Same as {@link #validate(JSONObject, JSONArray)} with a schema compiled
+   * ahead of time.
+   * 
+   * @param atomicSchema
+   *          The compiled schema of each item, may be null
+   * @param jsonCollection
+   */
+  public static ValidationResult validateCompiled(CompiledSchema atomicSchema, JSONArray jsonCollection) {
+
+    return validate(null, atomicSchema, jsonCollection);
+  }
+
+  private static ValidationResult validate(JSONObject atomicSchema, CompiledSchema compiled,
+      JSONArray jsonCollection) {
+
+    final ViolationHandler.Collector collector = new ViolationHandler.Collector();
+    for (int i = 0; i < jsonCollection.length(); i++) {
+      collector.at(i);
+      final Object item = jsonCollection.get(i);
+      if (item instanceof JSONObject) {
+        JSON.validate(atomicSchema, compiled, (JSONObject) item, collector);
+      } else {
+        collector.reportItem(Violation.Code.INVALID_DATA_TYPE, item);
+      }
+    }
+    return collector.result();
+  }
+
   // internal API
+  /**
+   * @return a collection holding <code>value</code> as is, with no schema
+   *         enforcement
+   */
+  static JSONCollection of(JSONArray value) {
+
+    final JSONCollection result = new JSONCollection();
+    result.value = value;
+    return result;
+  }
+
+  /**
+   * @return the items, for read-only use: unlike {@link #getValue()} the id
+   *         and field indexes are kept
+   */
+  JSONArray items() {
+
+    return this.value;
+  }
+
+  /**
+   * @return the id index of the current value, built anew: items changed in
+   *         place since the last one are seen, for operations looking up every
+   *         item anyway
+   */
+  private IdIndex freshIds() {
+
+    this.ids = new IdIndex(this.value);
+    return this.ids;
+  }
+
+  /**
+   * @return the id index of the current value, rebuilt if the value was
+   *         replaced or its length changed since it was built, or if the items
+   *         it answers <code>id</code> with no longer match it
+   */
+  private IdIndex ids(String id) {
+
+    IdIndex result = this.ids;
+    if (result == null || result.array != this.value || result.length != this.value.length()
+        || !result.confirms(id)) {
+      result = new IdIndex(this.value);
+      this.ids = result;
+    }
+    return result;
+  }
+
+  /**
+   * Adds <code>fields</code> to the declared indexes, to be rebuilt on their
+   * next use or filled by the next <code>setValue</code>.
+   */
+  private void declareIndexes(String... fields) {
+
+    if (this.indexes == null) {
+      this.indexes = new FieldIndexes();
+    }
+    this.indexes.declare(fields);
+    this.indexes.invalidate();
+  }
+
+  /**
+   * @return the declared field indexes, rebuilt if stale
+   */
+  private FieldIndexes indexes() {
+
+    if (this.indexes == null) {
+      throw new IllegalStateException("No field is indexed, see indexBy");
+    }
+    if (!this.indexes.isFresh(this.value)) {
+      this.indexes.reset(this.value);
+      for (int i = 0; i < this.value.length(); i++) {
+        this.indexes.add(i, this.value.getJSONObject(i));
+      }
+    }
+    return this.indexes;
+  }
+
   JSONCollection findItemsWithoutProperty(String property) {
     JSONCollection result = new JSONCollection();
 
@@ -485,15 +1184,374 @@ public class JSONCollection implements Serializable {
 
   private void writeObject(ObjectOutputStream oos)//
       throws IOException {
-    oos.defaultWriteObject();
-    oos.writeObject(this.value.toString());
+    final JsonFrameworkMetrics metrics = JsonFrameworkMetrics.get();
+    final long start = metrics.start();
+    boolean success = false;
+    try {
+      oos.defaultWriteObject();
+      oos.writeObject(JSONBinary.FORMAT_VERSION);
+      JSONBinary.write(oos, this.value);
+      success = true;
+    } finally {
+      metrics.stop(Operation.JAVA_SERIALIZE, start, success);
+    }
   }
 
   private void readObject(ObjectInputStream ois)//
       throws ClassNotFoundException, //
       IOException, //
       JSONException {
-    ois.defaultReadObject();
-    this.value = new JSONArray((String) ois.readObject());
+    final JsonFrameworkMetrics metrics = JsonFrameworkMetrics.get();
+    final long start = metrics.start();
+    boolean success = false;
+    try {
+      ois.defaultReadObject();
+      final Object header = ois.readObject();
+      if (header instanceof String) {
+        // written before the binary format
+        this.value = KeyDictionary.parseArray((String) header);
+      } else {
+        final Object value = JSONBinary.read(ois, header);
+        this.value = JSONObject.NULL.equals(value) ? null : (JSONArray) value;
+      }
+      success = true;
+    } finally {
+      metrics.stop(Operation.JAVA_DESERIALIZE, start, success);
+    }
+  }
+
+  /**
+   * Position of each item by <code>Constants.NODE_ID_PROPERTY</code>.
+   */
+  private static final class IdIndex {
+
+    private final JSONArray array;
+    private final int length;
+    private final Map<String, Integer> positions;
+    private int firstWithoutId = -1;
+    private int firstWithEmptyId = -1;
+
+    IdIndex(JSONArray array) {
+
+      this.array = array;
+      this.length = array.length();
+      this.positions = new HashMap<>(Math.max(16, this.length * 4 / 3 + 1));
+
+      for (int i = 0; i < this.length; i++) {
+        final JSONObject object = array.getJSONObject(i);
+        final Object id = object.opt(Constants.NODE_ID_PROPERTY);
+
+        if (id == null) {
+          if (this.firstWithoutId < 0) {
+            this.firstWithoutId = i;
+          }
+        } else {
+          final String key = id.toString();
+          if (key.isEmpty() && this.firstWithEmptyId < 0) {
+            this.firstWithEmptyId = i;
+          }
+          if (!this.positions.containsKey(key)) {
+            this.positions.put(key, i);
+          }
+        }
+      }
+    }
+
+    /**
+     * Checks the items the index answers <code>id</code> with, which may have
+     * been changed in place since it was built: the item found for it and the
+     * first items without a usable id.
+     * 
+     * @return false if one of them no longer matches the index
+     */
+    boolean confirms(String id) {
+
+      final int position = position(id);
+      return (position < 0 || id.equals(idAt(position)))
+          && (this.firstWithoutId < 0 || idAt(this.firstWithoutId) == null)
+          && (this.firstWithEmptyId < 0 || "".equals(idAt(this.firstWithEmptyId)));
+    }
+
+    private String idAt(int position) {
+
+      final Object id = this.array.getJSONObject(position).opt(Constants.NODE_ID_PROPERTY);
+      return id != null ? id.toString() : null;
+    }
+
+    /**
+     * @return the position of the first item with <code>id</code>, -1 if none
+     */
+    int position(String id) {
+
+      final Integer result = this.positions.get(id);
+      return result != null ? result : -1;
+    }
+
+    /**
+     * Same as {@link #position(String)}, failing like a scan comparing
+     * <code>JSON.getId</code> of every item would.
+     */
+    int find(String id)
+      throws Exceptions.MalformedStrongTypedNodeException {
+
+      final int result = position(id);
+      if (this.firstWithoutId >= 0 && (result < 0 || this.firstWithoutId < result)) {
+        JSON.getId(this.array.getJSONObject(this.firstWithoutId));
+      }
+      return result;
+    }
+  }
+  /**
+   * Positions of the items by the value of some fields, for the array and
+   * length it was filled for.
+   */
+  private static final class FieldIndexes {
+
+    private final Map<List<String>, FieldIndex> fields = new HashMap<>();
+    private JSONArray array;
+    private int length;
+
+    void declare(String... fields) {
+
+      for (String field : fields) {
+        final String[] path = JSONPointer.parse(field);
+        if (!this.fields.containsKey(Arrays.asList(path))) {
+          this.fields.put(Arrays.asList(path), new FieldIndex(path));
+        }
+      }
+    }
+
+    boolean isFresh(JSONArray value) {
+
+      return this.array == value && this.length == value.length();
+    }
+
+    void invalidate() {
+
+      this.array = null;
+    }
+
+    void reset(JSONArray value) {
+
+      this.array = value;
+      this.length = 0;
+      for (FieldIndex field : this.fields.values()) {
+        field.positions.clear();
+      }
+    }
+
+    /**
+     * Indexes <code>item</code>, the next item of the array.
+     */
+    void add(int position, JSONObject item) {
+
+      for (FieldIndex field : this.fields.values()) {
+        final Object key = key(JSONQuery.resolve(item, field.path, false));
+        if (key != null) {
+          Positions positions = field.positions.get(key);
+          if (positions == null) {
+            positions = new Positions();
+            field.positions.put(key, positions);
+          }
+          positions.add(position);
+        }
+      }
+      this.length = position + 1;
+    }
+
+    Positions find(String field, Object value) {
+
+      final FieldIndex index = this.fields.get(Arrays.asList(JSONPointer.parse(field)));
+      if (index == null) {
+        throw new IllegalArgumentException("Field isn't indexed: " + field);
+      }
+      final Object key = key(value != null ? value : JSONObject.NULL);
+      final Positions result = key != null ? index.positions.get(key) : null;
+      return result != null ? result : Positions.NONE;
+    }
+
+    /**
+     * @return the value as a hash key, numbers of equal value having equal
+     *         keys, null if it isn't indexed
+     */
+    private static Object key(Object value) {
+
+      if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+        return ((Number) value).longValue();
+      } else if (value instanceof Double || value instanceof Float) {
+        final double number = ((Number) value).doubleValue();
+        final long integral = (long) number;
+        // 2^63 is saturated to Long.MAX_VALUE
+        return integral == number && integral != Long.MAX_VALUE ? (Object) integral : (Object) number;
+      } else if (value instanceof JSONObject || value instanceof JSONArray) {
+        return null;
+      }
+      return value;
+    }
+  }
+
+  private static final class FieldIndex {
+
+    private final String[] path;
+    private final Map<Object, Positions> positions = new HashMap<>();
+
+    FieldIndex(String[] path) {
+
+      this.path = path;
+    }
+  }
+
+  private static final class Positions {
+
+    static final Positions NONE = new Positions();
+
+    private int[] items = new int[1];
+    private int size;
+
+    void add(int position) {
+
+      if (this.size == this.items.length) {
+        this.items = Arrays.copyOf(this.items, this.size * 2);
+      }
+      this.items[this.size++] = position;
+    }
+  }
+
+  /**
+   * Runs a task on every item of an array, in chunks on an executor.
+   */
+  private static final class Parallel {
+
+    private static final int MINIMUM_CHUNK = 1024;
+
+    interface Task {
+
+      void run(JSONObject item)
+        throws Exception;
+    }
+
+    private Parallel() {
+    }
+
+    /**
+     * Runs <code>task</code> on each item, stopping at the first failure of
+     * each chunk.<br/>
+     * Chunks are claimed from a shared cursor by the calling thread and by the
+     * workers given to <code>executor</code>, so the items are all checked
+     * even if the executor never runs a worker: a saturated pool, or a caller
+     * that is itself one of the pool threads, only costs parallelism. The
+     * caller then waits for the chunks other threads are still running.
+     * 
+     * @return the failure of the lowest failing item, null if none failed
+     */
+    static Throwable forEach(final JSONArray items, Executor executor, final Task task) {
+
+      final int length = items.length();
+      if (executor == null || length < PARALLEL_THRESHOLD) {
+        return run(items, 0, length, task, null);
+      }
+
+      final int chunk = Math.max(MINIMUM_CHUNK,
+          length / (4 * Runtime.getRuntime().availableProcessors()) + 1);
+      final int chunks = (length + chunk - 1) / chunk;
+      final Throwable[] failures = new Throwable[chunks];
+      // lowest failing position so far, chunks after it don't need to run
+      final AtomicInteger firstFailure = new AtomicInteger(Integer.MAX_VALUE);
+      final AtomicInteger nextChunk = new AtomicInteger();
+      final CountDownLatch done = new CountDownLatch(chunks);
+
+      final Runnable worker = new Runnable() {
+
+        @Override
+        public void run() {
+          int index;
+          while ((index = nextChunk.getAndIncrement()) < chunks) {
+            try {
+              failures[index] = Parallel.run(items, index * chunk,
+                  Math.min(length, (index + 1) * chunk), task, firstFailure);
+            } finally {
+              done.countDown();
+            }
+          }
+        }
+      };
+
+      // one worker per chunk but the caller's, a worker finding no chunk left
+      // returns at once
+      for (int w = 1; w < chunks; w++) {
+        try {
+          executor.execute(worker);
+        } catch (RejectedExecutionException e) {
+          // the calling thread runs the chunks left
+          break;
+        }
+      }
+      worker.run();
+
+      boolean interrupted = false;
+      while (true) {
+        try {
+          done.await();
+          break;
+        } catch (InterruptedException e) {
+          interrupted = true;
+        }
+      }
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+
+      for (Throwable failure : failures) {
+        if (failure != null) {
+          return failure;
+        }
+      }
+      return null;
+    }
+
+    private static Throwable run(JSONArray items, int from, int to, Task task,
+        AtomicInteger firstFailure) {
+
+      for (int i = from; i < to; i++) {
+        if (firstFailure != null && firstFailure.get() < from) {
+          // an earlier chunk failed, this one's outcome doesn't matter
+          return null;
+        }
+
+        try {
+          task.run(items.getJSONObject(i));
+        } catch (Exception | Error e) {
+          if (firstFailure != null) {
+            int current;
+            do {
+              current = firstFailure.get();
+            } while (i < current && !firstFailure.compareAndSet(current, i));
+          }
+          return e;
+        }
+      }
+      return null;
+    }
+
+    /**
+     * Throws <code>failure</code> if it is a <code>type</code>, a runtime
+     * exception or an error.
+     */
+    static <E extends Exception> void rethrow(Throwable failure, Class<E> type)
+      throws E {
+
+      if (type.isInstance(failure)) {
+        throw type.cast(failure);
+      } else if (failure instanceof RuntimeException) {
+        throw (RuntimeException) failure;
+      } else if (failure instanceof Error) {
+        throw (Error) failure;
+      }
+    }
+
+    static IllegalStateException unexpected(Throwable failure) {
+
+      return new IllegalStateException("Unexpected failure", failure);
+    }
   }
 }
@@ -0,0 +1,192 @@
+/**
+ * Copyright (C) Bikeemotion
+ * 2014
+ *
+ * The reproduction, transmission or use of this document or its contents is not
+ * permitted without express written authorization. All rights, including rights
+ * created by patent grant or registration of a utility model or design, are
+ * reserved. Modifications made to this document are restricted to authorized
+ * personnel only. Technical specifications and features are binding only when
+ * specifically and expressly agreed upon in a written contract.
+ */
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.bikeemotion.json;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Items of a collection compared with a previous version of it, joined by
+ * <code>Constants.NODE_ID_PROPERTY</code>.<br/>
+ * <ul>
+ * <li><code>added</code>: new items without an id</li>
+ * <li><code>unknown</code>: new items with an id the old collection doesn't
+ * have</li>
+ * <li><code>unchanged</code> / <code>modified</code>: new items with the id of
+ * an old item, structurally equal to it or not</li>
+ * <li><code>removed</code>: old items whose id no new item has</li>
+ * </ul>
+ * Lists keep collection order and can't be modified, the items are the ones
+ * of the compared collections (not copies).
+ */
+public final class JSONCollectionDiff {
+
+  private final List<JSONObject> added;
+  private final List<JSONObject> unknown;
+  private final List<JSONObject> unchanged;
+  private final List<JSONObject> modified;
+  private final List<JSONObject> removed;
+  private final Map<JSONObject, JSONObject> previous;
+
+  private JSONCollectionDiff(List<JSONObject> added, List<JSONObject> unknown,
+      List<JSONObject> unchanged, List<JSONObject> modified,
+      List<JSONObject> removed, Map<JSONObject, JSONObject> previous) {
+
+    this.added = Collections.unmodifiableList(added);
+    this.unknown = Collections.unmodifiableList(unknown);
+    this.unchanged = Collections.unmodifiableList(unchanged);
+    this.modified = Collections.unmodifiableList(modified);
+    this.removed = Collections.unmodifiableList(removed);
+    this.previous = previous;
+  }
+
+  /**
+   * @param current
+   *          Items of the new version
+   * @param old
+   *          Items of the previous version
+   * @return the differences from <code>old</code> to <code>current</code>
+   * @throws Exceptions.MalformedStrongTypedNodeException
+   *           if an old item has no id
+   */
+  static JSONCollectionDiff of(JSONArray current, JSONArray old)//
+      throws Exceptions.MalformedStrongTypedNodeException {
+
+    final Map<String, JSONObject> oldById = new HashMap<>(Math.max(16, old.length() * 4 / 3 + 1));
+    for (int i = 0; i < old.length(); i++) {
+      final JSONObject object = old.getJSONObject(i);
+      final String id = JSON.getId(object);
+      if (!oldById.containsKey(id)) {
+        oldById.put(id, object);
+      }
+    }
+
+    final List<JSONObject> added = new ArrayList<>();
+    final List<JSONObject> unknown = new ArrayList<>();
+    final List<JSONObject> unchanged = new ArrayList<>();
+    final List<JSONObject> modified = new ArrayList<>();
+    final Map<JSONObject, JSONObject> previous = new IdentityHashMap<>();
+    final Set<String> seen = new HashSet<>();
+
+    for (int i = 0; i < current.length(); i++) {
+      final JSONObject object = current.getJSONObject(i);
+
+      if (!JSON.isPropertyAvailable(object, Constants.NODE_ID_PROPERTY)) {
+        added.add(object);
+        continue;
+      }
+
+      final String id = JSON.getId(object);
+      final JSONObject oldObject = oldById.get(id);
+      if (oldObject == null) {
+        unknown.add(object);
+      } else {
+        seen.add(id);
+        previous.put(object, oldObject);
+        if (JSON.similar(object, oldObject)) {
+          unchanged.add(object);
+        } else {
+          modified.add(object);
+        }
+      }
+    }
+
+    final List<JSONObject> removed = new ArrayList<>();
+    for (int i = 0; i < old.length(); i++) {
+      final JSONObject object = old.getJSONObject(i);
+      if (!seen.contains(JSON.getId(object))) {
+        removed.add(object);
+      }
+    }
+
+    return new JSONCollectionDiff(added, unknown, unchanged, modified, removed, previous);
+  }
+
+  /**
+   * @return new items without an id
+   */
+  public List<JSONObject> getAdded() {
+    return this.added;
+  }
+
+  /**
+   * @return new items with an id not found in the old collection
+   */
+  public List<JSONObject> getUnknown() {
+    return this.unknown;
+  }
+
+  /**
+   * @return new items structurally equal to the old item with the same id
+   */
+  public List<JSONObject> getUnchanged() {
+    return this.unchanged;
+  }
+
+  /**
+   * @return new items different from the old item with the same id
+   */
+  public List<JSONObject> getModified() {
+    return this.modified;
+  }
+
+  /**
+   * @return old items with an id not found in the new collection
+   */
+  public List<JSONObject> getRemoved() {
+    return this.removed;
+  }
+
+  /**
+   * @param item
+   *          An unchanged or modified item
+   * @return the old item with the same id, null for any other item
+   */
+  public JSONObject getPrevious(JSONObject item) {
+    return this.previous.get(item);
+  }
+
+  /**
+   * @return true if nothing was added, modified or removed
+   */
+  public boolean isEmpty() {
+    return this.added.isEmpty() && this.unknown.isEmpty()
+        && this.modified.isEmpty() && this.removed.isEmpty();
+  }
+
+  @Override
+  public String toString() {
+    return "{added:" + this.added.size() + ", unknown:" + this.unknown.size()
+        + ", unchanged:" + this.unchanged.size() + ", modified:"
+        + this.modified.size() + ", removed:" + this.removed.size() + "}";
+  }
+}
@@ -23,6 +23,7 @@
  */
 package com.bikeemotion.json;
 
+import com.bikeemotion.json.JsonFrameworkMetrics.Operation;
 import java.io.IOException;
 
 import org.json.JSONObject;
@@ -31,15 +32,26 @@ import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.DeserializationContext;
 import com.fasterxml.jackson.databind.JsonDeserializer;
-import com.fasterxml.jackson.databind.JsonNode;
 
+/**
+ * Builds the object straight from the parser tokens, with the value types
+ * <code>new JSONObject(String)</code> would give the same text.
+ */
 public class JSONObjectDeserializer extends JsonDeserializer<JSONObject> {
   @Override
   public JSONObject deserialize(JsonParser jp, DeserializationContext ctxt)
       throws IOException, JsonProcessingException {
-    JsonNode node = jp.getCodec().readTree(jp);
 
-    return new JSONObject(node.toString());
+    final JsonFrameworkMetrics metrics = JsonFrameworkMetrics.get();
+    final long start = metrics.start();
+    boolean success = false;
+    try {
+      final JSONObject result = JSONTokenReader.LENIENT.readObject(jp);
+      success = true;
+      return result;
+    } finally {
+      metrics.stop(Operation.DESERIALIZE, start, success);
+    }
   }
 
 }
@@ -23,57 +23,32 @@
  */
 package com.bikeemotion.json;
 
+import com.bikeemotion.json.JsonFrameworkMetrics.Operation;
 import java.io.IOException;
 
-import org.json.JSONArray;
 import org.json.JSONObject;
 
 import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.JsonSerializer;
 import com.fasterxml.jackson.databind.SerializerProvider;
 
+/**
+ * Writes numbers, booleans and nulls natively, so it works the same with text
+ * and binary (Smile, CBOR...) generators.
+ */
 public class JSONObjectSerializer extends JsonSerializer<JSONObject> {
 
   @Override
   public void serialize(JSONObject value, JsonGenerator jsonGenerator,
       SerializerProvider provider) throws IOException {
-    jsonGenerator.writeStartObject();
-    constructObject(value, jsonGenerator);
-    jsonGenerator.writeEndObject();
-  }
-
-  private void constructObject(JSONObject object, JsonGenerator jsonGenerator)
-      throws IOException {
-    for (String key : JSONObject.getNames(object)) {
-      Object value = object.get(key);
-
-      if (value instanceof JSONObject) {
-        jsonGenerator.writeFieldName(key);
-        jsonGenerator.writeStartObject();
-        constructObject(object.getJSONObject(key), jsonGenerator);
-        jsonGenerator.writeEndObject();
-      } else if (value instanceof JSONArray) {
-        JSONArray array = object.getJSONArray(key);
-
-        jsonGenerator.writeFieldName(key);
-        jsonGenerator.writeStartArray();
-        for (int i = 0; i < array.length(); i++) {
-          jsonGenerator.writeStartObject();
-          constructObject(array.getJSONObject(i), jsonGenerator);
-          jsonGenerator.writeEndObject();
-        }
-        jsonGenerator.writeEndArray();
-      } else {
-        if (value instanceof Integer) {
-          jsonGenerator.writeNumberField(key, (Integer) value);
-        } else if (value instanceof Double) {
-          jsonGenerator.writeNumberField(key, (Double) value);
-        } else if (value instanceof Long) {
-          jsonGenerator.writeNumberField(key, (Long) value);
-        } else {
-          jsonGenerator.writeStringField(key, value.toString());
-        }
-      }
+    final JsonFrameworkMetrics metrics = JsonFrameworkMetrics.get();
+    final long start = metrics.start();
+    boolean success = false;
+    try {
+      JSONTokenWriter.NATIVE.writeObject(jsonGenerator, value);
+      success = true;
+    } finally {
+      metrics.stop(Operation.SERIALIZE, start, success);
     }
   }
 
@@ -0,0 +1,87 @@
+/**
+ * Copyright (C) Bikeemotion
+ * 2014
+ *
+ * The reproduction, transmission or use of this document or its contents is not
+ * permitted without express written authorization. All rights, including rights
+ * created by patent grant or registration of a utility model or design, are
+ * reserved. Modifications made to this document are restricted to authorized
+ * personnel only. Technical specifications and features are binding only when
+ * specifically and expressly agreed upon in a written contract.
+ */
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.bikeemotion.json;
+
+import java.util.Arrays;
+
+/**
+ * Mutable stack of property names locating the node being validated.<br/>
+ * Rendered as a JSON pointer (RFC 6901) only when a violation is reported, so
+ * that walking valid documents doesn't serialize anything.
+ */
+final class JSONPointer {
+
+  private String[] segments = new String[8];
+  private int depth;
+
+  JSONPointer push(String key) {
+
+    if (this.depth == this.segments.length) {
+      this.segments = Arrays.copyOf(this.segments, this.depth * 2);
+    }
+    this.segments[this.depth++] = key;
+    return this;
+  }
+
+  void pop() {
+
+    this.segments[--this.depth] = null;
+  }
+
+  /**
+   * @return the pointer followed by the offending <code>node</code>, the
+   *         message of the validation exceptions
+   */
+  String describe(Object node) {
+
+    return toString() + ":" + node;
+  }
+
+  /**
+   * @return the property names of <code>pointer</code>, unescaped. A pointer
+   *         not starting with <code>/</code> is taken as a single property
+   *         name
+   */
+  static String[] parse(String pointer) {
+
+    if (!pointer.startsWith("/")) {
+      return new String[] { pointer };
+    }
+    final String[] result = pointer.substring(1).split("/", -1);
+    for (int i = 0; i < result.length; i++) {
+      result[i] = result[i].replace("~1", "/").replace("~0", "~");
+    }
+    return result;
+  }
+
+  @Override
+  public String toString() {
+
+    final StringBuilder result = new StringBuilder();
+    for (int i = 0; i < this.depth; i++) {
+      result.append('/').append(this.segments[i].replace("~", "~0").replace("/", "~1"));
+    }
+    return result.toString();
+  }
+}
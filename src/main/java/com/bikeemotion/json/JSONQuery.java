@@ -0,0 +1,515 @@
+/**
+ * Copyright (C) Bikeemotion
+ * 2014
+ *
+ * The reproduction, transmission or use of this document or its contents is not
+ * permitted without express written authorization. All rights, including rights
+ * created by patent grant or registration of a utility model or design, are
+ * reserved. Modifications made to this document are restricted to authorized
+ * personnel only. Technical specifications and features are binding only when
+ * specifically and expressly agreed upon in a written contract.
+ */
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.bikeemotion.json;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Filters, orders, limits and projects the items of a collection, see
+ * {@link JSONCollection#query(JSONQuery)}.<br/>
+ * Fields are JSON pointers (RFC 6901, e.g. <code>/dimensions/weight</code>),
+ * parsed once when the query is built; a name without a leading
+ * <code>/</code> is a first level property. Strong-typed nodes are compared
+ * by their <code>Constants.NODE_CUSTOM_PROPERTY_VALUE_TAG</code>.<br/>
+ * Numbers compare by value whatever their type, values of different kinds
+ * (booleans, numbers, strings) never match a comparison, and are ordered
+ * missing first, then null, booleans, numbers, strings and objects.<br/>
+ * A query isn't thread safe while being built, it can be shared and reused
+ * once built.
+ */
+public final class JSONQuery {
+
+  private final List<Predicate> predicates = new ArrayList<>();
+  private final List<Order> orders = new ArrayList<>();
+  private final List<String[]> projection = new ArrayList<>();
+  private int limit = Integer.MAX_VALUE;
+
+  // filters
+  /**
+   * Keeps the items whose <code>field</code> equals <code>value</code>.
+   */
+  public JSONQuery equalTo(String field, Object value) {
+
+    return where(field, new Comparison(value, 0, 0));
+  }
+
+  /**
+   * Keeps the items whose <code>field</code> is greater than
+   * <code>value</code>.
+   */
+  public JSONQuery greaterThan(String field, Object value) {
+
+    return where(field, new Comparison(value, 1, 1));
+  }
+
+  /**
+   * Keeps the items whose <code>field</code> is greater than or equal to
+   * <code>value</code>.
+   */
+  public JSONQuery greaterOrEqual(String field, Object value) {
+
+    return where(field, new Comparison(value, 0, 1));
+  }
+
+  /**
+   * Keeps the items whose <code>field</code> is less than <code>value</code>.
+   */
+  public JSONQuery lessThan(String field, Object value) {
+
+    return where(field, new Comparison(value, -1, -1));
+  }
+
+  /**
+   * Keeps the items whose <code>field</code> is less than or equal to
+   * <code>value</code>.
+   */
+  public JSONQuery lessOrEqual(String field, Object value) {
+
+    return where(field, new Comparison(value, -1, 0));
+  }
+
+  /**
+   * Keeps the items whose <code>field</code> is between <code>min</code> and
+   * <code>max</code>, both included.
+   */
+  public JSONQuery between(String field, Object min, Object max) {
+
+    return greaterOrEqual(field, min).lessOrEqual(field, max);
+  }
+
+  /**
+   * Keeps the items whose <code>field</code> equals one of
+   * <code>values</code>.
+   */
+  public JSONQuery in(String field, Object... values) {
+
+    return where(field, new In(values));
+  }
+
+  /**
+   * Keeps the items having <code>field</code>, even if null.
+   */
+  public JSONQuery exists(String field) {
+
+    return where(field, new Exists(true));
+  }
+
+  /**
+   * Keeps the items without <code>field</code>.
+   */
+  public JSONQuery absent(String field) {
+
+    return where(field, new Exists(false));
+  }
+
+  // result
+  /**
+   * Orders the items by <code>field</code>, after the previous orders. Items
+   * with equal fields keep their collection order.
+   */
+  public JSONQuery orderBy(String field, boolean ascending) {
+
+    this.orders.add(new Order(JSONPointer.parse(field), ascending));
+    return this;
+  }
+
+  /**
+   * Keeps the first <code>limit</code> items, after ordering.
+   */
+  public JSONQuery limit(int limit) {
+
+    if (limit < 0) {
+      throw new IllegalArgumentException("limit must not be negative: " + limit);
+    }
+    this.limit = limit;
+    return this;
+  }
+
+  /**
+   * Keeps only <code>fields</code> in the resulting items, with their
+   * nesting. Strong-typed nodes are kept whole.<br/>
+   * Without projection the resulting items are the items of the collection,
+   * with it new objects holding the values of the collection.
+   */
+  public JSONQuery select(String... fields) {
+
+    for (String field : fields) {
+      this.projection.add(JSONPointer.parse(field));
+    }
+    return this;
+  }
+
+  /**
+   * @return true if <code>item</code> passes every filter of this query
+   */
+  public boolean matches(JSONObject item) {
+
+    for (Predicate predicate : this.predicates) {
+      if (!predicate.test(resolve(item, predicate.path, false))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  // internal API
+  /**
+   * Runs the query in one pass over <code>items</code>. Without ordering it
+   * stops at the limit, with ordering and a limit only the best items seen
+   * so far are kept.
+   */
+  JSONArray apply(JSONArray items) {
+
+    final JSONArray result = new JSONArray();
+    if (this.limit == 0) {
+      return result;
+    }
+
+    if (this.orders.isEmpty()) {
+      for (int i = 0; i < items.length() && result.length() < this.limit; i++) {
+        final JSONObject item = items.getJSONObject(i);
+        if (matches(item)) {
+          result.put(project(item));
+        }
+      }
+      return result;
+    }
+
+    final Comparator<Match> order = new Comparator<Match>() {
+
+      @Override
+      public int compare(Match a, Match b) {
+
+        for (int k = 0; k < JSONQuery.this.orders.size(); k++) {
+          final int c = compareValues(a.keys[k], b.keys[k]);
+          if (c != 0) {
+            return JSONQuery.this.orders.get(k).ascending ? c : -c;
+          }
+        }
+        return Integer.compare(a.position, b.position);
+      }
+    };
+
+    final List<Match> matches;
+    if (this.limit < items.length()) {
+      // the worst of the best items on top
+      final PriorityQueue<Match> best = new PriorityQueue<>(this.limit, Collections.reverseOrder(order));
+      for (int i = 0; i < items.length(); i++) {
+        final JSONObject item = items.getJSONObject(i);
+        if (matches(item)) {
+          best.add(new Match(i, item, keys(item)));
+          if (best.size() > this.limit) {
+            best.poll();
+          }
+        }
+      }
+      matches = new ArrayList<>(best);
+    } else {
+      matches = new ArrayList<>();
+      for (int i = 0; i < items.length(); i++) {
+        final JSONObject item = items.getJSONObject(i);
+        if (matches(item)) {
+          matches.add(new Match(i, item, keys(item)));
+        }
+      }
+    }
+
+    Collections.sort(matches, order);
+    for (Match match : matches) {
+      result.put(project(match.item));
+    }
+    return result;
+  }
+
+  private JSONQuery where(String field, Predicate predicate) {
+
+    predicate.path = JSONPointer.parse(field);
+    this.predicates.add(predicate);
+    return this;
+  }
+
+  private Object[] keys(JSONObject item) {
+
+    final Object[] result = new Object[this.orders.size()];
+    for (int k = 0; k < result.length; k++) {
+      result[k] = resolve(item, this.orders.get(k).path, false);
+    }
+    return result;
+  }
+
+  private JSONObject project(JSONObject item) {
+
+    if (this.projection.isEmpty()) {
+      return item;
+    }
+
+    final JSONObject result = new JSONObject();
+    for (String[] path : this.projection) {
+      final Object value = resolve(item, path, true);
+      if (value == null) {
+        continue;
+      }
+      JSONObject parent = result;
+      for (int i = 0; i < path.length - 1; i++) {
+        JSONObject child = parent.optJSONObject(path[i]);
+        if (child == null) {
+          child = new JSONObject();
+          parent.put(path[i], child);
+        }
+        parent = child;
+      }
+      parent.put(path[path.length - 1], value);
+    }
+    return result;
+  }
+
+  /**
+   * @return the value at <code>path</code>, the value of a strong-typed node
+   *         unless <code>raw</code>, null if missing
+   */
+  static Object resolve(JSONObject item, String[] path, boolean raw) {
+
+    Object current = item;
+    for (String key : path) {
+      if (current instanceof JSONObject) {
+        current = ((JSONObject) current).opt(key);
+      } else if (current instanceof JSONArray && isIndex(key)) {
+        current = ((JSONArray) current).opt(Integer.parseInt(key));
+      } else {
+        return null;
+      }
+    }
+
+    if (!raw && current instanceof JSONObject
+        && ((JSONObject) current).has(Constants.NODE_CUSTOM_PROPERTY_TYPE_TAG)) {
+      current = ((JSONObject) current).opt(Constants.NODE_CUSTOM_PROPERTY_VALUE_TAG);
+    }
+    return current;
+  }
+
+  private static boolean isIndex(String key) {
+
+    if (key.isEmpty() || key.length() > 9) {
+      return false;
+    }
+    for (int i = 0; i < key.length(); i++) {
+      if (key.charAt(i) < '0' || key.charAt(i) > '9') {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Orders values of different kinds by kind.
+   */
+  private static int kind(Object value) {
+
+    if (value == null) {
+      return 0;
+    } else if (JSONObject.NULL.equals(value)) {
+      return 1;
+    } else if (value instanceof Boolean) {
+      return 2;
+    } else if (value instanceof Number) {
+      return 3;
+    } else if (value instanceof String) {
+      return 4;
+    }
+    return 5;
+  }
+
+  private static int compareValues(Object a, Object b) {
+
+    final int kind = kind(a);
+    if (kind != kind(b)) {
+      return Integer.compare(kind, kind(b));
+    }
+
+    switch (kind) {
+    case 2:
+      return Boolean.compare((Boolean) a, (Boolean) b);
+    case 3:
+      return compareNumbers((Number) a, (Number) b);
+    case 4:
+      return ((String) a).compareTo((String) b);
+    default:
+      return 0;
+    }
+  }
+
+  private static int compareNumbers(Number a, Number b) {
+
+    final boolean integralA = a instanceof Integer || a instanceof Long || a instanceof Short || a instanceof Byte;
+    final boolean integralB = b instanceof Integer || b instanceof Long || b instanceof Short || b instanceof Byte;
+    final boolean floatingA = a instanceof Double || a instanceof Float;
+    final boolean floatingB = b instanceof Double || b instanceof Float;
+
+    if (integralA && integralB) {
+      return Long.compare(a.longValue(), b.longValue());
+    } else if (floatingA && floatingB || floatingA && !isFinite(a.doubleValue())
+        || floatingB && !isFinite(b.doubleValue())) {
+      final double x = a.doubleValue();
+      final double y = b.doubleValue();
+      return x < y ? -1 : (x > y ? 1 : (x == y ? 0 : Double.compare(x, y)));
+    } else if (integralA && floatingB) {
+      return Decimals.compare(a.longValue(), b.doubleValue());
+    } else if (floatingA && integralB) {
+      return -Decimals.compare(b.longValue(), a.doubleValue());
+    }
+    // e.g. BigDecimal or BigInteger operands
+    return new BigDecimal(a.toString()).compareTo(new BigDecimal(b.toString()));
+  }
+
+  private static boolean isFinite(double value) {
+
+    return !Double.isNaN(value) && !Double.isInfinite(value);
+  }
+
+  private static boolean equalValues(Object a, Object b) {
+
+    return kind(a) == 5 && kind(b) == 5 ? JSON.similar(a, b) : kind(a) == kind(b) && compareValues(a, b) == 0;
+  }
+
+  private abstract static class Predicate {
+
+    private String[] path;
+
+    abstract boolean test(Object value);
+  }
+
+  /**
+   * Passes values comparing with the operand between <code>from</code> and
+   * <code>to</code> (-1, 0 or 1).
+   */
+  private static final class Comparison extends Predicate {
+
+    private final Object operand;
+    private final int from;
+    private final int to;
+
+    Comparison(Object operand, int from, int to) {
+
+      this.operand = operand != null ? operand : JSONObject.NULL;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    boolean test(Object value) {
+
+      if (this.from == 0 && this.to == 0) {
+        return value != null && equalValues(value, this.operand);
+      }
+      if (kind(value) != kind(this.operand) || kind(value) == 5) {
+        return false;
+      }
+      final int c = Integer.signum(compareValues(value, this.operand));
+      return c >= this.from && c <= this.to;
+    }
+  }
+
+  private static final class In extends Predicate {
+
+    private final Set<String> strings = new HashSet<>();
+    private final List<Object> others = new ArrayList<>();
+
+    In(Object... values) {
+
+      for (Object value : values) {
+        if (value instanceof String) {
+          this.strings.add((String) value);
+        } else {
+          this.others.add(value != null ? value : JSONObject.NULL);
+        }
+      }
+    }
+
+    @Override
+    boolean test(Object value) {
+
+      if (value instanceof String) {
+        return this.strings.contains(value);
+      } else if (value != null) {
+        for (Object other : this.others) {
+          if (equalValues(value, other)) {
+            return true;
+          }
+        }
+      }
+      return false;
+    }
+  }
+
+  private static final class Exists extends Predicate {
+
+    private final boolean present;
+
+    Exists(boolean present) {
+
+      this.present = present;
+    }
+
+    @Override
+    boolean test(Object value) {
+
+      return (value != null) == this.present;
+    }
+  }
+
+  private static final class Order {
+
+    private final String[] path;
+    private final boolean ascending;
+
+    Order(String[] path, boolean ascending) {
+
+      this.path = path;
+      this.ascending = ascending;
+    }
+  }
+
+  private static final class Match {
+
+    private final int position;
+    private final JSONObject item;
+    private final Object[] keys;
+
+    Match(int position, JSONObject item, Object[] keys) {
+
+      this.position = position;
+      this.item = item;
+      this.keys = keys;
+    }
+  }
+}
@@ -0,0 +1,476 @@
+/**
+ * Copyright (C) Bikeemotion
+ * 2014
+ *
+ * The reproduction, transmission or use of this document or its contents is not
+ * permitted without express written authorization. All rights, including rights
+ * created by patent grant or registration of a utility model or design, are
+ * reserved. Modifications made to this document are restricted to authorized
+ * personnel only. Technical specifications and features are binding only when
+ * specifically and expressly agreed upon in a written contract.
+ */
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.bikeemotion.json;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * A frozen copy of the items of a collection, see
+ * {@link JSONCollection#snapshot()}.<br/>
+ * Deeply immutable: its arrays and objects, at any depth, throw
+ * <code>UnsupportedOperationException</code> on any change, so any number of
+ * threads can read a snapshot without locking.<br/>
+ * Changes build a new snapshot, copying the list of items but sharing the
+ * frozen items themselves. Publish them to readers with a
+ * {@link JSONSnapshotHolder}.
+ */
+public final class JSONSnapshot {
+
+  public static final JSONSnapshot EMPTY = new JSONSnapshot(new FrozenArray(Collections.emptyList()));
+
+  private final FrozenArray value;
+  private volatile Map<String, Integer> ids;
+
+  private JSONSnapshot(FrozenArray value) {
+
+    this.value = value;
+  }
+
+  // internal API
+  /**
+   * @return a snapshot of frozen copies of <code>items</code>
+   */
+  static JSONSnapshot of(JSONArray items) {
+
+    return new JSONSnapshot(freeze(items));
+  }
+
+  /**
+   * @return a frozen copy of <code>item</code>, <code>item</code> itself if
+   *         already frozen
+   */
+  static JSONObject frozen(JSONObject item) {
+
+    return freeze(item);
+  }
+
+  // public API
+  public int size() {
+
+    return this.value.length();
+  }
+
+  /**
+   * @return the frozen item at <code>index</code>
+   */
+  public JSONObject get(int index) {
+
+    return this.value.getJSONObject(index);
+  }
+
+  /**
+   * @return the frozen item with <code>id</code>, null if none
+   */
+  public JSONObject get(String id) {
+
+    final Integer position = ids().get(id);
+    return position != null ? get(position) : null;
+  }
+
+  /**
+   * @return the frozen items
+   */
+  public JSONArray getValue() {
+
+    return this.value;
+  }
+
+  /**
+   * @return a new snapshot with <code>item</code> in place of the item with
+   *         the same id, appended if there's none. A frozen copy of
+   *         <code>item</code> is taken
+   */
+  public JSONSnapshot with(JSONObject item) {
+
+    final Object id = item.opt(Constants.NODE_ID_PROPERTY);
+    final Integer position = id != null ? ids().get(id.toString()) : null;
+
+    final List<Object> items = items(this.value.length() + 1);
+    if (position != null) {
+      items.set(position, freeze(item));
+    } else {
+      items.add(freeze(item));
+    }
+    return new JSONSnapshot(new FrozenArray(items));
+  }
+
+  /**
+   * @return a new snapshot without the items with <code>id</code>
+   */
+  public JSONSnapshot without(String id) {
+
+    if (!ids().containsKey(id)) {
+      return this;
+    }
+
+    final List<Object> items = new ArrayList<>(this.value.length());
+    for (int i = 0; i < this.value.length(); i++) {
+      final Object itemId = this.value.getJSONObject(i).opt(Constants.NODE_ID_PROPERTY);
+      if (itemId == null || !itemId.toString().equals(id)) {
+        items.add(this.value.get(i));
+      }
+    }
+    return new JSONSnapshot(new FrozenArray(items));
+  }
+
+  /**
+   * Same as {@link JSONCollection#enforce(StateFilter)}.
+   * 
+   * @return a new snapshot with the items <code>filter</code> keeps
+   */
+  public JSONSnapshot enforce(StateFilter filter)
+    throws Exceptions.InvalidDataTypeException,
+    Exceptions.MalformedStrongTypedNodeException {
+
+    final List<Object> items = new ArrayList<>(this.value.length());
+    for (int i = 0; i < this.value.length(); i++) {
+      final JSONObject item = this.value.getJSONObject(i);
+      if (filter.keeps(item)) {
+        items.add(item);
+      }
+    }
+    return new JSONSnapshot(new FrozenArray(items));
+  }
+
+  /**
+   * Same as {@link JSONCollection#query(JSONQuery)}.
+   * 
+   * @return a new snapshot with the items found
+   */
+  public JSONSnapshot query(JSONQuery query) {
+
+    return of(query.apply(this.value));
+  }
+
+  /**
+   * @return a mutable copy of the items, to be changed with the
+   *         {@link JSONCollection} API and frozen again with
+   *         {@link JSONCollection#snapshot()}
+   */
+  public JSONCollection toJSONCollection() {
+
+    return JSONCollection.of(CompiledSchema.copy(this.value));
+  }
+
+  @Override
+  public String toString() {
+
+    return this.value.toString();
+  }
+
+  /**
+   * Same as {@link JSONCollection#writeTo(OutputStream)}.
+   * 
+   * @param out
+   */
+  public void writeTo(OutputStream out)
+    throws IOException {
+
+    try (JsonGenerator generator = JSONTokenReader.FACTORY.createGenerator(out,
+        JsonEncoding.UTF8)) {
+      JSONTokenWriter.ORG_JSON.writeArray(generator, this.value);
+    }
+  }
+
+  /**
+   * Same as {@link JSONCollection#writeTo(Writer)}.
+   * 
+   * @param writer
+   */
+  public void writeTo(Writer writer)
+    throws IOException {
+
+    try (JsonGenerator generator = JSONTokenReader.FACTORY.createGenerator(writer)) {
+      JSONTokenWriter.ORG_JSON.writeArray(generator, this.value);
+    }
+  }
+
+  private List<Object> items(int capacity) {
+
+    final List<Object> result = new ArrayList<>(capacity);
+    for (int i = 0; i < this.value.length(); i++) {
+      result.add(this.value.get(i));
+    }
+    return result;
+  }
+
+  /**
+   * @return the position of the first item of each id, built on first use.
+   *         Immutable, so a race only builds it twice
+   */
+  private Map<String, Integer> ids() {
+
+    Map<String, Integer> result = this.ids;
+    if (result == null) {
+      final Map<String, Integer> positions = new HashMap<>();
+      for (int i = 0; i < this.value.length(); i++) {
+        final Object id = this.value.getJSONObject(i).opt(Constants.NODE_ID_PROPERTY);
+        if (id != null && !positions.containsKey(id.toString())) {
+          positions.put(id.toString(), i);
+        }
+      }
+      result = Collections.unmodifiableMap(positions);
+      this.ids = result;
+    }
+    return result;
+  }
+
+  private static FrozenArray freeze(JSONArray array) {
+
+    if (array instanceof FrozenArray) {
+      return (FrozenArray) array;
+    }
+    final List<Object> items = new ArrayList<>(array.length());
+    for (int i = 0; i < array.length(); i++) {
+      items.add(freeze(array.get(i)));
+    }
+    return new FrozenArray(items);
+  }
+
+  private static FrozenObject freeze(JSONObject object) {
+
+    if (object instanceof FrozenObject) {
+      return (FrozenObject) object;
+    }
+    final Map<String, Object> values = new HashMap<>();
+    for (Object key : object.keySet()) {
+      values.put(KeyDictionary.canonical((String) key), freeze(object.get((String) key)));
+    }
+    return new FrozenObject(values);
+  }
+
+  private static Object freeze(Object value) {
+
+    // the frozen constructors wrap raw maps, collections, arrays and beans into
+    // mutable containers, so wrap them here to freeze them instead
+    final Object wrapped = JSONObject.wrap(value);
+    if (wrapped instanceof JSONObject) {
+      return freeze((JSONObject) wrapped);
+    } else if (wrapped instanceof JSONArray) {
+      return freeze((JSONArray) wrapped);
+    }
+    return value;
+  }
+
+  /**
+   * Filled once by the constructor, which doesn't go through the overridden
+   * methods.
+   */
+  private static final class FrozenObject extends JSONObject {
+
+    FrozenObject(Map<String, Object> values) {
+
+      super(values);
+    }
+
+    @Override
+    public JSONObject accumulate(String key, Object value) {
+      throw frozen();
+    }
+
+    @Override
+    public JSONObject append(String key, Object value) {
+      throw frozen();
+    }
+
+    @Override
+    public JSONObject increment(String key) {
+      throw frozen();
+    }
+
+    @Override
+    public JSONObject put(String key, boolean value) {
+      throw frozen();
+    }
+
+    @SuppressWarnings("rawtypes")
+    @Override
+    public JSONObject put(String key, Collection value) {
+      throw frozen();
+    }
+
+    @Override
+    public JSONObject put(String key, double value) {
+      throw frozen();
+    }
+
+    @Override
+    public JSONObject put(String key, int value) {
+      throw frozen();
+    }
+
+    @Override
+    public JSONObject put(String key, long value) {
+      throw frozen();
+    }
+
+    @SuppressWarnings("rawtypes")
+    @Override
+    public JSONObject put(String key, Map value) {
+      throw frozen();
+    }
+
+    @Override
+    public JSONObject put(String key, Object value) {
+      throw frozen();
+    }
+
+    @Override
+    public JSONObject putOnce(String key, Object value) {
+      throw frozen();
+    }
+
+    @Override
+    public JSONObject putOpt(String key, Object value) {
+      throw frozen();
+    }
+
+    @Override
+    public Object remove(String key) {
+      throw frozen();
+    }
+
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    @Override
+    public Set keySet() {
+      return Collections.unmodifiableSet(super.keySet());
+    }
+
+    @SuppressWarnings("rawtypes")
+    @Override
+    public Iterator keys() {
+      return keySet().iterator();
+    }
+  }
+
+  /**
+   * Filled once by the constructor, which doesn't go through the overridden
+   * methods.
+   */
+  private static final class FrozenArray extends JSONArray {
+
+    FrozenArray(Collection<Object> items) {
+
+      super(items);
+    }
+
+    @Override
+    public JSONArray put(boolean value) {
+      throw frozen();
+    }
+
+    @SuppressWarnings("rawtypes")
+    @Override
+    public JSONArray put(Collection value) {
+      throw frozen();
+    }
+
+    @Override
+    public JSONArray put(double value) {
+      throw frozen();
+    }
+
+    @Override
+    public JSONArray put(int value) {
+      throw frozen();
+    }
+
+    @Override
+    public JSONArray put(long value) {
+      throw frozen();
+    }
+
+    @SuppressWarnings("rawtypes")
+    @Override
+    public JSONArray put(Map value) {
+      throw frozen();
+    }
+
+    @Override
+    public JSONArray put(Object value) {
+      throw frozen();
+    }
+
+    @Override
+    public JSONArray put(int index, boolean value) {
+      throw frozen();
+    }
+
+    @SuppressWarnings("rawtypes")
+    @Override
+    public JSONArray put(int index, Collection value) {
+      throw frozen();
+    }
+
+    @Override
+    public JSONArray put(int index, double value) {
+      throw frozen();
+    }
+
+    @Override
+    public JSONArray put(int index, int value) {
+      throw frozen();
+    }
+
+    @Override
+    public JSONArray put(int index, long value) {
+      throw frozen();
+    }
+
+    @SuppressWarnings("rawtypes")
+    @Override
+    public JSONArray put(int index, Map value) {
+      throw frozen();
+    }
+
+    @Override
+    public JSONArray put(int index, Object value) {
+      throw frozen();
+    }
+
+    @Override
+    public Object remove(int index) {
+      throw frozen();
+    }
+  }
+
+  private static UnsupportedOperationException frozen() {
+
+    return new UnsupportedOperationException("Snapshots can't be changed");
+  }
+}
@@ -0,0 +1,111 @@
+/**
+ * Copyright (C) Bikeemotion
+ * 2014
+ *
+ * The reproduction, transmission or use of this document or its contents is not
+ * permitted without express written authorization. All rights, including rights
+ * created by patent grant or registration of a utility model or design, are
+ * reserved. Modifications made to this document are restricted to authorized
+ * personnel only. Technical specifications and features are binding only when
+ * specifically and expressly agreed upon in a written contract.
+ */
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.bikeemotion.json;
+
+import com.bikeemotion.core.exception.BusinessException;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Publishes the current {@link JSONSnapshot} of a shared collection.<br/>
+ * Readers call {@link #get()} and keep reading the snapshot they got, without
+ * locking; writers swap in new snapshots atomically with
+ * {@link #update(Update)}.
+ */
+public final class JSONSnapshotHolder {
+
+  /**
+   * Builds the next snapshot from the current one, without changing it.<br/>
+   * May be called again with a newer snapshot if another writer published
+   * first, so it should have no other side effect.
+   */
+  public interface Update {
+
+    JSONSnapshot apply(JSONSnapshot current)
+      throws BusinessException;
+  }
+
+  private final AtomicReference<JSONSnapshot> current;
+
+  public JSONSnapshotHolder() {
+
+    this(JSONSnapshot.EMPTY);
+  }
+
+  /**
+   * @param initial
+   *          The first published snapshot
+   */
+  public JSONSnapshotHolder(JSONSnapshot initial) {
+
+    this.current = new AtomicReference<>(initial != null ? initial : JSONSnapshot.EMPTY);
+  }
+
+  /**
+   * @return the current snapshot
+   */
+  public JSONSnapshot get() {
+
+    return this.current.get();
+  }
+
+  /**
+   * Publishes <code>snapshot</code>, replacing whatever was current.
+   * 
+   * @param snapshot
+   */
+  public void set(JSONSnapshot snapshot) {
+
+    this.current.set(snapshot != null ? snapshot : JSONSnapshot.EMPTY);
+  }
+
+  /**
+   * Publishes <code>update</code> if the current snapshot is still
+   * <code>expected</code>.
+   * 
+   * @return false if another snapshot was published meanwhile
+   */
+  public boolean compareAndSet(JSONSnapshot expected, JSONSnapshot update) {
+
+    return this.current.compareAndSet(expected, update != null ? update : JSONSnapshot.EMPTY);
+  }
+
+  /**
+   * Applies <code>update</code> to the current snapshot and publishes the
+   * result, again on the newer snapshot if another writer published first.
+   * 
+   * @param update
+   * @return the published snapshot
+   */
+  public JSONSnapshot update(Update update)
+    throws BusinessException {
+
+    while (true) {
+      final JSONSnapshot expected = this.current.get();
+      final JSONSnapshot result = update.apply(expected);
+      if (compareAndSet(expected, result)) {
+        return result != null ? result : JSONSnapshot.EMPTY;
+      }
+    }
+  }
+}
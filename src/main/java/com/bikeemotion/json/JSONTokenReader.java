@@ -0,0 +1,152 @@
+/**
+ * Copyright (C) Bikeemotion
+ * 2014
+ *
+ * The reproduction, transmission or use of this document or its contents is not
+ * permitted without express written authorization. All rights, including rights
+ * created by patent grant or registration of a utility model or design, are
+ * reserved. Modifications made to this document are restricted to authorized
+ * personnel only. Technical specifications and features are binding only when
+ * specifically and expressly agreed upon in a written contract.
+ */
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.bikeemotion.json;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import java.io.IOException;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Builds <code>org.json</code> values straight from a Jackson token stream,
+ * with the same value types a <code>JSONTokener</code> produces for the same
+ * text (numbers are read as <code>Integer</code>, <code>Long</code>,
+ * <code>Double</code> or, if none fits, <code>String</code>).
+ */
+final class JSONTokenReader {
+
+  // parsers and generators don't close the streams they're given, their
+  // owners do
+  static final JsonFactory FACTORY = new JsonFactory()
+      .disable(JsonParser.Feature.AUTO_CLOSE_SOURCE)
+      .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+
+  /**
+   * Rejects repeated keys like <code>new JSONObject(String)</code> does.
+   */
+  static final JSONTokenReader STRICT = new JSONTokenReader(true);
+
+  /**
+   * Keeps the last value of repeated keys like a Jackson tree does.
+   */
+  static final JSONTokenReader LENIENT = new JSONTokenReader(false);
+
+  private final boolean uniqueKeys;
+
+  private JSONTokenReader(boolean uniqueKeys) {
+
+    this.uniqueKeys = uniqueKeys;
+  }
+
+  /**
+   * Reads the value starting at the current token, leaving the parser on its
+   * last token.
+   */
+  Object readValue(JsonParser parser)
+    throws IOException {
+
+    final JsonToken token = parser.getCurrentToken();
+    if (token == null) {
+      throw new JSONException("A JSON value was expected");
+    }
+
+    switch (token) {
+      case START_OBJECT:
+        return readObject(parser);
+      case START_ARRAY:
+        return readArray(parser);
+      case VALUE_STRING:
+        return KeyDictionary.canonical(parser.getText());
+      case VALUE_NUMBER_INT:
+      case VALUE_NUMBER_FLOAT:
+        return JSONObject.stringToValue(parser.getText());
+      case VALUE_TRUE:
+        return Boolean.TRUE;
+      case VALUE_FALSE:
+        return Boolean.FALSE;
+      case VALUE_NULL:
+        return JSONObject.NULL;
+      default:
+        throw new JSONException("Unexpected " + token + " at "
+            + parser.getCurrentLocation());
+    }
+  }
+
+  /**
+   * Reads the object starting at the current token (or at the token
+   * following it, as Jackson deserializers may be handed).
+   */
+  JSONObject readObject(JsonParser parser)
+    throws IOException {
+
+    JsonToken token = parser.getCurrentToken();
+    if (token == JsonToken.START_OBJECT) {
+      token = parser.nextToken();
+    } else if (token != JsonToken.FIELD_NAME && token != JsonToken.END_OBJECT) {
+      throw new JSONException("A JSONObject text must begin with '{' at "
+          + parser.getCurrentLocation());
+    }
+
+    final JSONObject result = new JSONObject();
+    for (; token == JsonToken.FIELD_NAME; token = parser.nextToken()) {
+      // parsers intern field names by default, not necessarily this one
+      final String key = KeyDictionary.canonical(parser.getCurrentName());
+      parser.nextToken();
+
+      final Object value = readValue(parser);
+      if (this.uniqueKeys) {
+        result.putOnce(key, value);
+      } else {
+        result.put(key, value);
+      }
+    }
+
+    if (token != JsonToken.END_OBJECT) {
+      throw new JSONException("Expected a ',' or '}' at " + parser.getCurrentLocation());
+    }
+    return result;
+  }
+
+  /**
+   * Reads the array starting at the current token.
+   */
+  JSONArray readArray(JsonParser parser)
+    throws IOException {
+
+    if (parser.getCurrentToken() != JsonToken.START_ARRAY) {
+      throw new JSONException("A JSONArray text must start with '[' at "
+          + parser.getCurrentLocation());
+    }
+
+    final JSONArray result = new JSONArray();
+    while (parser.nextToken() != JsonToken.END_ARRAY) {
+      result.put(readValue(parser));
+    }
+    return result;
+  }
+}
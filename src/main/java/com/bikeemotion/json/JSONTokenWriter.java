@@ -0,0 +1,150 @@
+/**
+ * Copyright (C) Bikeemotion
+ * 2014
+ *
+ * The reproduction, transmission or use of this document or its contents is not
+ * permitted without express written authorization. All rights, including rights
+ * created by patent grant or registration of a utility model or design, are
+ * reserved. Modifications made to this document are restricted to authorized
+ * personnel only. Technical specifications and features are binding only when
+ * specifically and expressly agreed upon in a written contract.
+ */
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.bikeemotion.json;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Collection;
+import java.util.Map;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONString;
+import org.json.JSONTokener;
+
+/**
+ * Writes <code>org.json</code> values to a Jackson generator, text or binary
+ * (Smile, CBOR...), without building them as a <code>String</code> first.
+ */
+final class JSONTokenWriter {
+
+  /**
+   * Writes numbers the way <code>JSONObject.numberToString</code> does, so
+   * that text output is the same document as the values'
+   * <code>toString()</code>.
+   */
+  static final JSONTokenWriter ORG_JSON = new JSONTokenWriter(false);
+
+  /**
+   * Writes numbers with their own type, native numbers in binary formats.
+   */
+  static final JSONTokenWriter NATIVE = new JSONTokenWriter(true);
+
+  private final boolean nativeNumbers;
+
+  private JSONTokenWriter(boolean nativeNumbers) {
+
+    this.nativeNumbers = nativeNumbers;
+  }
+
+  void writeValue(JsonGenerator generator, Object value)
+    throws IOException {
+
+    final Object normalized = normalize(value);
+    if (normalized == null || JSONObject.NULL.equals(normalized)) {
+      generator.writeNull();
+    } else if (normalized instanceof JSONObject) {
+      writeObject(generator, (JSONObject) normalized);
+    } else if (normalized instanceof JSONArray) {
+      writeArray(generator, (JSONArray) normalized);
+    } else if (normalized instanceof String) {
+      generator.writeString((String) normalized);
+    } else if (normalized instanceof Number) {
+      writeNumber(generator, (Number) normalized);
+    } else if (normalized instanceof Boolean) {
+      generator.writeBoolean((Boolean) normalized);
+    } else {
+      generator.writeString(normalized.toString());
+    }
+  }
+
+  /**
+   * Turns the values <code>JSONObject.toString()</code> writes as json text
+   * rather than as a string into the org.json value of that text:
+   * {@link JSONString}, maps, collections and arrays. Other values are
+   * returned as is.<br/>
+   * Every form of the library's values (tokens, trees, binary) goes through
+   * it, so they agree with each other and with <code>toString()</code>.
+   */
+  static Object normalize(Object value) {
+
+    if (value instanceof JSONString) {
+      final String text = ((JSONString) value).toJSONString();
+      if (text == null) {
+        throw new JSONException("Bad value from toJSONString: null");
+      }
+      // raw values are text only, binary generators refuse them
+      return new JSONTokener(text).nextValue();
+    } else if (value instanceof Map || value instanceof Collection
+        || (value != null && value.getClass().isArray())) {
+      return JSONObject.wrap(value);
+    }
+    return value;
+  }
+
+  private void writeNumber(JsonGenerator generator, Number value)
+    throws IOException {
+
+    if (!this.nativeNumbers) {
+      generator.writeNumber(JSONObject.numberToString(value));
+    } else if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+      generator.writeNumber(value.intValue());
+    } else if (value instanceof Long) {
+      generator.writeNumber(value.longValue());
+    } else if (value instanceof Double) {
+      generator.writeNumber(value.doubleValue());
+    } else if (value instanceof Float) {
+      generator.writeNumber(value.floatValue());
+    } else if (value instanceof BigDecimal) {
+      generator.writeNumber((BigDecimal) value);
+    } else if (value instanceof BigInteger) {
+      generator.writeNumber((BigInteger) value);
+    } else {
+      generator.writeNumber(JSONObject.numberToString(value));
+    }
+  }
+
+  void writeObject(JsonGenerator generator, JSONObject object)
+    throws IOException {
+
+    generator.writeStartObject();
+    for (Object key : object.keySet()) {
+      generator.writeFieldName((String) key);
+      writeValue(generator, object.opt((String) key));
+    }
+    generator.writeEndObject();
+  }
+
+  void writeArray(JsonGenerator generator, JSONArray array)
+    throws IOException {
+
+    generator.writeStartArray();
+    for (int i = 0; i < array.length(); i++) {
+      writeValue(generator, array.opt(i));
+    }
+    generator.writeEndArray();
+  }
+}
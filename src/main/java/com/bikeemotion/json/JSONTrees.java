@@ -0,0 +1,137 @@
+/**
+ * Copyright (C) Bikeemotion
+ * 2014
+ *
+ * The reproduction, transmission or use of this document or its contents is not
+ * permitted without express written authorization. All rights, including rights
+ * created by patent grant or registration of a utility model or design, are
+ * reserved. Modifications made to this document are restricted to authorized
+ * personnel only. Technical specifications and features are binding only when
+ * specifically and expressly agreed upon in a written contract.
+ */
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.bikeemotion.json;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Iterator;
+import java.util.Map;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Converts between <code>org.json</code> values and Jackson trees node by
+ * node, without going through json text.<br/>
+ * Jackson numbers become the <code>Integer</code>, <code>Long</code>,
+ * <code>Double</code> (or <code>String</code>) org.json would parse from
+ * their text, values org.json writes as strings (UUIDs, enums...) become text
+ * nodes, and values it writes as json text (<code>JSONString</code>, maps,
+ * collections, arrays) the nodes of that text.
+ */
+public final class JSONTrees {
+
+  private static final JsonNodeFactory NODES = JsonNodeFactory.instance;
+
+  private JSONTrees() {
+  }
+
+  public static ObjectNode toObjectNode(JSONObject object) {
+
+    final ObjectNode result = NODES.objectNode();
+    for (Object key : object.keySet()) {
+      result.set((String) key, toNode(object.opt((String) key)));
+    }
+    return result;
+  }
+
+  public static ArrayNode toArrayNode(JSONArray array) {
+
+    final ArrayNode result = NODES.arrayNode();
+    for (int i = 0; i < array.length(); i++) {
+      result.add(toNode(array.opt(i)));
+    }
+    return result;
+  }
+
+  public static JSONObject toJSONObject(ObjectNode node) {
+
+    final JSONObject result = new JSONObject();
+    final Iterator<Map.Entry<String, JsonNode>> fields = node.fields();
+    while (fields.hasNext()) {
+      final Map.Entry<String, JsonNode> field = fields.next();
+      result.put(KeyDictionary.canonical(field.getKey()), toValue(field.getValue()));
+    }
+    return result;
+  }
+
+  public static JSONArray toJSONArray(ArrayNode node) {
+
+    final JSONArray result = new JSONArray();
+    for (JsonNode element : node) {
+      result.put(toValue(element));
+    }
+    return result;
+  }
+
+  private static JsonNode toNode(Object raw) {
+
+    // as the Jackson serializers write it
+    final Object value = JSONTokenWriter.normalize(raw);
+    if (value == null || JSONObject.NULL.equals(value)) {
+      return NODES.nullNode();
+    } else if (value instanceof JSONObject) {
+      return toObjectNode((JSONObject) value);
+    } else if (value instanceof JSONArray) {
+      return toArrayNode((JSONArray) value);
+    } else if (value instanceof String) {
+      return NODES.textNode((String) value);
+    } else if (value instanceof Boolean) {
+      return NODES.booleanNode((Boolean) value);
+    } else if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+      return NODES.numberNode(((Number) value).intValue());
+    } else if (value instanceof Long) {
+      return NODES.numberNode((Long) value);
+    } else if (value instanceof BigInteger) {
+      return NODES.numberNode((BigInteger) value);
+    } else if (value instanceof BigDecimal) {
+      return NODES.numberNode((BigDecimal) value);
+    } else if (value instanceof Number) {
+      return NODES.numberNode(((Number) value).doubleValue());
+    }
+    return NODES.textNode(value.toString());
+  }
+
+  private static Object toValue(JsonNode node) {
+
+    if (node.isObject()) {
+      return toJSONObject((ObjectNode) node);
+    } else if (node.isArray()) {
+      return toJSONArray((ArrayNode) node);
+    } else if (node.isTextual()) {
+      return KeyDictionary.canonical(node.textValue());
+    } else if (node.isNumber()) {
+      return JSONObject.stringToValue(node.asText());
+    } else if (node.isBoolean()) {
+      return node.booleanValue();
+    } else if (node.isNull() || node.isMissingNode()) {
+      return JSONObject.NULL;
+    }
+    // binary and POJO nodes
+    return node.asText();
+  }
+}
@@ -0,0 +1,139 @@
+/**
+ * Copyright (C) Bikeemotion
+ * 2014
+ *
+ * The reproduction, transmission or use of this document or its contents is not
+ * permitted without express written authorization. All rights, including rights
+ * created by patent grant or registration of a utility model or design, are
+ * reserved. Modifications made to this document are restricted to authorized
+ * personnel only. Technical specifications and features are binding only when
+ * specifically and expressly agreed upon in a written contract.
+ */
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.bikeemotion.json;
+
+/**
+ * Receives the time spent in the library hot paths, to be plugged into a
+ * metrics registry with {@link #set(JsonFrameworkMetrics)}.<br/>
+ * Nothing is measured while the no-op default {@link #NOOP} is installed.
+ * Implementations are called from any thread and must be thread safe.
+ */
+public abstract class JsonFrameworkMetrics {
+
+  /**
+   * Measured operations.
+   */
+  public enum Operation {
+    CHECK_TYPE_CONSTRAINTS,
+    ENFORCE_SCHEMA,
+    OVERLAY_SCHEMA,
+    ENFORCE_UNIQUENESS,
+    VALIDATE,
+    SERIALIZE,
+    DESERIALIZE,
+    JAVA_SERIALIZE,
+    JAVA_DESERIALIZE
+  }
+
+  /**
+   * Records nothing.
+   */
+  public static final JsonFrameworkMetrics NOOP = new JsonFrameworkMetrics() {
+
+    @Override
+    public void record(Operation operation, long elapsedNanos, boolean success) {
+    }
+
+    @Override
+    protected boolean isEnabled() {
+      return false;
+    }
+  };
+
+  private static volatile JsonFrameworkMetrics instance = NOOP;
+
+  /**
+   * @return the installed metrics, {@link #NOOP} by default
+   */
+  public static JsonFrameworkMetrics get() {
+    return instance;
+  }
+
+  /**
+   * Installs <code>metrics</code> for every following operation,
+   * {@link #NOOP} if null.
+   * 
+   * @param metrics
+   */
+  public static void set(JsonFrameworkMetrics metrics) {
+    instance = metrics != null ? metrics : NOOP;
+  }
+
+  /**
+   * Called once per measured operation, by
+   * {@link #record(Operation, String, long, boolean)} unless overridden.
+   * 
+   * @param operation
+   *          Measured operation
+   * @param elapsedNanos
+   *          Time spent in the operation
+   * @param success
+   *          false if the operation ended with an exception
+   */
+  public abstract void record(Operation operation, long elapsedNanos, boolean success);
+
+  /**
+   * Called once per measured operation, override to break the measures down
+   * by schema.
+   * 
+   * @param operation
+   *          Measured operation
+   * @param schema
+   *          {@link CompiledSchema#getName()} of the schema the operation ran
+   *          with, null for schemaless calls and unnamed schemas
+   * @param elapsedNanos
+   *          Time spent in the operation
+   * @param success
+   *          false if the operation ended with an exception
+   */
+  public void record(Operation operation, String schema, long elapsedNanos, boolean success) {
+    record(operation, elapsedNanos, success);
+  }
+
+  /**
+   * @return false to skip measuring altogether
+   */
+  protected boolean isEnabled() {
+    return true;
+  }
+
+  // internal API
+  /**
+   * @return the start of a measurement, to be passed to
+   *         {@link #stop(Operation, CompiledSchema, long, boolean)}
+   */
+  final long start() {
+    return isEnabled() ? System.nanoTime() : 0L;
+  }
+
+  final void stop(Operation operation, long start, boolean success) {
+    stop(operation, null, start, success);
+  }
+
+  final void stop(Operation operation, CompiledSchema schema, long start, boolean success) {
+    if (isEnabled()) {
+      record(operation, schema != null ? schema.getName() : null, System.nanoTime() - start, success);
+    }
+  }
+}
@@ -0,0 +1,152 @@
+/**
+ * Copyright (C) Bikeemotion
+ * 2014
+ *
+ * The reproduction, transmission or use of this document or its contents is not
+ * permitted without express written authorization. All rights, including rights
+ * created by patent grant or registration of a utility model or design, are
+ * reserved. Modifications made to this document are restricted to authorized
+ * personnel only. Technical specifications and features are binding only when
+ * specifically and expressly agreed upon in a written contract.
+ */
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.bikeemotion.json;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+/**
+ * Canonical instances of the names repeated across documents: the
+ * <code>Constants</code> tags and the field names of every compiled schema.
+ * <br/>
+ * Parsing through {@link #parseObject(String)} and
+ * {@link #parseArray(String)} replaces equal keys and string values with the
+ * canonical (interned) instance, so a large collection holds one copy of each
+ * name and key comparisons mostly succeed on identity.
+ */
+final class KeyDictionary {
+
+  // schemas built at runtime can't grow the dictionary forever
+  static final int MAXIMUM_SIZE = 16384;
+
+  private static final ConcurrentMap<String, String> KEYS = new ConcurrentHashMap<>();
+
+  static {
+    for (String key : new String[] {
+        Constants.NODE_ID_PROPERTY,
+        Constants.NODE_ACTIVE_PROPERTY,
+        Constants.NODE_VISIBLE_PROPERTY,
+        Constants.NODE_STATE_PROPERTY,
+        Constants.NODE_CUSTOM_PROPERTY_TYPE_TAG,
+        Constants.NODE_CUSTOM_PROPERTY_TYPE_TAG_INSTANCE_NUMBER,
+        Constants.NODE_CUSTOM_PROPERTY_TYPE_TAG_INSTANCE_STRING,
+        Constants.NODE_CUSTOM_PROPERTY_TYPE_TAG_INSTANCE_SIMPLE_STRING,
+        Constants.NODE_CUSTOM_PROPERTY_VALUE_TAG,
+        Constants.NODE_CUSTOM_PROPERTY_MANDATORY_TAG,
+        Constants.NODE_CUSTOM_PROPERTY_UNIQUE_TAG,
+        Constants.NODE_CUSTOM_PROPERTY_UNIQUE_TAG_VALUE_TAG,
+        Constants.NODE_CUSTOM_PROPERTY_UNIQUE_TAG_SCOPE_TAG,
+        Constants.NODE_CUSTOM_PROPERTY_UNIQUE_TAG_SCOPE_TAG_VALUE_TAG,
+        Constants.NODE_CUSTOM_PROPERTY_UNIQUE_TAG_MODE_TAG,
+        Constants.NODE_CUSTOM_PROPERTY_UNIQUE_TAG_MODE_TAG_INSTANCE_DISTINCT,
+        Constants.NODE_CUSTOM_PROPERTY_UNIQUE_TAG_MODE_TAG_INSTANCE_PKEY,
+        Constants.NODE_CUSTOM_PROPERTY_MIN_TAG,
+        Constants.NODE_CUSTOM_PROPERTY_MAX_TAG }) {
+      register(key);
+    }
+  }
+
+  private KeyDictionary() {
+  }
+
+  /**
+   * @return the canonical instance equal to <code>value</code>, or
+   *         <code>value</code> itself if there is none
+   */
+  static String canonical(String value) {
+
+    final String result = KEYS.get(value);
+    return result != null ? result : value;
+  }
+
+  static void register(String key) {
+
+    if (KEYS.size() < MAXIMUM_SIZE) {
+      KEYS.putIfAbsent(key, key.intern());
+    }
+  }
+
+  /**
+   * Registers every field name of <code>schema</code>, nested ones included.
+   */
+  static void register(JSONObject schema) {
+
+    final String[] names = JSONObject.getNames(schema);
+    if (names != null) {
+      for (String key : names) {
+        register(key);
+        register(schema.opt(key));
+      }
+    }
+  }
+
+  private static void register(Object value) {
+
+    if (value instanceof JSONObject) {
+      register((JSONObject) value);
+    } else if (value instanceof JSONArray) {
+      for (int i = 0; i < ((JSONArray) value).length(); i++) {
+        register(((JSONArray) value).opt(i));
+      }
+    }
+  }
+
+  /**
+   * Same as <code>new JSONObject(source)</code>, with canonical names.
+   */
+  static JSONObject parseObject(String source) {
+
+    return new JSONObject(new Tokener(source));
+  }
+
+  /**
+   * Same as <code>new JSONArray(source)</code>, with canonical names.
+   */
+  static JSONArray parseArray(String source) {
+
+    return new JSONArray(new Tokener(source));
+  }
+
+  /**
+   * Tokener handing out canonical strings, for keys (which org.json reads
+   * with <code>nextValue()</code>) and string values alike.
+   */
+  private static final class Tokener extends JSONTokener {
+
+    Tokener(String source) {
+
+      super(source);
+    }
+
+    @Override
+    public Object nextValue() {
+
+      final Object result = super.nextValue();
+      return result instanceof String ? canonical((String) result) : result;
+    }
+  }
+}
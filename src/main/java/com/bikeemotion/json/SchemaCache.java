@@ -0,0 +1,217 @@
+/**
+ * Copyright (C) Bikeemotion
+ * 2014
+ *
+ * The reproduction, transmission or use of this document or its contents is not
+ * permitted without express written authorization. All rights, including rights
+ * created by patent grant or registration of a utility model or design, are
+ * reserved. Modifications made to this document are restricted to authorized
+ * personnel only. Technical specifications and features are binding only when
+ * specifically and expressly agreed upon in a written contract.
+ */
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.bikeemotion.json;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import org.json.JSONException;
+
+/**
+ * Size-bounded cache of compiled schemas, keyed either by the schema text or
+ * by a caller-supplied schema id.<br/>
+ * The least recently used schema is evicted once the maximum size is reached.
+ * The default instance is the one used by the String-based {@link JSON} and
+ * {@link JSONCollection} constructors.
+ */
+public class SchemaCache {
+
+  public static final int DEFAULT_MAXIMUM_SIZE = 128;
+
+  private static final SchemaCache DEFAULT = new SchemaCache(DEFAULT_MAXIMUM_SIZE);
+
+  private final LinkedHashMap<Key, CompiledSchema> entries = new LinkedHashMap<>(16, 0.75f, true);
+  private int maximumSize;
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
+
+  /**
+   * @param maximumSize
+   *          Number of schemas kept, 0 disables caching
+   */
+  public SchemaCache(int maximumSize) {
+
+    setMaximumSize(maximumSize);
+  }
+
+  /**
+   * @return the process-wide instance
+   */
+  public static SchemaCache getDefault() {
+
+    return DEFAULT;
+  }
+
+  /**
+   * @param schema
+   *          String with a valid json object
+   * @return the compiled <code>schema</code>, keyed by its text
+   */
+  public CompiledSchema get(String schema)
+    throws JSONException {
+
+    return get(new Key(schema, false), schema);
+  }
+
+  /**
+   * @param schemaId
+   *          Caller-supplied id, must change whenever the schema text does
+   * @param schema
+   *          String with a valid json object, only parsed on a miss
+   * @return the compiled <code>schema</code>, keyed and named by
+   *         <code>schemaId</code>
+   */
+  public CompiledSchema get(String schemaId, String schema)
+    throws JSONException {
+
+    return get(new Key(schemaId, true), schema);
+  }
+
+  /**
+   * Drops the schema cached for the given id.
+   */
+  public synchronized void invalidate(String schemaId) {
+
+    this.entries.remove(new Key(schemaId, true));
+  }
+
+  public synchronized void clear() {
+
+    this.entries.clear();
+  }
+
+  public synchronized int size() {
+
+    return this.entries.size();
+  }
+
+  public synchronized int getMaximumSize() {
+
+    return this.maximumSize;
+  }
+
+  /**
+   * @param maximumSize
+   *          Number of schemas kept, 0 disables caching. Shrinking evicts the
+   *          least recently used schemas right away.
+   */
+  public synchronized void setMaximumSize(int maximumSize) {
+
+    if (maximumSize < 0) {
+      throw new IllegalArgumentException("maximumSize must not be negative");
+    }
+
+    this.maximumSize = maximumSize;
+    evict();
+  }
+
+  public long hitCount() {
+
+    return this.hits.get();
+  }
+
+  public long missCount() {
+
+    return this.misses.get();
+  }
+
+  public long evictionCount() {
+
+    return this.evictions.get();
+  }
+
+  // internal API
+  private CompiledSchema get(Key key, String schema) {
+
+    CompiledSchema result;
+    synchronized (this) {
+      result = this.entries.get(key);
+    }
+
+    if (result != null) {
+      this.hits.incrementAndGet();
+      return result;
+    }
+
+    this.misses.incrementAndGet();
+
+    // compiled outside the lock, a concurrent miss on the same key only costs
+    // a second compilation
+    result = new CompiledSchema(key.id ? key.value : null, schema);
+
+    synchronized (this) {
+      if (this.maximumSize > 0) {
+        final CompiledSchema existing = this.entries.get(key);
+        if (existing != null) {
+          return existing;
+        }
+        this.entries.put(key, result);
+        evict();
+      }
+    }
+
+    return result;
+  }
+
+  private void evict() {
+
+    final Iterator<Map.Entry<Key, CompiledSchema>> iterator = this.entries.entrySet().iterator();
+    while (this.entries.size() > this.maximumSize && iterator.hasNext()) {
+      iterator.next();
+      iterator.remove();
+      this.evictions.incrementAndGet();
+    }
+  }
+
+  private static final class Key {
+
+    private final String value;
+    private final boolean id;
+
+    Key(String value, boolean id) {
+
+      this.value = value;
+      this.id = id;
+    }
+
+    @Override
+    public int hashCode() {
+
+      return this.id ? ~this.value.hashCode() : this.value.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+
+      if (!(obj instanceof Key)) {
+        return false;
+      }
+      final Key other = (Key) obj;
+      return this.id == other.id && this.value.equals(other.value);
+    }
+  }
+}
@@ -0,0 +1,273 @@
+/**
+ * Copyright (C) Bikeemotion
+ * 2014
+ *
+ * The reproduction, transmission or use of this document or its contents is not
+ * permitted without express written authorization. All rights, including rights
+ * created by patent grant or registration of a utility model or design, are
+ * reserved. Modifications made to this document are restricted to authorized
+ * personnel only. Technical specifications and features are binding only when
+ * specifically and expressly agreed upon in a written contract.
+ */
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.bikeemotion.json;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * A value as {@link JSON#enforceSchemaCompiled(CompiledSchema, JSONObject)}
+ * would leave it, storing only the values explicitly set: the keys missing are
+ * read from the schema defaults, and written from them, without being copied
+ * into the value.<br/>
+ * Not a <code>JSONObject</code>, since <code>org.json</code> writes nested
+ * objects from their own fields, so it can't be put in one: use
+ * {@link #materialize()} for that.
+ */
+public final class SchemaOverlay {
+
+  private final CompiledSchema.Node node;
+  private final JSONObject value;
+
+  // where to attach the value on its first change, for an object read from
+  // the defaults
+  private SchemaOverlay parent;
+  private String key;
+
+  SchemaOverlay(CompiledSchema.Node node, JSONObject value) {
+
+    this.node = node;
+    this.value = value;
+  }
+
+  private SchemaOverlay(CompiledSchema.Node node, SchemaOverlay parent, String key) {
+
+    this(node, new JSONObject());
+    this.parent = parent;
+    this.key = key;
+  }
+
+  // public API
+  /**
+   * Objects the schema describes come back as overlays too. Other objects and
+   * arrays read from the defaults are copied into the value first, as they
+   * may be changed in place.
+   * 
+   * @return the value of <code>key</code>, null if none
+   */
+  public Object opt(String key) {
+
+    final Object result = this.value.opt(key);
+    if (result != null) {
+      return result instanceof JSONObject && describes(key)
+          ? new SchemaOverlay(this.node.nested(key), (JSONObject) result)
+          : result;
+    }
+
+    final Object schemaValue = this.node.defaultValue(key);
+    if (schemaValue instanceof JSONObject && describes(key)) {
+      return new SchemaOverlay(this.node.nested(key), this, key);
+    } else if (schemaValue instanceof JSONObject || schemaValue instanceof JSONArray) {
+      final Object copy = CompiledSchema.copy(schemaValue);
+      put(key, copy);
+      return copy;
+    }
+    return schemaValue;
+  }
+
+  /**
+   * Same as {@link #opt(String)}.
+   * 
+   * @throws JSONException
+   *           if there's no value for <code>key</code>
+   */
+  public Object get(String key) {
+
+    final Object result = opt(key);
+    if (result == null) {
+      throw new JSONException("JSONObject[" + JSONObject.quote(key) + "] not found.");
+    }
+    return result;
+  }
+
+  /**
+   * @throws JSONException
+   *           if the value of <code>key</code> isn't an object the schema
+   *           describes
+   */
+  public SchemaOverlay getOverlay(String key) {
+
+    final Object result = get(key);
+    if (!(result instanceof SchemaOverlay)) {
+      throw new JSONException("JSONObject[" + JSONObject.quote(key) + "] is not an object of the schema.");
+    }
+    return (SchemaOverlay) result;
+  }
+
+  public boolean has(String key) {
+
+    return this.value.has(key) || this.node.defaultValue(key) != null;
+  }
+
+  /**
+   * @return the keys set, then the schema keys missing
+   */
+  public Set<String> keySet() {
+
+    final Set<String> result = new LinkedHashSet<>();
+    for (Object name : this.value.keySet()) {
+      result.add((String) name);
+    }
+    final String[] names = this.node.names();
+    if (names != null) {
+      for (String name : names) {
+        result.add(name);
+      }
+    }
+    return result;
+  }
+
+  public int length() {
+
+    return keySet().size();
+  }
+
+  /**
+   * Sets the value of <code>key</code>, a null value falls back to the
+   * default.
+   * 
+   * @throws JSONException
+   *           if the schema doesn't have <code>key</code>, as
+   *           {@link JSON#enforceSchemaCompiled(CompiledSchema, JSONObject)}
+   *           would drop it
+   */
+  public SchemaOverlay put(String key, Object value) {
+
+    if (this.node.defaultValue(key) == null) {
+      throw new JSONException("JSONObject[" + JSONObject.quote(key) + "] is not in the schema.");
+    }
+
+    this.value.put(key, value);
+    if (this.parent != null) {
+      this.parent.put(this.key, this.value);
+      this.parent = null;
+    }
+    return this;
+  }
+
+  /**
+   * @return the value set for <code>key</code>, which falls back to the
+   *         default
+   */
+  public Object remove(String key) {
+
+    return this.value.remove(key);
+  }
+
+  /**
+   * @return the values explicitly set, the object to store
+   */
+  public JSONObject explicitValues() {
+
+    return this.value;
+  }
+
+  /**
+   * @return a new object with the defaults copied in, the same as the schema
+   *         enforced on the explicit values
+   */
+  public JSONObject materialize() {
+
+    return this.node.enforce(CompiledSchema.copy(this.value));
+  }
+
+  @Override
+  public String toString() {
+
+    final StringWriter writer = new StringWriter();
+    try {
+      writeTo(writer);
+    } catch (IOException e) {
+      throw new JSONException(e);
+    }
+    return writer.toString();
+  }
+
+  /**
+   * Same as {@link JSON#writeTo(OutputStream)}, the defaults written from the
+   * schema.
+   * 
+   * @param out
+   */
+  public void writeTo(OutputStream out)
+    throws IOException {
+
+    try (JsonGenerator generator = JSONTokenReader.FACTORY.createGenerator(out,
+        JsonEncoding.UTF8)) {
+      write(generator);
+    }
+  }
+
+  /**
+   * Same as {@link JSON#writeTo(Writer)}, the defaults written from the
+   * schema.
+   * 
+   * @param writer
+   */
+  public void writeTo(Writer writer)
+    throws IOException {
+
+    try (JsonGenerator generator = JSONTokenReader.FACTORY.createGenerator(writer)) {
+      write(generator);
+    }
+  }
+
+  // internal API
+  private void write(JsonGenerator generator)
+    throws IOException {
+
+    generator.writeStartObject();
+    for (String name : keySet()) {
+      generator.writeFieldName(name);
+
+      final Object nameValue = this.value.opt(name);
+      if (nameValue == null) {
+        JSONTokenWriter.ORG_JSON.writeValue(generator, this.node.defaultValue(name));
+      } else if (nameValue instanceof JSONObject && describes(name)) {
+        new SchemaOverlay(this.node.nested(name), (JSONObject) nameValue).write(generator);
+      } else {
+        JSONTokenWriter.ORG_JSON.writeValue(generator, nameValue);
+      }
+    }
+    generator.writeEndObject();
+  }
+
+  /**
+   * @return whether the object held by <code>key</code> gets the defaults of
+   *         its own schema node
+   */
+  private boolean describes(String key) {
+
+    return this.node.descends() && this.node.nested(key) != null;
+  }
+}
@@ -0,0 +1,105 @@
+/**
+ * Copyright (C) Bikeemotion
+ * 2014
+ *
+ * The reproduction, transmission or use of this document or its contents is not
+ * permitted without express written authorization. All rights, including rights
+ * created by patent grant or registration of a utility model or design, are
+ * reserved. Modifications made to this document are restricted to authorized
+ * personnel only. Technical specifications and features are binding only when
+ * specifically and expressly agreed upon in a written contract.
+ */
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.bikeemotion.json;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import org.json.JSONObject;
+
+/**
+ * Rules on the state of the items applied by
+ * {@link JSONCollection#enforce(StateFilter)} in a single pass: any
+ * combination of {@link #active()}, {@link #notDeleted()} and
+ * {@link #visible()}, with the items of {@link #ignoring(String...)} kept
+ * whatever their state.<br/>
+ * Keeps the same items as chaining <code>enforceActive</code>,
+ * <code>enforceNotDeleted</code> and <code>enforceVisible</code> with the same
+ * ignores.
+ */
+public final class StateFilter {
+
+  private boolean active;
+  private boolean notDeleted;
+  private boolean visible;
+  private Set<String> ignores;
+
+  /**
+   * Drops inactive items, see {@link JSON#isActive(JSONObject)}.
+   */
+  public StateFilter active() {
+
+    this.active = true;
+    return this;
+  }
+
+  /**
+   * Drops deleted items, see {@link JSON#isDeleted(JSONObject)}.
+   */
+  public StateFilter notDeleted() {
+
+    this.notDeleted = true;
+    return this;
+  }
+
+  /**
+   * Drops invisible items, see {@link JSON#isVisible(JSONObject)}.
+   */
+  public StateFilter visible() {
+
+    this.visible = true;
+    return this;
+  }
+
+  /**
+   * Keeps the items with these ids whatever their state. Once given, even
+   * empty, every item must have an id.
+   * 
+   * @param ids
+   *          may be null for none
+   */
+  public StateFilter ignoring(String... ids) {
+
+    if (ids != null) {
+      if (this.ignores == null) {
+        this.ignores = new HashSet<>();
+      }
+      this.ignores.addAll(Arrays.asList(ids));
+    }
+    return this;
+  }
+
+  // internal API
+  boolean keeps(JSONObject item)
+    throws Exceptions.InvalidDataTypeException,
+    Exceptions.MalformedStrongTypedNodeException {
+
+    if (this.ignores != null && this.ignores.contains(JSON.getId(item))) {
+      return true;
+    }
+    return (!this.active || JSON.isActive(item))
+        && (!this.notDeleted || !JSON.isDeleted(item))
+        && (!this.visible || JSON.isVisible(item));
+  }
+}
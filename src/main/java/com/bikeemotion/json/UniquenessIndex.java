@@ -0,0 +1,449 @@
+/**
+ * Copyright (C) Bikeemotion
+ * 2014
+ *
+ * The reproduction, transmission or use of this document or its contents is not
+ * permitted without express written authorization. All rights, including rights
+ * created by patent grant or registration of a utility model or design, are
+ * reserved. Modifications made to this document are restricted to authorized
+ * personnel only. Technical specifications and features are binding only when
+ * specifically and expressly agreed upon in a written contract.
+ */
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.bikeemotion.json;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Hash index over a collection answering the same uniqueness questions as
+ * {@link JSON#enforceUniqueness(JSONObject, JSONArray)} without scanning the
+ * whole collection for every property of every object.<br/>
+ * One index is built per unique property (and scope/mode), in a single pass,
+ * the first time that property is searched. Its keys are the property
+ * <code>value</code> and the <code>value</code> of each <code>scope</code>
+ * field (only the scope fields in <code>pkey</code> mode), deleted items are
+ * left out.<br/>
+ * The index only narrows down the items to compare, the comparison itself is
+ * still the one made by a full scan, so decisions and exceptions are the same.
+ * Items the index can't key (malformed, or values matching anything) are
+ * always compared.<br/>
+ * Items changed after the index is built must be reported with
+ * {@link #update(int)}.
+ */
+public class UniquenessIndex {
+
+  // past this, an item is simply always compared
+  private static final int MAX_KEYS_PER_ITEM = 64;
+
+  private static final Object ANY = new Object();
+
+  private final JSONArray collection;
+  private final Map<Spec, PropertyIndex> indexes = new HashMap<>();
+
+  /**
+   * @param collection
+   *          Collection in with the searches will be conducted
+   */
+  public UniquenessIndex(JSONArray collection) {
+
+    this.collection = collection;
+  }
+
+  /**
+   * Refreshes the index entries of the item at <code>position</code>, to be
+   * called whenever that item changes.
+   */
+  public void update(int position) {
+
+    for (PropertyIndex index : this.indexes.values()) {
+      index.remove(position);
+      index.add(position);
+    }
+  }
+
+  // internal API
+  JSONArray collection() {
+
+    return this.collection;
+  }
+
+  boolean isPropertyValueUnique(JSONObject searchedObject, String searchedPropertyName)
+    throws Exceptions.MalformedSearchableNodeException, Exceptions.UniqueValueUnknownScopeTypeException {
+
+    return JSON.isPropertyValueUnique(searchedObject, searchedPropertyName, this.collection,
+        candidates(searchedObject, searchedPropertyName));
+  }
+
+  /**
+   * @return the ascending positions of the items that may not be unique
+   *         against <code>searchedObject</code>, or null if every item must be
+   *         compared
+   */
+  private int[] candidates(JSONObject searchedObject, String searchedPropertyName) {
+
+    final Spec spec = Spec.of(searchedObject, searchedPropertyName);
+    if (spec == null) {
+      return null;
+    }
+
+    final List<List<Object>> keys = spec.searchedKeys(searchedObject);
+    if (keys == null) {
+      return null;
+    }
+
+    PropertyIndex index = this.indexes.get(spec);
+    if (index == null) {
+      index = new PropertyIndex(spec);
+      for (int i = 0; i < this.collection.length(); i++) {
+        index.add(i);
+      }
+      this.indexes.put(spec, index);
+    }
+
+    return index.candidates(keys);
+  }
+
+  /**
+   * Tokens two values may share if <code>JSON.arePropertiesDifferent</code>
+   * finds them equal: the value itself, or the key/value pairs of an object.
+   * 
+   * @param current
+   *          whether the value takes the <code>currentPropertyValue</code> role
+   *          of the comparison, where an empty object equals any object
+   * @return the tokens, {@link #ANY} if any object matches
+   */
+  private static Object tokens(Object value, boolean current) {
+
+    if (value == ANY) {
+      return ANY;
+    } else if (value instanceof JSONObject) {
+      final String[] names = JSONObject.getNames((JSONObject) value);
+      if (names == null) {
+        return current ? ANY : Collections.emptyList();
+      }
+
+      final List<Object> result = new ArrayList<>(names.length);
+      for (String key : names) {
+        result.add(new AbstractMap.SimpleImmutableEntry<>(key, ((JSONObject) value).get(key)));
+      }
+      return result;
+    }
+
+    return Collections.singletonList(value);
+  }
+
+  /**
+   * @return every combination of one token per component, null if there are
+   *         too many
+   */
+  private static List<List<Object>> combine(List<List<Object>> components) {
+
+    List<List<Object>> result = Collections.singletonList(Collections.emptyList());
+    for (List<Object> tokens : components) {
+      if (result.size() * tokens.size() > MAX_KEYS_PER_ITEM) {
+        return null;
+      }
+
+      final List<List<Object>> next = new ArrayList<>(result.size() * tokens.size());
+      for (List<Object> prefix : result) {
+        for (Object token : tokens) {
+          final List<Object> key = new ArrayList<>(prefix.size() + 1);
+          key.addAll(prefix);
+          key.add(token);
+          next.add(key);
+        }
+      }
+      result = next;
+    }
+    return result;
+  }
+
+  /**
+   * The uniqueness rule a searched object declares for one property.
+   */
+  private static final class Spec {
+
+    private final String property;
+    private final String[] scope;
+    private final boolean pkey;
+
+    private Spec(String property, String[] scope, boolean pkey) {
+
+      this.property = property;
+      this.scope = scope;
+      this.pkey = pkey;
+    }
+
+    /**
+     * @return the rule, null if it can't be read the way a full scan reads it
+     */
+    static Spec of(JSONObject searchedObject, String searchedPropertyName) {
+
+      final JSONObject propertyObject = searchedObject.optJSONObject(searchedPropertyName);
+      final JSONObject uniqueObject = propertyObject != null ? propertyObject
+          .optJSONObject(Constants.NODE_CUSTOM_PROPERTY_UNIQUE_TAG) : null;
+      if (uniqueObject == null) {
+        return null;
+      }
+
+      if (!uniqueObject.has(Constants.NODE_CUSTOM_PROPERTY_UNIQUE_TAG_SCOPE_TAG)) {
+        return new Spec(searchedPropertyName, null, false);
+      }
+
+      final JSONArray scopeArray = uniqueObject.optJSONArray(Constants.NODE_CUSTOM_PROPERTY_UNIQUE_TAG_SCOPE_TAG);
+      final Object mode = uniqueObject.has(Constants.NODE_CUSTOM_PROPERTY_UNIQUE_TAG_MODE_TAG)
+          ? uniqueObject.opt(Constants.NODE_CUSTOM_PROPERTY_UNIQUE_TAG_MODE_TAG)
+          : Constants.NODE_CUSTOM_PROPERTY_UNIQUE_TAG_MODE_TAG_INSTANCE_DISTINCT;
+      if (scopeArray == null
+          || !(Constants.NODE_CUSTOM_PROPERTY_UNIQUE_TAG_MODE_TAG_INSTANCE_PKEY.equals(mode)
+          || Constants.NODE_CUSTOM_PROPERTY_UNIQUE_TAG_MODE_TAG_INSTANCE_DISTINCT.equals(mode))) {
+        return null;
+      }
+
+      final String[] scope = new String[scopeArray.length()];
+      for (int i = 0; i < scope.length; i++) {
+        final JSONObject scopeItem = scopeArray.optJSONObject(i);
+        final Object field = scopeItem != null ? scopeItem
+            .opt(Constants.NODE_CUSTOM_PROPERTY_UNIQUE_TAG_SCOPE_TAG_VALUE_TAG) : null;
+        if (!(field instanceof String)) {
+          return null;
+        }
+        scope[i] = (String) field;
+      }
+
+      return new Spec(searchedPropertyName, scope,
+          Constants.NODE_CUSTOM_PROPERTY_UNIQUE_TAG_MODE_TAG_INSTANCE_PKEY.equals(mode));
+    }
+
+    /**
+     * The searched object is the <code>searchedPropertyValue</code> of the
+     * property comparison and the <code>currentPropertyValue</code> of the
+     * scope comparisons.
+     * 
+     * @return the keys to look up, null if every item must be compared
+     */
+    List<List<Object>> searchedKeys(JSONObject searchedObject) {
+
+      return keys(searchedObject, false);
+    }
+
+    /**
+     * @return the keys to store an item under, null if the item must always be
+     *         compared
+     */
+    List<List<Object>> itemKeys(JSONObject currentObject) {
+
+      return keys(currentObject, true);
+    }
+
+    private List<List<Object>> keys(JSONObject object, boolean item) {
+
+      final List<List<Object>> components = new ArrayList<>();
+
+      if (!this.pkey) {
+        final Object tokens = tokens(valueOf(object, this.property), item);
+        if (!(tokens instanceof List)) {
+          return null;
+        }
+        components.add(castTokens(tokens));
+      }
+
+      if (this.scope != null) {
+        for (String field : this.scope) {
+          final Object tokens = tokens(valueOf(object, field), !item);
+          if (!(tokens instanceof List)) {
+            return null;
+          }
+          components.add(castTokens(tokens));
+        }
+      }
+
+      return combine(components);
+    }
+
+    /**
+     * @return the strong-typed node value, {@link #ANY} if it can't be read
+     */
+    private static Object valueOf(JSONObject object, String property) {
+
+      final JSONObject node = object.optJSONObject(property);
+      return node != null && node.has(Constants.NODE_CUSTOM_PROPERTY_VALUE_TAG) ? node
+          .get(Constants.NODE_CUSTOM_PROPERTY_VALUE_TAG) : ANY;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Object> castTokens(Object tokens) {
+
+      return (List<Object>) tokens;
+    }
+
+    @Override
+    public int hashCode() {
+
+      return (this.property.hashCode() * 31 + Arrays.hashCode(this.scope)) * 31 + (this.pkey ? 1 : 0);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+
+      if (!(obj instanceof Spec)) {
+        return false;
+      }
+      final Spec other = (Spec) obj;
+      return this.pkey == other.pkey && this.property.equals(other.property)
+          && Arrays.equals(this.scope, other.scope);
+    }
+  }
+
+  private final class PropertyIndex {
+
+    private final Spec spec;
+    private final Map<List<Object>, List<Integer>> buckets = new HashMap<>();
+    private final Map<Integer, List<List<Object>>> keysByPosition = new HashMap<>();
+    // items always compared
+    private final TreeSet<Integer> residue = new TreeSet<>();
+
+    PropertyIndex(Spec spec) {
+
+      this.spec = spec;
+    }
+
+    void add(int position) {
+
+      final Object item = UniquenessIndex.this.collection.opt(position);
+      if (!(item instanceof JSONObject)) {
+        this.residue.add(position);
+        return;
+      }
+
+      final JSONObject currentObject = (JSONObject) item;
+      if (currentObject.has(Constants.NODE_STATE_PROPERTY)) {
+        final Object state = currentObject.get(Constants.NODE_STATE_PROPERTY);
+        if (!(state instanceof Integer)) {
+          this.residue.add(position);
+          return;
+        } else if (Constants.NODE_STATE_PROPERTY_INSTANCE_DELETED.equals(state)) {
+          // deleted items are never compared
+          return;
+        }
+      }
+
+      if (!currentObject.has(Constants.NODE_ID_PROPERTY)) {
+        this.residue.add(position);
+        return;
+      } else if (!currentObject.has(this.spec.property)) {
+        // items without the property are never compared
+        return;
+      } else if (Spec.valueOf(currentObject, this.spec.property) == ANY) {
+        // the scan reads the property value in every mode, pkey included, and
+        // fails on a malformed node
+        this.residue.add(position);
+        return;
+      }
+
+      final List<List<Object>> keys = this.spec.itemKeys(currentObject);
+      if (keys == null) {
+        this.residue.add(position);
+        return;
+      }
+
+      for (List<Object> key : keys) {
+        List<Integer> bucket = this.buckets.get(key);
+        if (bucket == null) {
+          bucket = new ArrayList<>(1);
+          this.buckets.put(key, bucket);
+        }
+        bucket.add(position);
+      }
+      this.keysByPosition.put(position, keys);
+    }
+
+    void remove(int position) {
+
+      this.residue.remove(position);
+
+      final List<List<Object>> keys = this.keysByPosition.remove(position);
+      if (keys != null) {
+        for (List<Object> key : keys) {
+          final List<Integer> bucket = this.buckets.get(key);
+          bucket.remove(Integer.valueOf(position));
+          if (bucket.isEmpty()) {
+            this.buckets.remove(key);
+          }
+        }
+      }
+    }
+
+    /**
+     * Merges the bucket hits with the residue, both ascending, without copying
+     * the residue.
+     */
+    int[] candidates(List<List<Object>> keys) {
+
+      int hitCount = 0;
+      for (List<Object> key : keys) {
+        final List<Integer> bucket = this.buckets.get(key);
+        if (bucket != null) {
+          hitCount += bucket.size();
+        }
+      }
+      final int[] hits = new int[hitCount];
+      hitCount = 0;
+      for (List<Object> key : keys) {
+        final List<Integer> bucket = this.buckets.get(key);
+        if (bucket != null) {
+          for (Integer position : bucket) {
+            hits[hitCount++] = position;
+          }
+        }
+      }
+      Arrays.sort(hits);
+
+      final int[] positions = new int[hits.length + this.residue.size()];
+      int length = 0;
+      int h = 0;
+      for (Integer residue : this.residue) {
+        while (h < hits.length && hits[h] <= residue) {
+          length = append(positions, length, hits[h++]);
+        }
+        length = append(positions, length, residue);
+      }
+      while (h < hits.length) {
+        length = append(positions, length, hits[h++]);
+      }
+      return length == positions.length ? positions : Arrays.copyOf(positions, length);
+    }
+
+    /**
+     * @return the new length, <code>position</code> is skipped if already last
+     */
+    private int append(int[] positions, int length, int position) {
+
+      if (length > 0 && positions[length - 1] == position) {
+        return length;
+      }
+      positions[length] = position;
+      return length + 1;
+    }
+  }
+}
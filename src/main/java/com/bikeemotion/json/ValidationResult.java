@@ -0,0 +1,67 @@
+/**
+ * Copyright (C) Bikeemotion
+ * 2014
+ *
+ * The reproduction, transmission or use of this document or its contents is not
+ * permitted without express written authorization. All rights, including rights
+ * created by patent grant or registration of a utility model or design, are
+ * reserved. Modifications made to this document are restricted to authorized
+ * personnel only. Technical specifications and features are binding only when
+ * specifically and expressly agreed upon in a written contract.
+ */
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.bikeemotion.json;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Every violation found by
+ * {@link JSON#validateCompiled(CompiledSchema, org.json.JSONObject)} or
+ * {@link JSONCollection#validateCompiled(CompiledSchema, org.json.JSONArray)},
+ * in document order.<br/>
+ * Validation goes on after a violation, skipping only the rest of the
+ * offending strong-typed node.
+ */
+public final class ValidationResult {
+
+  private final List<Violation> violations;
+
+  ValidationResult(List<Violation> violations) {
+
+    this.violations = Collections.unmodifiableList(violations);
+  }
+
+  /**
+   * @return true if no violation was found
+   */
+  public boolean isValid() {
+
+    return this.violations.isEmpty();
+  }
+
+  /**
+   * @return the violations found, can't be modified
+   */
+  public List<Violation> getViolations() {
+
+    return this.violations;
+  }
+
+  @Override
+  public String toString() {
+
+    return isValid() ? "valid" : this.violations.toString();
+  }
+}
@@ -0,0 +1,139 @@
+/**
+ * Copyright (C) Bikeemotion
+ * 2014
+ *
+ * The reproduction, transmission or use of this document or its contents is not
+ * permitted without express written authorization. All rights, including rights
+ * created by patent grant or registration of a utility model or design, are
+ * reserved. Modifications made to this document are restricted to authorized
+ * personnel only. Technical specifications and features are binding only when
+ * specifically and expressly agreed upon in a written contract.
+ */
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.bikeemotion.json;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * One problem found by
+ * {@link JSON#validateCompiled(CompiledSchema, JSONObject)} or
+ * {@link JSONCollection#validateCompiled(CompiledSchema, JSONArray)}.<br/>
+ * Carries what the matching <code>Exceptions.*</code> would have reported,
+ * without the cost of an exception: the JSON pointer (RFC 6901) of the
+ * offending node, the broken rule and the offending value.
+ */
+public final class Violation {
+
+  /**
+   * Kinds of violation, one per exception thrown by
+   * {@link JSON#checkTypeConstraints(JSONObject)}, plus
+   * {@link #SCHEMA_MISMATCH} for values the schema can't be enforced on.
+   */
+  public enum Code {
+    INVALID_EMPTY_OBJECT("object"),
+    MALFORMED_STRONG_TYPED_NODE("node"),
+    UNKNOWN_DATA_TYPE(Constants.NODE_CUSTOM_PROPERTY_TYPE_TAG),
+    INVALID_DATA_TYPE(Constants.NODE_CUSTOM_PROPERTY_TYPE_TAG),
+    MANDATORY_VALUE(Constants.NODE_CUSTOM_PROPERTY_MANDATORY_TAG),
+    NUMBER_PRECISION("precision"),
+    MIN_VALUE(Constants.NODE_CUSTOM_PROPERTY_MIN_TAG),
+    MAX_VALUE(Constants.NODE_CUSTOM_PROPERTY_MAX_TAG),
+    SCHEMA_MISMATCH("schema");
+
+    private final String rule;
+
+    private Code(String rule) {
+      this.rule = rule;
+    }
+
+    /**
+     * @return the name of the broken rule, the schema tag for the
+     *         constraints declared by a tag
+     */
+    public String getRule() {
+      return this.rule;
+    }
+  }
+
+  private final int index;
+  private final String path;
+  private final Code code;
+  private final Object value;
+  private final Object node;
+
+  Violation(int index, String path, Code code, Object value, Object node) {
+
+    this.index = index;
+    this.path = path;
+    this.code = code;
+    this.value = value;
+    this.node = node;
+  }
+
+  /**
+   * @return the position of the offending item in the validated collection,
+   *         -1 when a single object was validated
+   */
+  public int getIndex() {
+
+    return this.index;
+  }
+
+  /**
+   * @return the JSON pointer of the offending node, empty for the root
+   */
+  public String getPath() {
+
+    return this.path;
+  }
+
+  public Code getCode() {
+
+    return this.code;
+  }
+
+  /**
+   * @return the name of the broken rule
+   * @see Code#getRule()
+   */
+  public String getRule() {
+
+    return this.code.getRule();
+  }
+
+  /**
+   * @return the offending value: the strong-typed node value (or
+   *         translation) for value constraints, the node itself otherwise
+   */
+  public Object getValue() {
+
+    return this.value;
+  }
+
+  /**
+   * @return the message the matching exception would have, the path followed
+   *         by the offending node
+   */
+  public String getMessage() {
+
+    return this.path + ":" + this.node;
+  }
+
+  @Override
+  public String toString() {
+
+    return (this.index >= 0 ? "[" + this.index + "]" : "") + this.code + " " + getMessage();
+  }
+}
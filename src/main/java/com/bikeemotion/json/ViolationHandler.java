@@ -0,0 +1,143 @@
+/**
+ * Copyright (C) Bikeemotion
+ * 2014
+ *
+ * The reproduction, transmission or use of this document or its contents is not
+ * permitted without express written authorization. All rights, including rights
+ * created by patent grant or registration of a utility model or design, are
+ * reserved. Modifications made to this document are restricted to authorized
+ * personnel only. Technical specifications and features are binding only when
+ * specifically and expressly agreed upon in a written contract.
+ */
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.bikeemotion.json;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.json.JSONObject;
+
+/**
+ * Where the type constraints checks report their violations.<br/>
+ * {@link #THROWING} throws the matching <code>Exceptions.*</code> on the first
+ * one, as the checks always did; a {@link Collector} records them all and lets
+ * the checks go on with the next node.
+ */
+abstract class ViolationHandler {
+
+  static final ViolationHandler THROWING = new ViolationHandler() {
+
+    @Override
+    void report(Violation.Code code, JSONPointer path, JSONObject node, Object value)
+      throws Exceptions.UnknownDataTypeException,
+      Exceptions.MandatoryValueExpectationFailedException,
+      Exceptions.InvalidDataTypeException,
+      Exceptions.MalformedStrongTypedNodeException,
+      Exceptions.NumberPrecisionExpectationFailedException,
+      Exceptions.MinValueExpectationFailedException,
+      Exceptions.MaxValueExpectationFailedException,
+      Exceptions.InvalidEmptyObjectException {
+
+      final String message = path.describe(node);
+      switch (code) {
+      case INVALID_EMPTY_OBJECT:
+        throw new Exceptions.InvalidEmptyObjectException(message);
+      case UNKNOWN_DATA_TYPE:
+        throw new Exceptions.UnknownDataTypeException(message);
+      case INVALID_DATA_TYPE:
+        throw new Exceptions.InvalidDataTypeException(message);
+      case MANDATORY_VALUE:
+        throw new Exceptions.MandatoryValueExpectationFailedException(message);
+      case NUMBER_PRECISION:
+        throw new Exceptions.NumberPrecisionExpectationFailedException(message);
+      case MIN_VALUE:
+        throw new Exceptions.MinValueExpectationFailedException(message);
+      case MAX_VALUE:
+        throw new Exceptions.MaxValueExpectationFailedException(message);
+      default:
+        throw new Exceptions.MalformedStrongTypedNodeException(message);
+      }
+    }
+
+    @Override
+    void reportUnparsable(RuntimeException cause, JSONPointer path, JSONObject node) {
+
+      // left to the callers, JSON.setValue falls back to the schema on it
+      throw cause;
+    }
+  };
+
+  /**
+   * Reports that <code>node</code>, at <code>path</code>, breaks the rule of
+   * <code>code</code>. The checks of that node stop once it returns.
+   */
+  abstract void report(Violation.Code code, JSONPointer path, JSONObject node, Object value)
+    throws Exceptions.UnknownDataTypeException,
+    Exceptions.MandatoryValueExpectationFailedException,
+    Exceptions.InvalidDataTypeException,
+    Exceptions.MalformedStrongTypedNodeException,
+    Exceptions.NumberPrecisionExpectationFailedException,
+    Exceptions.MinValueExpectationFailedException,
+    Exceptions.MaxValueExpectationFailedException,
+    Exceptions.InvalidEmptyObjectException;
+
+  /**
+   * Reports a strong-typed node whose constraint tags can't be read, which
+   * the checks never turned into a checked exception.
+   */
+  abstract void reportUnparsable(RuntimeException cause, JSONPointer path, JSONObject node);
+
+  /**
+   * Records every violation, tagged with the position of the item being
+   * checked.
+   */
+  static final class Collector extends ViolationHandler {
+
+    private final List<Violation> violations = new ArrayList<>();
+    private int index = -1;
+
+    /**
+     * @param index
+     *          Position of the item checked next, -1 for a single object
+     */
+    void at(int index) {
+
+      this.index = index;
+    }
+
+    @Override
+    void report(Violation.Code code, JSONPointer path, JSONObject node, Object value) {
+
+      this.violations.add(new Violation(this.index, path.toString(), code, value, node));
+    }
+
+    @Override
+    void reportUnparsable(RuntimeException cause, JSONPointer path, JSONObject node) {
+
+      report(Violation.Code.MALFORMED_STRONG_TYPED_NODE, path, node, node);
+    }
+
+    /**
+     * Records an item of the collection that isn't an object at all.
+     */
+    void reportItem(Violation.Code code, Object item) {
+
+      this.violations.add(new Violation(this.index, "", code, item, item));
+    }
+
+    ValidationResult result() {
+
+      return new ValidationResult(new ArrayList<>(this.violations));
+    }
+  }
+}
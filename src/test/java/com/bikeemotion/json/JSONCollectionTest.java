@@ -13,7 +13,21 @@ package com.bikeemotion.json;
 
 import static org.testng.Assert.assertEquals;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 import com.bikeemotion.core.exception.BusinessException;
 import org.json.JSONArray;
@@ -1362,6 +1376,37 @@ public class JSONCollectionTest {
     Assert.assertEquals(res.getValue().length(), 2);
   }
 
+  @Test
+  public void test_suppress_with_state_filter()
+    throws Exception {
+    final String values = "" //
+        + "[  \n"//
+        + "   {\"id\":1, \"state\":-1, \"active\":{\"value\":1}},\n" //
+        + "   {\"id\":2, \"state\":0, \"active\":{\"value\":0}},\n" //
+        + "   {\"id\":3, \"state\":0, \"visible\":{\"value\":0}},\n" //
+        + "   {\"id\":4, \"state\":0, \"active\":{\"value\":1}, \"visible\":{\"value\":1}},\n" //
+        + "   {\"id\":5},\n" //
+        + "   {\"id\":6, \"state\":-1, \"visible\":{\"value\":0}}\n" //
+        + "]";
+
+    final JSONCollection chained = new JSONCollection(values).enforceActive("6").enforceNotDeleted("6")
+        .enforceVisible("6");
+    final JSONCollection res = new JSONCollection(values).enforce(new StateFilter().active().notDeleted()
+        .visible().ignoring("6"));
+    Assert.assertEquals(res.toString(), chained.toString());
+    Assert.assertEquals(res.getValue().length(), 3);
+
+    Assert.assertEquals(new JSONCollection(values).enforce(new StateFilter()).getValue().length(), 6);
+    Assert.assertEquals(new JSONCollection(values).enforce(new StateFilter().notDeleted().ignoring("1"))
+        .getValue().length(), 5);
+
+    try {
+      new JSONCollection("[{\"id\":1, \"active\":{\"value\":\"yes\"}}]").enforce(new StateFilter().active());
+      Assert.fail("not supposed to get here");
+    } catch (Exceptions.InvalidDataTypeException e) {
+    }
+  }
+
   @Test
   public void test_find_items_with_property_not_available()
     throws Exception {
@@ -1685,4 +1730,670 @@ public class JSONCollectionTest {
     assertEquals(resultCollection.getValue().toString(), expectedCollection.getValue().toString());
   }
 
+  @Test
+  public void test_create_JSON_collection_with_compiled_schema()
+    throws BusinessException {
+
+    final String atomicSchema = "{\"id\":-1, \"money\":{\"value\":0, \"type\":\"number\", \"min\":0}, \"name\":{\"type\":sstring, \"value\":\"\", \"max\":5}}";
+    final String values = "[{\"id\":1, \"money\":{\"value123123\":1, \"type\":\"number\"}, \"name\":{\"type\":\"sstring\", \"value\":\"ola1\"}}, {\"id\":2, \"money\":{\"value\":1, \"type\":\"number\"}, \"name\":{\"value\":\"ola2\"}}]";
+
+    final CompiledSchema compiledSchema = new CompiledSchema(atomicSchema);
+
+    JSONCollection resultCollection = compiledSchema.newCollection(new JSONArray(values));
+    JSONCollection expectedCollection = new JSONCollection(atomicSchema, values);
+
+    assertEquals(resultCollection.getValue().toString(), expectedCollection.getValue().toString());
+
+    try {
+      compiledSchema.newCollection(new JSONArray("[{\"id\":1, \"name\":{\"value\":\"too long\"}}]"));
+      Assert.fail("not supposed to get here");
+    } catch (Exceptions.MaxValueExpectationFailedException e) {
+      Assert.assertTrue(true);
+    }
+  }
+
+  @Test
+  public void test_purge_several_invalid_items()
+    throws Exception {
+
+    JSONCollection oldItems = new JSONCollection("[{\"id\":\"1\"}, {\"id\":\"2\"}]");
+    JSONCollection newItems = new JSONCollection("[{\"id\":\"7\"}, {\"id\":\"8\"}, {\"id\":\"2\"}, {\"name\":\"new\"}, {\"id\":\"9\"}]");
+
+    JSONCollection jc = newItems.purgeInvalidItems(oldItems);
+    assertEquals(jc.getValue().toString(), "[{\"id\":\"2\"},{\"name\":\"new\"}]");
+
+    Assert.assertTrue(oldItems.exists("2"));
+    Assert.assertFalse(oldItems.exists("7"));
+  }
+
+  @Test
+  public void test_exists_sees_ids_changed_on_retained_items() throws Exception {
+    final JSONArray items = new JSONArray("[{\"id\":\"1\"}, {\"id\":\"2\"}]");
+    final JSONCollection collection = new JSONCollection();
+    collection.setValue(items);
+    Assert.assertTrue(collection.exists("1"));
+
+    // changed through the input array, not through the collection
+    items.getJSONObject(0).put("id", "5");
+    Assert.assertFalse(collection.exists("1"));
+    Assert.assertTrue(collection.exists("5"));
+
+    items.getJSONObject(1).put("id", "6");
+    final JSONCollection oldItems = new JSONCollection("[{\"id\":\"6\"}, {\"id\":\"2\"}]");
+    collection.appendRemovedItems(oldItems);
+    assertEquals(collection.toString(), "[{\"id\":\"5\"},{\"id\":\"6\"},{\"id\":\"2\",\"state\":-1}]");
+  }
+
+  @Test
+  public void test_diff_items()
+    throws Exception {
+
+    JSONCollection oldItems = new JSONCollection("[{\"id\":\"1\", \"name\":\"a\", \"money\":1}, {\"id\":\"2\", \"name\":\"b\"}, {\"id\":\"3\", \"name\":\"c\"}]");
+    JSONCollection newItems = new JSONCollection("[{\"name\":\"x\"}, {\"id\":\"3\", \"name\":\"changed\"}, {\"id\":\"1\", \"money\":1.0, \"name\":\"a\"}, {\"id\":\"9\"}]");
+
+    JSONCollectionDiff diff = newItems.diff(oldItems);
+
+    assertEquals(diff.getAdded().size(), 1);
+    assertEquals(diff.getAdded().get(0).getString("name"), "x");
+    assertEquals(diff.getUnknown().size(), 1);
+    assertEquals(diff.getUnknown().get(0).getString("id"), "9");
+    assertEquals(diff.getUnchanged().size(), 1);
+    assertEquals(diff.getUnchanged().get(0).getString("id"), "1");
+    assertEquals(diff.getModified().size(), 1);
+    assertEquals(diff.getPrevious(diff.getModified().get(0)).getString("name"), "c");
+    assertEquals(diff.getRemoved().size(), 1);
+    assertEquals(diff.getRemoved().get(0).getString("id"), "2");
+    Assert.assertFalse(diff.isEmpty());
+    Assert.assertTrue(oldItems.diff(oldItems).isEmpty());
+
+    try {
+      diff.getAdded().clear();
+      Assert.fail("not supposed to get here");
+    } catch (UnsupportedOperationException e) {
+      Assert.assertTrue(true);
+    }
+  }
+
+  @Test
+  public void test_read_JSON_collection_from_stream()
+    throws Exception {
+
+    final String atomicSchema = "{\"id\":-1, \"money\":{\"value\":0, \"type\":\"number\"}, \"name\":{\"type\":\"sstring\", \"value\":\"\"}}";
+    final String values = "[{\"id\":1, \"money\":{\"value123123\":1.50, \"type\":\"number\"}, \"name\":{\"type\":\"sstring\", \"value\":\"ola1\"}}, {\"id\":2, \"money\":{\"value\":12345678901, \"type\":\"number\"}, \"name\":{\"value\":\"ola2\"}}]";
+
+    JSONCollection resultCollection = JSONCollection.read(
+        new ByteArrayInputStream(values.getBytes(StandardCharsets.UTF_8)), new JSONObject(atomicSchema));
+    JSONCollection expectedCollection = new JSONCollection(atomicSchema, values);
+
+    assertEquals(resultCollection.getValue().toString(), expectedCollection.getValue().toString());
+    assertEquals(resultCollection.getValue().getJSONObject(1).getJSONObject("money").get("value"), 12345678901L);
+
+    final String duplicates = "[{\"id\":\"a\", \"price2\":{\"type\":\"number\", \"value\":888, \"unique\":{\"value\":\"true\"}}},"
+        + " {\"id\":\"b\", \"price2\":{\"type\":\"number\", \"value\":888, \"unique\":{\"value\":\"true\"}}}]";
+    try {
+      JSONCollection.read(new StringReader(duplicates), (CompiledSchema) null);
+      Assert.fail("not supposed to get here");
+    } catch (Exceptions.UniqueValueExpectationFailedException e) {
+      Assert.assertTrue(true);
+    }
+  }
+
+  @Test
+  public void test_columnar_collection_keeps_items()
+    throws Exception {
+
+    final String atomicSchema = "{\"id\":-1, \"active\":{\"value\":true}, \"money\":{\"value\":0, \"type\":\"number\"}, \"name\":{\"type\":\"sstring\", \"value\":\"\"}, \"title\":{\"type\":\"string\", \"value\":{\"en\":\"\"}}}";
+    final String values = "[{\"id\":1, \"active\":{\"value\":false}, \"money\":{\"value\":1.5}, \"name\":{\"value\":\"ola\"}},"
+        + " {\"id\":12345678901, \"money\":{\"value\":2}, \"name\":{\"value\":\"ola\"}, \"title\":{\"value\":{\"en\":\"hello\", \"pt\":\"ola\"}}},"
+        + " {\"id\":3, \"money\":{\"value\":3}, \"name\":{\"value\":\"ola\"}}]";
+
+    final JSONCollection collection = new JSONCollection(atomicSchema, values);
+    final ColumnarJSONCollection columnar = new ColumnarJSONCollection(collection);
+
+    assertEquals(columnar.size(), 3);
+    assertEquals(columnar.toString(), collection.toString());
+    assertEquals(columnar.toJSONCollection().toString(), collection.toString());
+    for (int i = 0; i < columnar.size(); i++) {
+      assertEquals(columnar.get(i).toString(), collection.getValue().getJSONObject(i).toString());
+    }
+
+    columnar.get(1).getJSONObject("title").getJSONObject("value").put("en", "changed");
+    assertEquals(columnar.get(1).getJSONObject("title").getJSONObject("value").getString("en"), "hello");
+    assertEquals(columnar.get(1).get("id"), 12345678901L);
+  }
+
+  @Test
+  public void test_columnar_collection_keeps_sparse_columns_of_mixed_types()
+    throws Exception {
+
+    final String values = "[{\"id\":1, \"flag\":true, \"count\":7},"
+        + " {\"id\":2},"
+        + " {\"id\":3, \"flag\":\"yes\", \"count\":{\"value\":8}},"
+        + " {\"id\":4, \"flag\":false}]";
+
+    final JSONCollection collection = new JSONCollection();
+    collection.setValue(new JSONArray(values));
+    final ColumnarJSONCollection columnar = new ColumnarJSONCollection(collection);
+
+    assertEquals(columnar.size(), 4);
+    for (int i = 0; i < columnar.size(); i++) {
+      assertEquals(columnar.get(i).toString(), collection.getValue().getJSONObject(i).toString());
+    }
+    Assert.assertTrue(collection.exists("3"));
+  }
+
+  @Test
+  public void test_parallel_check_constraints_reports_the_first_failure()
+    throws Exception {
+
+    final JSONArray items = new JSONArray();
+    for (int i = 0; i < 3 * JSONCollection.PARALLEL_THRESHOLD; i++) {
+      items.put(new JSONObject("{\"id\":" + i + ", \"name\":{\"type\":\"sstring\", \"max\":12, \"value\":\"item " + i + "\"}}"));
+    }
+    items.getJSONObject(9000).getJSONObject("name").put("value", "way too long 9000");
+    items.getJSONObject(5000).getJSONObject("name").put("value", "way too long 5000");
+    final JSONCollection collection = new JSONCollection();
+    collection.setValue(items);
+
+    final ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      collection.checkConstraints(executor);
+      Assert.fail("not supposed to get here");
+    } catch (Exceptions.MaxValueExpectationFailedException e) {
+      Assert.assertTrue(e.getMessage().contains("way too long 5000"), e.getMessage());
+    } finally {
+      executor.shutdown();
+    }
+
+    items.getJSONObject(9000).getJSONObject("name").put("value", "item 9000");
+    items.getJSONObject(5000).getJSONObject("name").put("value", "item 5000");
+    assertEquals(collection.checkConstraints(ForkJoinPool.commonPool()), collection);
+  }
+
+  @Test(timeOut = 60000)
+  public void test_parallel_checks_from_inside_the_common_pool() throws Exception {
+    final ForkJoinPool pool = ForkJoinPool.commonPool();
+    final List<Future<JSONCollection>> results = new ArrayList<>();
+    // more callers than pool threads, each waiting on its own chunks
+    for (int t = 0; t < 2 * pool.getParallelism() + 1; t++) {
+      final JSONArray items = new JSONArray();
+      for (int i = 0; i < 2 * JSONCollection.PARALLEL_THRESHOLD; i++) {
+        items.put(new JSONObject("{\"id\":" + i + ", \"name\":{\"type\":\"sstring\", \"value\":\"item " + i + "\"}}"));
+      }
+      final JSONCollection collection = new JSONCollection();
+      collection.setValue(items);
+
+      results.add(pool.submit(new Callable<JSONCollection>() {
+        @Override
+        public JSONCollection call() throws Exception {
+          return collection.checkConstraints(pool);
+        }
+      }));
+    }
+
+    for (Future<JSONCollection> result : results) {
+      assertEquals(result.get().getValue().length(), 2 * JSONCollection.PARALLEL_THRESHOLD);
+    }
+  }
+
+  @Test
+  public void test_validate_collection_reports_item_indexes() {
+    final String schema = "{\"id\":0, \"price\":{\"type\":\"number\", \"value\":0, \"max\":100}}";
+    final JSONArray items = new JSONArray("[{\"id\":1, \"price\":{\"type\":\"number\", \"value\":10, \"max\":100}},"
+        + " {\"id\":2, \"price\":{\"type\":\"number\", \"value\":\"10\", \"max\":100}},"
+        + " {\"id\":3, \"price\":{\"type\":\"number\", \"value\":110, \"max\":100}},"
+        + " 4,"
+        + " {\"id\":5, \"price\":{\"type\":\"number\", \"value\":1, \"max\":100}}]");
+
+    final ValidationResult result = JSONCollection.validateCompiled(new CompiledSchema(schema), items);
+    assertEquals(result.getViolations().size(), 3);
+    assertEquals(result.getViolations().get(0).getIndex(), 1);
+    assertEquals(result.getViolations().get(0).getCode(), Violation.Code.INVALID_DATA_TYPE);
+    assertEquals(result.getViolations().get(0).getPath(), "/price");
+    assertEquals(result.getViolations().get(1).getIndex(), 2);
+    assertEquals(result.getViolations().get(1).getCode(), Violation.Code.MAX_VALUE);
+    assertEquals(result.getViolations().get(1).getValue(), 110);
+    assertEquals(result.getViolations().get(2).getIndex(), 3);
+
+    Assert.assertTrue(JSONCollection.validate((JSONObject) null, new JSONArray("[{\"id\":1}]")).isValid());
+  }
+
+  @Test
+  public void test_query_filters_orders_and_projects() throws BusinessException {
+    final JSONCollection collection = new JSONCollection("["
+        + "{\"id\":\"1\", \"category\":\"road\", \"price\":{\"type\":\"number\", \"value\":900}, \"size\":{\"frame\":54}},"
+        + "{\"id\":\"2\", \"category\":\"city\", \"price\":{\"type\":\"number\", \"value\":350.5}, \"size\":{\"frame\":50}},"
+        + "{\"id\":\"3\", \"category\":\"road\", \"price\":{\"type\":\"number\", \"value\":1200}},"
+        + "{\"id\":\"4\", \"category\":\"mtb\", \"price\":{\"type\":\"number\", \"value\":350.5}, \"size\":{\"frame\":50}},"
+        + "{\"id\":\"5\", \"category\":\"city\", \"price\":{\"type\":\"number\", \"value\":200}, \"size\":{\"frame\":48}}]");
+    final String original = collection.toString();
+
+    final JSONCollection found = collection.query(new JSONQuery()
+        .in("category", "city", "mtb", "road")
+        .between("price", 200, 1000.0)
+        .exists("/size/frame")
+        .orderBy("price", false)
+        .orderBy("/size/frame", true)
+        .limit(3)
+        .select("id", "/size/frame"));
+
+    assertEquals(found.toString(), new JSONArray("["
+        + "{\"id\":\"1\", \"size\":{\"frame\":54}},"
+        + "{\"id\":\"2\", \"size\":{\"frame\":50}},"
+        + "{\"id\":\"4\", \"size\":{\"frame\":50}}]").toString());
+    assertEquals(collection.toString(), original);
+
+    // without projection nor ordering, the items are shared and kept in order
+    final JSONCollection road = collection.query(new JSONQuery().equalTo("category", "road").greaterThan("price", 900));
+    assertEquals(road.getValue().length(), 1);
+    Assert.assertSame(road.getValue().get(0), collection.getValue().get(2));
+
+    assertEquals(collection.query(new JSONQuery().absent("size").lessThan("price", 0)).getValue().length(), 0);
+    assertEquals(collection.query(new JSONQuery().equalTo("price", 350.5).limit(1)).getValue().getJSONObject(0).get("id"), "2");
+    Assert.assertTrue(new JSONQuery().equalTo("price", 200L).matches(collection.getValue().getJSONObject(4)));
+  }
+
+  @Test
+  public void test_find_items_by_indexed_fields() throws BusinessException {
+    final JSONCollection collection = new JSONCollection().indexBy("code", "/dock/count");
+    collection.setValueCompiled(new CompiledSchema("{\"id\":0, \"code\":\"\", \"dock\":{\"count\":{\"type\":\"number\", \"value\":0}}}"),
+        new JSONArray("["
+            + "{\"id\":1, \"code\":\"LIS-01\", \"dock\":{\"count\":{\"type\":\"number\", \"value\":12}}},"
+            + "{\"id\":2, \"code\":\"LIS-02\", \"dock\":{\"count\":{\"type\":\"number\", \"value\":8}}},"
+            + "{\"id\":3, \"code\":\"OPO-01\", \"dock\":{\"count\":{\"type\":\"number\", \"value\":12}}}]"));
+
+    assertEquals(collection.findBy("code", "LIS-02").get("id"), 2);
+    Assert.assertNull(collection.findBy("code", "FAO-01"));
+    assertEquals(collection.findAllBy("/dock/count", 12L).size(), 2);
+    assertEquals(collection.findAllBy("/dock/count", 12.0).get(1).get("id"), 3);
+
+    // rebuilt after a change through getValue
+    collection.getValue().getJSONObject(0).put("code", "LIS-03");
+    assertEquals(collection.findBy("code", "LIS-03").get("id"), 1);
+    Assert.assertNull(collection.findBy("code", "LIS-01"));
+
+    collection.getValue().getJSONObject(2).put("state", -1);
+    collection.enforce(new StateFilter().notDeleted());
+    assertEquals(collection.findAllBy("/dock/count", 12).size(), 1);
+
+    try {
+      collection.findBy("id", 1);
+      Assert.fail("not supposed to get here");
+    } catch (IllegalArgumentException e) {
+    }
+  }
+
+  @Test
+  public void test_indexes_declared_on_creation() throws BusinessException {
+    try {
+      new JSONCollection().findBy("code", "LIS-01");
+      Assert.fail("not supposed to get here");
+    } catch (IllegalStateException e) {
+    }
+
+    final JSONArray items = new JSONArray("["
+        + "{\"id\":1, \"code\":\"LIS-01\"},"
+        + "{\"id\":2, \"code\":\"LIS-02\"}]");
+    final JSONCollection collection = new CompiledSchema("{\"id\":0, \"code\":\"\"}").newCollection(items, "code");
+
+    assertEquals(collection.findBy("code", "LIS-02").get("id"), 2);
+
+    // changes through a retained item aren't seen until the indexes are rebuilt
+    collection.findBy("code", "LIS-01").put("code", "LIS-03");
+    Assert.assertNull(collection.findBy("code", "LIS-03"));
+    collection.indexBy();
+    assertEquals(collection.findBy("code", "LIS-03").get("id"), 1);
+
+    collection.setValue((JSONObject) null, new JSONArray("[{\"id\":3, \"code\":\"OPO-01\"}]"), "id");
+    assertEquals(collection.findBy("code", "OPO-01").get("id"), 3);
+    assertEquals(collection.findBy("id", 3).get("code"), "OPO-01");
+  }
+
+  @Test
+  public void test_snapshot_is_immutable_and_copied_on_write() throws Exception {
+    final JSONCollection collection = new JSONCollection("["
+        + "{\"id\":\"1\", \"name\":{\"type\":\"sstring\", \"value\":\"a\"}, \"tags\":[\"x\"]},"
+        + "{\"id\":\"2\", \"name\":{\"type\":\"sstring\", \"value\":\"b\"}, \"state\":-1}]");
+    final JSONSnapshot snapshot = collection.snapshot();
+    assertEquals(snapshot.toString(), collection.toString());
+
+    // later changes to the collection aren't seen
+    collection.getValue().getJSONObject(0).put("id", "3");
+    assertEquals(snapshot.get("1").getJSONObject("name").get("value"), "a");
+
+    try {
+      snapshot.get(0).getJSONObject("name").put("value", "c");
+      Assert.fail("not supposed to get here");
+    } catch (UnsupportedOperationException e) {
+    }
+    try {
+      snapshot.get(0).getJSONArray("tags").put("y");
+      Assert.fail("not supposed to get here");
+    } catch (UnsupportedOperationException e) {
+    }
+    try {
+      snapshot.getValue().remove(0);
+      Assert.fail("not supposed to get here");
+    } catch (UnsupportedOperationException e) {
+    }
+
+    final JSONSnapshot changed = snapshot.with(new JSONObject("{\"id\":\"1\", \"name\":{\"type\":\"sstring\", \"value\":\"c\"}}"))
+        .with(new JSONObject("{\"id\":\"4\"}")).without("2");
+    assertEquals(changed.size(), 2);
+    assertEquals(changed.get(0).getJSONObject("name").get("value"), "c");
+    assertEquals(snapshot.size(), 2);
+    assertEquals(snapshot.get(0).getJSONObject("name").get("value"), "a");
+    assertEquals(snapshot.enforce(new StateFilter().notDeleted()).size(), 1);
+    Assert.assertSame(snapshot.enforce(new StateFilter()).get(1), snapshot.get(1));
+
+    final JSONCollection thawed = snapshot.toJSONCollection();
+    thawed.getValue().getJSONObject(0).put("id", "5");
+    assertEquals(snapshot.get(0).get("id"), "1");
+
+    final JSONSnapshotHolder holder = new JSONSnapshotHolder(snapshot);
+    final ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      final List<Future<?>> writers = new ArrayList<>();
+      for (int i = 0; i < 100; i++) {
+        final String id = "w" + i;
+        writers.add(executor.submit(new Callable<JSONSnapshot>() {
+
+          @Override
+          public JSONSnapshot call() throws Exception {
+            return holder.update(new JSONSnapshotHolder.Update() {
+
+              @Override
+              public JSONSnapshot apply(JSONSnapshot current) {
+                return current.with(new JSONObject().put("id", id));
+              }
+            });
+          }
+        }));
+      }
+      for (Future<?> writer : writers) {
+        writer.get();
+      }
+    } finally {
+      executor.shutdown();
+    }
+    assertEquals(holder.get().size(), 102);
+  }
+
+  @Test
+  public void test_concurrent_collection_checks_every_write() throws Exception {
+    final ConcurrentJSONCollection collection = new ConcurrentJSONCollection(null, new JSONArray("["
+        + "{\"id\":\"1\", \"code\":{\"type\":\"sstring\", \"value\":\"a\", \"unique\":{\"value\":true}}},"
+        + "{\"id\":\"2\", \"state\":-1}]"));
+    assertEquals(collection.size(), 2);
+    Assert.assertTrue(collection.exists("1"));
+    Assert.assertFalse(collection.exists("3"));
+
+    try {
+      collection.put(new JSONObject("{\"id\":\"3\", \"code\":{\"type\":\"sstring\", \"value\":\"a\", \"unique\":{\"value\":true}}}"));
+      Assert.fail("not supposed to get here");
+    } catch (Exceptions.UniqueValueExpectationFailedException e) {
+    }
+    try {
+      collection.put(new JSONObject("{\"name\":\"no id\"}"));
+      Assert.fail("not supposed to get here");
+    } catch (Exceptions.MalformedSearchableNodeException e) {
+    }
+    try {
+      collection.get("1").put("id", "4");
+      Assert.fail("not supposed to get here");
+    } catch (UnsupportedOperationException e) {
+    }
+
+    // the value is free again once its item is removed
+    Assert.assertNotNull(collection.remove("1"));
+    collection.put(new JSONObject("{\"id\":\"3\", \"code\":{\"type\":\"sstring\", \"value\":\"a\", \"unique\":{\"value\":true}}}"));
+
+    final ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      final List<Future<?>> writers = new ArrayList<>();
+      for (int i = 0; i < 200; i++) {
+        final String id = "w" + (i % 20);
+        final int code = i;
+        writers.add(executor.submit(new Callable<JSONObject>() {
+
+          @Override
+          public JSONObject call() throws Exception {
+            return collection.update(id, new ConcurrentJSONCollection.Update() {
+
+              @Override
+              public JSONObject apply(JSONObject item) {
+                final int count = item != null ? item.getInt("count") + 1 : 1;
+                return new JSONObject().put("id", id).put("count", count)
+                    .put("code", new JSONObject().put("type", "sstring").put("value", "c" + code)
+                        .put("unique", new JSONObject().put("value", true)));
+              }
+            });
+          }
+        }));
+      }
+      for (Future<?> writer : writers) {
+        writer.get();
+      }
+    } finally {
+      executor.shutdown();
+    }
+    assertEquals(collection.size(), 22);
+    assertEquals(collection.get("w7").getInt("count"), 10);
+
+    final JSONSnapshot snapshot = collection.snapshot();
+    assertEquals(snapshot.get(0).get("id"), "2");
+    assertEquals(snapshot.toString(), collection.toString());
+    final StringWriter writer = new StringWriter();
+    collection.writeTo(writer);
+    assertEquals(new JSONArray(writer.toString()).length(), 22);
+
+    collection.enforceNotDeleted();
+    assertEquals(collection.size(), 21);
+    Assert.assertFalse(collection.exists("2"));
+    assertEquals(snapshot.size(), 22);
+  }
+
+  @Test
+  public void test_snapshot_freezes_raw_map_collection_and_array_values() throws Exception {
+
+    final JSONObject item = new JSONObject().put("id", "1");
+    final Map<String, Object> map = new HashMap<>();
+    map.put("k", Arrays.asList(1, 2));
+    item.put("map", (Object) map);
+    item.put("list", (Object) Arrays.asList("a", map));
+    item.put("array", new int[] { 1, 2 });
+    final JSONCollection collection = new JSONCollection();
+    collection.setValue(new JSONArray().put(item));
+
+    final JSONObject frozen = collection.snapshot().get(0);
+    assertEquals(frozen.getJSONObject("map").getJSONArray("k").getInt(1), 2);
+    assertEquals(frozen.getJSONArray("list").getJSONObject(1).getJSONArray("k").length(), 2);
+    assertEquals(frozen.getJSONArray("array").getInt(0), 1);
+    try {
+      frozen.getJSONObject("map").put("k", 3);
+      Assert.fail("not supposed to get here");
+    } catch (UnsupportedOperationException e) {
+      Assert.assertTrue(true);
+    }
+    try {
+      frozen.getJSONObject("map").getJSONArray("k").put(3);
+      Assert.fail("not supposed to get here");
+    } catch (UnsupportedOperationException e) {
+      Assert.assertTrue(true);
+    }
+    try {
+      frozen.getJSONArray("list").getJSONObject(1).remove("k");
+      Assert.fail("not supposed to get here");
+    } catch (UnsupportedOperationException e) {
+      Assert.assertTrue(true);
+    }
+    try {
+      frozen.getJSONArray("array").put(3);
+      Assert.fail("not supposed to get here");
+    } catch (UnsupportedOperationException e) {
+      Assert.assertTrue(true);
+    }
+  }
+
+  @Test
+  public void test_uniqueness_index_decides_like_scan_without_scope() {
+    final JSONArray collection = new JSONArray()
+        .put(uniqueItem("1", "a", null))
+        .put(uniqueItem("2", "b", null))
+        .put(uniqueItem("3", "a", null))
+        // deleted items are never compared
+        .put(uniqueItem("4", "b", null).put("state", -1))
+        .put(uniqueItem("5", "c", null))
+        .put(uniqueItem("6", "c", null).put("state", -1))
+        // items lacking the property are never compared
+        .put(new JSONObject().put("id", "7"))
+        .put(uniqueItem("8", new JSONObject().put("en", "x").put("pt", "y"), null))
+        .put(uniqueItem("9", new JSONObject().put("pt", "y").put("en", "x"), null))
+        // an empty object is the same as any other object
+        .put(uniqueItem("10", new JSONObject(), null));
+
+    assertEquals(uniquenessOutcomes(collection), Arrays.asList("failed", "unique", "failed", "unique",
+        "unique", "unique", "unique", "failed", "failed", "unique"));
+  }
+
+  @Test
+  public void test_uniqueness_index_decides_like_scan_with_distinct_scope() {
+    final JSONObject unique = new JSONObject().put("value", true).put("mode", "distinct")
+        .put("scope", new JSONArray().put(new JSONObject().put("field", "shop")));
+    final JSONArray collection = new JSONArray()
+        .put(uniqueItem("1", "a", unique).put("shop", sstring("s1")))
+        .put(uniqueItem("2", "a", unique).put("shop", sstring("s2")))
+        .put(uniqueItem("3", "a", unique).put("shop", sstring("s1")))
+        .put(uniqueItem("4", "b", unique).put("shop", sstring("s1")))
+        .put(uniqueItem("5", "b", unique).put("shop", sstring("s2")));
+
+    assertEquals(uniquenessOutcomes(collection), Arrays.asList("failed", "unique", "failed", "unique",
+        "unique"));
+  }
+
+  @Test
+  public void test_uniqueness_index_decides_like_scan_with_pkey_scope() {
+    final JSONObject unique = new JSONObject().put("value", true).put("mode", "pkey")
+        .put("scope", new JSONArray().put(new JSONObject().put("field", "shop"))
+            .put(new JSONObject().put("field", "lane")));
+    final JSONArray collection = new JSONArray()
+        // the property value itself is ignored, only the scope is compared
+        .put(uniqueItem("1", "a", unique).put("shop", sstring("s1")).put("lane", sstring("l1")))
+        .put(uniqueItem("2", "b", unique).put("shop", sstring("s1")).put("lane", sstring("l1")))
+        .put(uniqueItem("3", "a", unique).put("shop", sstring("s1")).put("lane", sstring("l2")))
+        .put(uniqueItem("4", "a", unique).put("shop", sstring("s2")).put("lane", sstring("l1")))
+        .put(uniqueItem("5", "c", unique).put("shop", sstring("s2")).put("lane", sstring("l2")));
+
+    assertEquals(uniquenessOutcomes(collection), Arrays.asList("failed", "failed", "unique", "unique",
+        "unique"));
+  }
+
+  @Test
+  public void test_uniqueness_index_fails_like_scan_on_malformed_items() {
+    // a non-Integer state and a missing id fail the scan when compared
+    final JSONArray collection = new JSONArray()
+        .put(uniqueItem("1", "a", null))
+        .put(uniqueItem("2", "b", null).put("state", "deleted"))
+        .put(uniqueItem("3", "c", null));
+    assertEquals(uniquenessOutcomes(collection), Arrays.asList("ClassCastException",
+        "ClassCastException", "ClassCastException"));
+
+    final JSONArray withoutId = new JSONArray()
+        .put(uniqueItem("1", "a", null))
+        .put(new JSONObject().put("code", sstring("z")))
+        .put(uniqueItem("3", "a", null));
+    // the duplicate found first stops the scan before the item without id
+    assertEquals(uniquenessOutcomes(withoutId), Arrays.asList("MalformedSearchableNodeException",
+        "unique", "failed"));
+
+    // in pkey mode the scan still reads the property value of the items out
+    // of scope
+    final JSONObject pkey = new JSONObject().put("value", true).put("mode", "pkey")
+        .put("scope", new JSONArray().put(new JSONObject().put("field", "shop")));
+    final JSONArray malformedProperty = new JSONArray()
+        .put(uniqueItem("1", "a", pkey).put("shop", sstring("s1")))
+        .put(new JSONObject().put("id", "2").put("code", "b").put("shop", sstring("s2")))
+        .put(new JSONObject().put("id", "3").put("code", new JSONObject().put("type", "sstring"))
+            .put("shop", sstring("s3")));
+    assertEquals(uniquenessOutcomes(malformedProperty), Arrays.asList("MalformedSearchableNodeException",
+        "unique", "unique"));
+  }
+
+  @Test
+  public void test_uniqueness_index_follows_replaced_items() throws BusinessException {
+    final JSONArray collection = new JSONArray()
+        .put(uniqueItem("1", "a", null))
+        .put(uniqueItem("2", "b", null))
+        .put(uniqueItem("3", "c", null));
+    final UniquenessIndex index = new UniquenessIndex(collection);
+    JSON.enforceUniqueness(collection.getJSONObject(0), index);
+
+    collection.put(2, uniqueItem("3", "a", null));
+    index.update(2);
+    assertEquals(uniquenessOutcome(collection.getJSONObject(0), index),
+        uniquenessOutcome(collection.getJSONObject(0), collection));
+    assertEquals(uniquenessOutcome(collection.getJSONObject(0), index), "failed");
+
+    collection.put(0, uniqueItem("1", "b", null).put("state", -1));
+    index.update(0);
+    for (int i = 0; i < collection.length(); i++) {
+      assertEquals(uniquenessOutcome(collection.getJSONObject(i), index),
+          uniquenessOutcome(collection.getJSONObject(i), collection));
+    }
+    assertEquals(uniquenessOutcome(collection.getJSONObject(1), index), "unique");
+  }
+
+  /**
+   * @return the outcome of each item through a uniqueness index, asserted to
+   *         be the outcome of the full scan
+   */
+  private static List<String> uniquenessOutcomes(JSONArray collection) {
+    final UniquenessIndex index = new UniquenessIndex(collection);
+    final List<String> result = new ArrayList<>();
+    for (int i = 0; i < collection.length(); i++) {
+      final JSONObject item = collection.getJSONObject(i);
+      final String outcome = uniquenessOutcome(item, index);
+      assertEquals(outcome, uniquenessOutcome(item, collection), "item " + i);
+      if (item.has("code")) {
+        assertEquals(propertyOutcome(item, index), propertyOutcome(item, collection), "item " + i);
+      }
+      result.add(outcome);
+    }
+    return result;
+  }
+
+  private static String uniquenessOutcome(JSONObject item, Object collection) {
+    try {
+      if (collection instanceof UniquenessIndex) {
+        JSON.enforceUniqueness(item, (UniquenessIndex) collection);
+      } else {
+        JSON.enforceUniqueness(item, (JSONArray) collection);
+      }
+      return "unique";
+    } catch (Exceptions.UniqueValueExpectationFailedException e) {
+      return "failed";
+    } catch (BusinessException | RuntimeException e) {
+      return e.getClass().getSimpleName();
+    }
+  }
+
+  private static String propertyOutcome(JSONObject item, Object collection) {
+    try {
+      return String.valueOf(collection instanceof UniquenessIndex
+          ? ((UniquenessIndex) collection).isPropertyValueUnique(item, "code")
+          : JSON.isPropertyValueUnique(item, "code", (JSONArray) collection, null));
+    } catch (BusinessException | RuntimeException e) {
+      return e.getClass().getSimpleName();
+    }
+  }
+
+  private static JSONObject uniqueItem(String id, Object code, JSONObject unique) {
+    return new JSONObject().put("id", id).put("code", sstring(code).put("unique",
+        unique != null ? unique : new JSONObject().put("value", true)));
+  }
+
+  private static JSONObject sstring(Object value) {
+    return new JSONObject().put("type", "sstring").put("value", value);
+  }
+
 }
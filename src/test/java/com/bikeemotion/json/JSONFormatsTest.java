@@ -0,0 +1,137 @@
+/**
+ * Copyright (C) Bikeemotion
+ * 2014
+ *
+ * The reproduction, transmission or use of this document or its contents is not
+ * permitted without express written authorization. All rights, including rights
+ * created by patent grant or registration of a utility model or design, are
+ * reserved. Modifications made to this document are restricted to authorized
+ * personnel only. Technical specifications and features are binding only when
+ * specifically and expressly agreed upon in a written contract.
+ */
+package com.bikeemotion.json;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.TreeSet;
+
+import com.bikeemotion.core.exception.BusinessException;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.json.JSONString;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+/**
+ * Round trips of {@link JSON} and {@link JSONCollection} through the text,
+ * Smile and CBOR encodings.
+ */
+public class JSONFormatsTest {
+
+  private static final String VALUE = "{\"id\":1, \"big\":12345678901, \"active\":{\"value\":true},"
+      + " \"price\":{\"type\":\"number\", \"value\":1.5}, \"whole\":2.0, \"nothing\":null,"
+      + " \"name\":{\"type\":\"sstring\", \"value\":\"ol\u00e1 \\\"bikes\\\"\"},"
+      + " \"tags\":[true, false, null, -7, 3.25, \"x\", [1, [2]], {\"k\":\"v\"}]}";
+
+  private static final String COLLECTION = "[{\"id\":1, \"money\":{\"type\":\"number\", \"value\":10}},"
+      + " {\"id\":2, \"money\":{\"type\":\"number\", \"value\":0.5}, \"state\":0}]";
+
+  @DataProvider(name = "formats")
+  public Object[][] formats() {
+    return new Object[][] {
+        { new JsonFactory() },
+        { new SmileFactory() },
+        { new CBORFactory() } };
+  }
+
+  @Test(dataProvider = "formats")
+  public void test_JSON_round_trip(JsonFactory format)
+    throws BusinessException, IOException {
+
+    final JSON expected = new JSON(VALUE);
+    final ObjectMapper mapper = new ObjectMapper(format);
+
+    final JSON result = mapper.readValue(mapper.writeValueAsBytes(expected), JSON.class);
+
+    assertEquals(result.toString(), expected.toString());
+    assertEquals(types(result.getValue()), types(expected.getValue()));
+  }
+
+  @Test(dataProvider = "formats")
+  public void test_JSON_collection_round_trip(JsonFactory format)
+    throws BusinessException, IOException {
+
+    final JSONCollection expected = new JSONCollection(COLLECTION);
+    final ObjectMapper mapper = new ObjectMapper(format);
+
+    final JSONCollection result = mapper.readValue(mapper.writeValueAsBytes(expected), JSONCollection.class);
+
+    assertEquals(result.toString(), expected.toString());
+    assertEquals(types(result.getValue()), types(expected.getValue()));
+  }
+
+  @Test(dataProvider = "formats")
+  public void test_encodings_are_equivalent(JsonFactory format)
+    throws BusinessException, IOException {
+
+    final JSON value = new JSON(VALUE);
+    final ObjectMapper text = new ObjectMapper();
+    final ObjectMapper mapper = new ObjectMapper(format);
+
+    final JSONObject fromText = JSONTrees.toJSONObject(text.readValue(text.writeValueAsBytes(value),
+        ObjectNode.class));
+    final JSONObject fromFormat = JSONTrees.toJSONObject(mapper.readValue(mapper.writeValueAsBytes(value),
+        ObjectNode.class));
+
+    assertTrue(JSON.similar(fromFormat, fromText), fromFormat + " <> " + fromText);
+  }
+
+  @Test(dataProvider = "formats")
+  public void test_JSON_string_values_are_written_as_values(JsonFactory format)
+    throws BusinessException, IOException {
+
+    final JSON value = new JSON("{\"id\":1}");
+    value.getValue().put("raw", new JSONString() {
+      @Override
+      public String toJSONString() {
+        return "{\"k\":[1, 2.5, \"v\", null]}";
+      }
+    });
+    final ObjectMapper mapper = new ObjectMapper(format);
+
+    final JSONObject result = JSONTrees.toJSONObject(mapper.readValue(mapper.writeValueAsBytes(value),
+        ObjectNode.class)).getJSONObject("value");
+
+    final JSONObject expected = new JSONObject("{\"id\":1, \"raw\":{\"k\":[1, 2.5, \"v\", null]}}");
+    assertTrue(JSON.similar(result, expected), result + " <> " + expected);
+  }
+
+  /**
+   * @return the value types, to tell <code>1</code> from <code>1L</code>
+   */
+  private static String types(Object value) {
+    if (value instanceof JSONObject) {
+      final StringBuilder result = new StringBuilder("{");
+      for (String key : new TreeSet<String>(((JSONObject) value).keySet())) {
+        result.append(key).append(':').append(types(((JSONObject) value).get(key))).append(',');
+      }
+      return result.append('}').toString();
+    } else if (value instanceof JSONArray) {
+      final StringBuilder result = new StringBuilder("[");
+      for (int i = 0; i < ((JSONArray) value).length(); i++) {
+        result.append(types(((JSONArray) value).get(i))).append(',');
+      }
+      return result.append(']').toString();
+    }
+    return value.getClass().getSimpleName();
+  }
+
+}
@@ -13,13 +13,32 @@ package com.bikeemotion.json;
 
 import static org.testng.Assert.assertEquals;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import com.bikeemotion.core.exception.BusinessException;
+import org.json.JSONArray;
+import org.json.JSONException;
 import org.json.JSONObject;
+import org.json.JSONString;
+import org.testng.Assert;
 import org.testng.annotations.Test;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import java.math.BigDecimal;
 
 /**
@@ -269,4 +288,417 @@ public class JSONTest {
     final JSON object = new JSON(schema, values);
   }
 
+  @Test
+  public void test_compiled_schema_enforces_like_raw_schema()
+      throws BusinessException {
+    final String schema = "{\n" + "   \"id\":0,\n"
+        + "   \"num1\":{\n" + "      \"type\":\"number\",\n"
+        + "      \"max\":99.99,\n" + "      \"min\":0,\n"
+        + "      \"value\":0\n" + "   },\n" + "   \"string1\":{\n"
+        + "      \"type\":\"sstring\",\n" + "      \"value\":\"\",\n"
+        + "      \"mandatory\":false\n" + "   }\n" + "}";
+
+    final String values = "{\n" + "   \"id\":1,\n" + "   \"num1\":{\n"
+        + "      \"value\":12.5,\n" + "      \"foo\":111\n" + "   },\n"
+        + "   \"num2\":{\n" + "      \"type\":\"number\",\n"
+        + "      \"value\":222\n" + "   }\n" + "}";
+
+    final CompiledSchema compiledSchema = new CompiledSchema(schema);
+
+    final JSON expectedObject = new JSON(schema, values);
+    final JSON object = compiledSchema.newJSON(values);
+
+    assertEquals(object.toString(), expectedObject.toString());
+
+    // defaults are copied, values never share nodes with the compiled schema
+    object.getValue().getJSONObject("string1").put("value", "changed");
+    assertEquals(compiledSchema.newJSON(values).toString(),
+        expectedObject.toString());
+  }
+
+  @Test(expectedExceptions = Exceptions.NumberPrecisionExpectationFailedException.class)
+  public void test_compiled_schema_fail_double_number_precision()
+      throws BusinessException {
+    final CompiledSchema schema = new CompiledSchema("{\n"
+        + "   \"id\":0,\n" + "   \"minAge\":{\n"
+        + "      \"mandatory\":\"true\",\n" + "      \"type\":\"number\",\n"
+        + "      \"max\":99.99,\n" + "      \"min\":0,\n"
+        + "      \"value\":0\n" + "   }\n" + "}");
+
+    schema.newJSON("{\n" + "   \"id\":1,\n" + "   \"minAge\":{\n"
+        + "      \"value\":1.111\n" + "   }\n" + "}");
+  }
+
+  @Test
+  public void test_schema_cache_evicts_least_recently_used() {
+    final SchemaCache cache = new SchemaCache(2);
+
+    final CompiledSchema a = cache.get("{\"id\":0, \"a\":1}");
+    cache.get("{\"id\":0, \"b\":1}");
+    assertEquals(cache.get("{\"id\":0, \"a\":1}"), a);
+
+    // "b" is now the least recently used
+    cache.get("a-schema", "{\"id\":0, \"c\":1}");
+    assertEquals(cache.get("a-schema", "ignored on a hit"),
+        cache.get("a-schema", "ignored on a hit"));
+    assertEquals(cache.get("{\"id\":0, \"a\":1}"), a);
+
+    assertEquals(cache.size(), 2);
+    assertEquals(cache.hitCount(), 4);
+    assertEquals(cache.missCount(), 3);
+    assertEquals(cache.evictionCount(), 1);
+
+    cache.setMaximumSize(1);
+    assertEquals(cache.size(), 1);
+    assertEquals(cache.evictionCount(), 2);
+  }
+
+  @Test
+  public void test_violation_message_locates_the_node() throws BusinessException {
+    final JSONObject values = new JSONObject("{\n" + "   \"id\":1,\n"
+        + "   \"place\":{\n" + "      \"name\":{\n"
+        + "         \"type\":\"string\",\n" + "         \"max\":3,\n"
+        + "         \"value\":{\"en\":\"Lisbon\"}\n" + "      }\n"
+        + "   }\n" + "}");
+
+    try {
+      JSON.checkTypeConstraints(values);
+      Assert.fail("not supposed to get here");
+    } catch (Exceptions.MaxValueExpectationFailedException e) {
+      assertEquals(e.getMessage(), "/place/name/value/en:"
+          + values.getJSONObject("place").getJSONObject("name"));
+    }
+  }
+
+  @Test
+  public void test_write_to_stream_like_to_string() throws BusinessException, IOException {
+    final JSON json = new JSON("{\"id\":1, \"money\":{\"value\":1.50, \"type\":\"number\"}, \"name\":{\"type\":\"string\", \"value\":{\"pt\":\"ol\u00e1\\n\"}}, \"tags\":[true, null, 12345678901]}");
+
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    json.writeTo(out);
+    assertEquals(new String(out.toByteArray(), StandardCharsets.UTF_8), json.toString());
+
+    final StringWriter writer = new StringWriter();
+    json.writeTo(writer);
+    assertEquals(writer.toString(), json.toString());
+  }
+
+  @Test
+  public void test_deserialize_keeps_org_json_value_types() throws IOException {
+    final ObjectMapper mapper = new ObjectMapper();
+
+    final JSON result = mapper.readValue(
+        "{\"value\":{\"id\":1, \"big\":12345678901, \"price\":1.50, \"flags\":[true, null, {}]}}", JSON.class);
+    final JSONObject value = new JSONObject(result.toString());
+
+    assertEquals(value.get("id"), 1);
+    assertEquals(value.get("big"), 12345678901L);
+    assertEquals(value.get("price"), 1.5d);
+    assertEquals(value.getJSONArray("flags").get(0), Boolean.TRUE);
+    assertEquals(value.getJSONArray("flags").get(1), JSONObject.NULL);
+  }
+
+  @Test
+  public void test_metrics_record_hot_paths() throws BusinessException, IOException {
+    final Map<JsonFrameworkMetrics.Operation, Integer> calls = new EnumMap<>(JsonFrameworkMetrics.Operation.class);
+    JsonFrameworkMetrics.set(new JsonFrameworkMetrics() {
+      @Override
+      public synchronized void record(Operation operation, long elapsedNanos, boolean success) {
+        calls.put(operation, (calls.containsKey(operation) ? calls.get(operation) : 0) + 1);
+      }
+    });
+
+    try {
+      final JSON json = new JSON("{\"id\":0, \"a\":{\"type\":\"number\", \"value\":1}}", "{\"id\":1, \"a\":{\"value\":2}}");
+      new ObjectMapper().writeValueAsString(json);
+
+      assertEquals(calls.get(JsonFrameworkMetrics.Operation.ENFORCE_SCHEMA), Integer.valueOf(1));
+      assertEquals(calls.get(JsonFrameworkMetrics.Operation.CHECK_TYPE_CONSTRAINTS), Integer.valueOf(1));
+      assertEquals(calls.get(JsonFrameworkMetrics.Operation.SERIALIZE), Integer.valueOf(1));
+    } finally {
+      JsonFrameworkMetrics.set(null);
+    }
+    Assert.assertSame(JsonFrameworkMetrics.get(), JsonFrameworkMetrics.NOOP);
+  }
+
+  @Test
+  public void test_metrics_record_schema_names() throws BusinessException {
+    final List<String> records = new ArrayList<>();
+    JsonFrameworkMetrics.set(new JsonFrameworkMetrics() {
+      @Override
+      public void record(Operation operation, long elapsedNanos, boolean success) {
+        Assert.fail("not supposed to get here");
+      }
+
+      @Override
+      public synchronized void record(Operation operation, String schema, long elapsedNanos, boolean success) {
+        records.add(operation + ":" + schema);
+      }
+    });
+
+    try {
+      final CompiledSchema schema = new SchemaCache(4).get("bike", "{\"id\":0, \"a\":{\"type\":\"number\", \"value\":1}}");
+      assertEquals(schema.getName(), "bike");
+
+      schema.newJSON("{\"id\":1}");
+      assertEquals(records, Arrays.asList("ENFORCE_SCHEMA:bike", "CHECK_TYPE_CONSTRAINTS:bike"));
+
+      records.clear();
+      schema.newCollection(new JSONArray("[{\"id\":1}]"));
+      assertEquals(records, Arrays.asList("ENFORCE_SCHEMA:bike", "CHECK_TYPE_CONSTRAINTS:bike",
+          "ENFORCE_UNIQUENESS:bike"));
+
+      records.clear();
+      new JSON("{\"id\":1}");
+      assertEquals(records, Arrays.asList("CHECK_TYPE_CONSTRAINTS:null"));
+    } finally {
+      JsonFrameworkMetrics.set(null);
+    }
+  }
+
+  @Test
+  public void test_null_schema_calls_stay_unambiguous() throws BusinessException {
+    // must keep compiling next to the compiled schema entry points
+    final JSON json = new JSON(null, "{\"id\":1}");
+    json.setValue(null, new JSONObject("{\"id\":2}"));
+    assertEquals(json.toString(), "{\"id\":2}");
+    assertEquals(new JSONCollection(null, new JSONArray("[{\"id\":1}]")).toString(), "[{\"id\":1}]");
+    Assert.assertTrue(JSON.validate(null, new JSONObject("{\"id\":1}")).isValid());
+  }
+
+  @Test
+  public void test_jackson_tree_round_trip() throws BusinessException, IOException {
+    final String values = "{\"id\":1, \"big\":12345678901, \"price\":{\"type\":\"number\", \"value\":1.5}, \"flags\":[true, null, {}], \"name\":\"ol\u00e1\"}";
+    final JSON json = new JSON(values);
+
+    final ObjectNode tree = json.toTree();
+    assertEquals(new ObjectMapper().readTree(json.toString()), tree);
+
+    final JSON result = new CompiledSchema("{\"id\":0, \"price\":{\"type\":\"number\", \"value\":0}}").newJSON(tree);
+    assertEquals(result.toString(), new JSON("{\"id\":1, \"price\":{\"type\":\"number\", \"value\":1.5}}").toString());
+  }
+
+  @Test
+  public void test_jackson_tree_matches_serializer_for_json_text_values() throws BusinessException, IOException {
+    final Map<String, Object> map = new HashMap<>();
+    map.put("a", 1);
+    final JSON json = new JSON("{\"id\":1}");
+    json.getValue()
+        .put("jsonString", new JSONString() {
+          @Override
+          public String toJSONString() {
+            return "[1, {\"k\":\"v\"}]";
+          }
+        })
+        .put("map", (Object) map)
+        .put("collection", (Object) Arrays.asList("x", 2));
+
+    final ObjectMapper mapper = new ObjectMapper();
+    final ObjectNode tree = json.toTree();
+    assertEquals(tree, mapper.readTree(mapper.writeValueAsString(json)).get("value"));
+    assertEquals(tree, mapper.readTree(json.toString()));
+  }
+
+  @Test
+  public void test_parsed_keys_are_shared_between_documents() throws BusinessException {
+    final String schema = "{\"id\":0, \"odometer\":{\"type\":\"number\", \"value\":0}}";
+
+    final JSON a = new JSON(schema, "{\"id\":1, \"odometer\":{\"type\":\"number\", \"value\":10}}");
+    final JSON b = new JSON(schema, "{\"id\":2, \"odometer\":{\"type\":\"number\", \"value\":20}}");
+
+    Assert.assertSame(key(a.getValue(), "odometer"), key(b.getValue(), "odometer"));
+    Assert.assertSame(key(a.getValue().getJSONObject("odometer"), "value"), Constants.NODE_CUSTOM_PROPERTY_VALUE_TAG);
+    Assert.assertSame(a.getValue().getJSONObject("odometer").get("type"), Constants.NODE_CUSTOM_PROPERTY_TYPE_TAG_INSTANCE_NUMBER);
+  }
+
+  private static String key(JSONObject object, String name) {
+    for (Object key : object.keySet()) {
+      if (key.equals(name)) {
+        return (String) key;
+      }
+    }
+    return null;
+  }
+
+  @Test
+  public void test_java_serialization_round_trip() throws Exception {
+    final JSON json = new JSON("{\"id\":1, \"big\":12345678901, \"name\":{\"type\":\"sstring\", \"value\":\"ol\u00e1\"}, \"tags\":[true, null, 1.5, {\"type\":\"sstring\"}]}");
+    final JSONCollection collection = new JSONCollection("[{\"id\":1, \"name\":\"a\"}, {\"id\":2, \"name\":\"b\"}]");
+
+    // values org.json writes as json text, not as strings
+    final Map<String, Object> map = new HashMap<>();
+    map.put("a", 1);
+    map.put("list", Arrays.asList("x", 2));
+    final JSON raw = new JSON("{\"id\":2}");
+    raw.getValue()
+        .put("jsonString", new JSONString() {
+          @Override
+          public String toJSONString() {
+            return "{\"k\":[1, \"v\"]}";
+          }
+        })
+        .put("map", (Object) map)
+        .put("collection", (Object) Arrays.asList(true, null, "y"))
+        .put("array", new int[] { 3, 4 })
+        .put("enum", TimeUnit.SECONDS);
+
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+      out.writeObject(json);
+      out.writeObject(collection);
+      out.writeObject(raw);
+    }
+
+    try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+      assertEquals(in.readObject().toString(), json.toString());
+      assertEquals(in.readObject().toString(), collection.toString());
+
+      final JSONObject result = ((JSON) in.readObject()).getValue();
+      final JSONObject expected = new JSONObject("{\"id\":2, \"jsonString\":{\"k\":[1, \"v\"]},"
+          + " \"map\":{\"a\":1, \"list\":[\"x\", 2]}, \"collection\":[true, null, \"y\"], \"array\":[3, 4],"
+          + " \"enum\":\"SECONDS\"}");
+      Assert.assertTrue(JSON.similar(result, expected), result + " <> " + expected);
+      Assert.assertTrue(JSON.similar(result, new JSONObject(raw.toString())));
+    }
+  }
+
+  @Test
+  public void test_java_serialization_reads_text_format() throws Exception {
+    // written before the binary format, with the value stored as a String
+    final byte[] bytes = Base64.getDecoder().decode(""
+        + "rO0ABXNyABljb20uYmlrZWVtb3Rpb24uanNvbi5KU09OjjjDabktsZwDAAB4cHQAMHsibmFtZSI6eyJ0eXBlIjoic3N0cmluZyIsInZhbHVlIjoib2xhIn0sImlkIjoxfXhz"
+        + "cgAjY29tLmJpa2VlbW90aW9uLmpzb24uSlNPTkNvbGxlY3Rpb26kBqI7Fr4pMAMAAHhwdAAwW3sibW9uZXkiOnsidHlwZSI6Im51bWJlciIsInZhbHVlIjoxLjV9LCJpZCI6MX1deA==");
+
+    try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+      assertEquals(in.readObject().toString(), new JSON("{\"id\":1, \"name\":{\"type\":\"sstring\", \"value\":\"ola\"}}").toString());
+      assertEquals(in.readObject().toString(), new JSONCollection("[{\"id\":1, \"money\":{\"type\":\"number\", \"value\":1.5}}]").toString());
+    }
+  }
+
+  @Test
+  public void test_validate_reports_every_violation() throws BusinessException {
+    final String schema = "{\"id\":0, \"name\":{\"type\":\"sstring\", \"value\":\"\", \"mandatory\":true},"
+        + " \"price\":{\"type\":\"number\", \"value\":0, \"min\":0.0, \"max\":100.0},"
+        + " \"title\":{\"type\":\"string\", \"value\":{\"en\":\"-\"}, \"max\":5}}";
+    final JSONObject value = new JSONObject("{\"id\":1, \"name\":{\"type\":\"sstring\", \"value\":\"\", \"mandatory\":true},"
+        + " \"price\":{\"type\":\"number\", \"value\":150, \"min\":0.0, \"max\":100.0},"
+        + " \"title\":{\"type\":\"string\", \"value\":{\"en\":\"ok\", \"pt\":\"too long\"}, \"max\":5}}");
+    final String original = value.toString();
+
+    final ValidationResult result = JSON.validateCompiled(new CompiledSchema(schema), value);
+    Assert.assertFalse(result.isValid());
+    assertEquals(value.toString(), original);
+    assertEquals(result.getViolations().size(), 3);
+
+    int max = 0;
+    for (Violation violation : result.getViolations()) {
+      assertEquals(violation.getIndex(), -1);
+      if (violation.getCode() == Violation.Code.MANDATORY_VALUE) {
+        assertEquals(violation.getPath(), "/name");
+      } else {
+        assertEquals(violation.getCode(), Violation.Code.MAX_VALUE);
+        max++;
+        Assert.assertTrue(violation.getPath().equals("/price") && violation.getValue().equals(150)
+            || violation.getPath().equals("/title/value/pt") && violation.getValue().equals("too long"));
+        assertEquals(violation.getRule(), "max");
+      }
+    }
+    assertEquals(max, 2);
+
+    // the throwing methods report the same as the first violation
+    try {
+      new JSON(schema, original);
+      Assert.fail("not supposed to get here");
+    } catch (Exceptions.MandatoryValueExpectationFailedException | Exceptions.MaxValueExpectationFailedException e) {
+      boolean reported = false;
+      for (Violation violation : result.getViolations()) {
+        reported |= violation.getMessage().equals(e.getMessage());
+      }
+      Assert.assertTrue(reported);
+    }
+
+    Assert.assertTrue(JSON.validate(new JSONObject(schema), new JSONObject("{\"id\":1,"
+        + " \"name\":{\"type\":\"sstring\", \"value\":\"a\", \"mandatory\":true}}")).isValid());
+  }
+
+  @Test
+  public void test_number_constraints_compare_exactly() throws BusinessException {
+    // 2^53 + 1 is the same double as the max, but a greater number
+    try {
+      new JSON("{\"id\":1, \"n\":{\"type\":\"number\", \"value\":9007199254740993, \"max\":9007199254740992}}");
+      Assert.fail("not supposed to get here");
+    } catch (Exceptions.MaxValueExpectationFailedException e) {
+    }
+    new JSON("{\"id\":1, \"n\":{\"type\":\"number\", \"value\":9007199254740992, \"max\":9007199254740992}}");
+
+    final String schema = "{\"id\":0, \"n\":{\"type\":\"number\", \"value\":0, \"min\":0.5, \"max\":0.1e1}}";
+    new CompiledSchema(schema).newJSON("{\"id\":1, \"n\":{\"type\":\"number\", \"value\":0.5, \"min\":0.5, \"max\":0.1e1}}");
+    new CompiledSchema(schema).newJSON("{\"id\":1, \"n\":{\"type\":\"number\", \"value\":1, \"min\":0.5, \"max\":0.1e1}}");
+    try {
+      new CompiledSchema(schema).newJSON("{\"id\":1, \"n\":{\"type\":\"number\", \"value\":0.75, \"min\":0.5, \"max\":0.1e1}}");
+      Assert.fail("not supposed to get here");
+    } catch (Exceptions.NumberPrecisionExpectationFailedException e) {
+    }
+    try {
+      new CompiledSchema(schema).newJSON("{\"id\":1, \"n\":{\"type\":\"number\", \"value\":0.4, \"min\":0.5, \"max\":0.1e1}}");
+      Assert.fail("not supposed to get here");
+    } catch (Exceptions.MinValueExpectationFailedException e) {
+    }
+  }
+
+  @Test
+  public void test_schema_overlay_stores_only_explicit_values() throws BusinessException {
+    final String schema = "{\"id\":0, \"num1\":{\"type\":\"number\", \"value\":0, \"min\":0},"
+        + " \"address\":{\"street\":{\"type\":\"sstring\", \"value\":\"\"}, \"geo\":{\"lat\":0, \"lng\":0}},"
+        + " \"tags\":[\"a\"]}";
+    final String values = "{\"id\":1, \"num1\":{\"value\":12}, \"foo\":111}";
+    final CompiledSchema compiledSchema = new CompiledSchema(schema);
+
+    final SchemaOverlay overlay = JSON.overlaySchema(compiledSchema, new JSONObject(values));
+    Assert.assertTrue(JSON.similar(overlay.explicitValues(), new JSONObject("{\"id\":1, \"num1\":{\"value\":12}}")));
+    Assert.assertTrue(JSON.similar(new JSONObject(overlay.toString()),
+        JSON.enforceSchemaCompiled(compiledSchema, new JSONObject(values))));
+    Assert.assertTrue(JSON.similar(overlay.materialize(), compiledSchema.newJSON(values).getValue()));
+
+    assertEquals(overlay.length(), 4);
+    assertEquals(overlay.getOverlay("num1").get("type"), "number");
+    assertEquals(overlay.getOverlay("address").getOverlay("geo").get("lng"), 0);
+    Assert.assertFalse(overlay.explicitValues().has("address"));
+
+    // a change to an object read from the defaults is stored with its parents
+    overlay.getOverlay("address").getOverlay("geo").put("lat", 9);
+    assertEquals(overlay.explicitValues().getJSONObject("address").toString(), "{\"geo\":{\"lat\":9}}");
+    assertEquals(overlay.getOverlay("address").getOverlay("geo").get("lng"), 0);
+
+    // the schema defaults are never changed
+    ((JSONArray) overlay.get("tags")).put("b");
+    assertEquals(compiledSchema.getSchema().getJSONArray("tags").length(), 1);
+
+    try {
+      overlay.put("foo", 1);
+      Assert.fail("not supposed to get here");
+    } catch (JSONException e) {
+    }
+  }
+
+  @Test
+  public void test_validate_reports_nested_empty_objects_without_enforcing() {
+    final String schema = "{\"id\":0, \"address\":{\"geo\":{\"lat\":0}}}";
+    for (ValidationResult result : new ValidationResult[] {
+        JSON.validate(new JSONObject(schema), new JSONObject("{\"id\":1, \"address\":{\"geo\":{}}}")),
+        JSON.validateCompiled(new CompiledSchema(schema), new JSONObject("{\"id\":1, \"address\":{\"geo\":{}}}")) }) {
+      assertEquals(result.getViolations().size(), 1);
+      assertEquals(result.getViolations().get(0).getCode(), Violation.Code.INVALID_EMPTY_OBJECT);
+      assertEquals(result.getViolations().get(0).getPath(), "/address/geo");
+    }
+
+    // an empty schema removes every key, leaving an empty object
+    for (ValidationResult result : new ValidationResult[] {
+        JSON.validate(new JSONObject("{}"), new JSONObject("{\"id\":1}")),
+        JSON.validateCompiled(new CompiledSchema("{}"), new JSONObject("{\"id\":1}")) }) {
+      assertEquals(result.getViolations().size(), 1);
+      assertEquals(result.getViolations().get(0).getCode(), Violation.Code.INVALID_EMPTY_OBJECT);
+    }
+  }
+
 }